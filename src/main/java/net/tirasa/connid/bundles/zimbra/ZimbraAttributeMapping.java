@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.account.ProvisioningConstants;
+import com.zimbra.cs.account.Provisioning;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Precompiled mapping between connector and Zimbra attributes, for each object class.
+ * <p>
+ * Attribute names are looked up case-insensitively in tables built once, without allocating; values are wrapped in
+ * read-only lists instead of being copied, and boolean operational attributes are shared constants.
+ */
+public final class ZimbraAttributeMapping {
+
+    private enum Conversion {
+        NAME,
+        UID,
+        ENABLE,
+        LOCK_OUT,
+        PASSWORD,
+        PASSWORD_EXPIRED,
+        ACCOUNT_STATUS,
+        MAIL_STATUS,
+        USER_PASSWORD,
+        PASSWORD_MUST_CHANGE,
+        ALIASES
+
+    }
+
+    /**
+     * Connector attribute mapping.
+     */
+    private static final class Mapping {
+
+        private final String zimbraName;
+
+        private final Conversion conversion;
+
+        /**
+         * Whether the attribute is not written as a plain Zimbra attribute.
+         */
+        private final boolean special;
+
+        private Mapping(String zimbraName, Conversion conversion, boolean special) {
+            this.zimbraName = zimbraName;
+            this.conversion = conversion;
+            this.special = special;
+        }
+    }
+
+    /**
+     * Open addressing hash table with case-insensitive keys.
+     */
+    private static final class Table<V> {
+
+        private final String[] keys;
+
+        private final Object[] values;
+
+        private final int mask;
+
+        private Table(Map<String, V> entries) {
+            int capacity = Integer.highestOneBit(Math.max(entries.size(), 1) * 4);
+            keys = new String[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            for (Map.Entry<String, V> entry : entries.entrySet()) {
+                int i = hash(entry.getKey()) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = entry.getKey();
+                values[i] = entry.getValue();
+            }
+        }
+
+        private static int hash(String name) {
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++) {
+                hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(String name) {
+            if (name == null) {
+                return null;
+            }
+            int i = hash(name) & mask;
+            while (keys[i] != null) {
+                if (keys[i].equalsIgnoreCase(name)) {
+                    return (V) values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+    }
+
+    private static final Attribute ENABLED = AttributeBuilder.buildEnabled(true);
+
+    private static final Attribute DISABLED = AttributeBuilder.buildEnabled(false);
+
+    private static final Attribute LOCKED_OUT = AttributeBuilder.buildLockOut(true);
+
+    private static final Attribute PASSWORD_EXPIRED = AttributeBuilder.buildPasswordExpired(true);
+
+    private static final Attribute PASSWORD_NOT_EXPIRED = AttributeBuilder.buildPasswordExpired(false);
+
+    private static final ZimbraAttributeMapping ACCOUNT = new ZimbraAttributeMapping(ObjectClass.ACCOUNT);
+
+    private static final ZimbraAttributeMapping GROUP = new ZimbraAttributeMapping(ObjectClass.GROUP);
+
+    private static final Map<ObjectClass, ZimbraAttributeMapping> OTHERS =
+            Collections.synchronizedMap(new HashMap<ObjectClass, ZimbraAttributeMapping>());
+
+    /**
+     * @param objClass object class
+     * @return mapping of the given object class
+     */
+    public static ZimbraAttributeMapping forClass(ObjectClass objClass) {
+        if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+            return ACCOUNT;
+        } else if (objClass.is(ObjectClass.GROUP_NAME)) {
+            return GROUP;
+        }
+        ZimbraAttributeMapping mapping = OTHERS.get(objClass);
+        if (mapping == null) {
+            mapping = new ZimbraAttributeMapping(objClass);
+            OTHERS.put(objClass, mapping);
+        }
+        return mapping;
+    }
+
+    private final ObjectClass objClass;
+
+    private final boolean account;
+
+    private final Table<Mapping> toZimbra;
+
+    private final Table<Conversion> fromZimbra;
+
+    private ZimbraAttributeMapping(ObjectClass objClass) {
+        this.objClass = objClass;
+        this.account = objClass.is(ObjectClass.ACCOUNT_NAME);
+        boolean group = objClass.is(ObjectClass.GROUP_NAME);
+
+        Map<String, Mapping> mappings = new HashMap<String, Mapping>();
+        mappings.put(Name.NAME, new Mapping(
+                account || group ? Provisioning.A_uid : Name.NAME, Conversion.NAME, true));
+        mappings.put(Uid.NAME, new Mapping(Provisioning.A_uid, Conversion.UID, true));
+        mappings.put(OperationalAttributes.ENABLE_NAME, new Mapping(
+                account ? Provisioning.A_zimbraAccountStatus
+                        : group ? Provisioning.A_zimbraMailStatus : OperationalAttributes.ENABLE_NAME,
+                account || group ? Conversion.ENABLE : null, false));
+        mappings.put(OperationalAttributes.LOCK_OUT_NAME, new Mapping(
+                account ? Provisioning.A_zimbraAccountStatus : OperationalAttributes.LOCK_OUT_NAME,
+                Conversion.LOCK_OUT, false));
+        mappings.put(OperationalAttributes.PASSWORD_NAME, new Mapping(
+                account ? Provisioning.A_userPassword : OperationalAttributes.PASSWORD_NAME,
+                Conversion.PASSWORD, true));
+        mappings.put(OperationalAttributes.PASSWORD_EXPIRED_NAME, new Mapping(
+                account ? Provisioning.A_zimbraPasswordMustChange : OperationalAttributes.PASSWORD_EXPIRED_NAME,
+                Conversion.PASSWORD_EXPIRED, false));
+        mappings.put(ZimbraSpecialAttributes.ALIASES_NAME,
+                new Mapping(Provisioning.A_zimbraMailAlias, null, true));
+        mappings.put(ZimbraSpecialAttributes.MEMBERS_NAME,
+                new Mapping(Provisioning.A_zimbraMailForwardingAddress, null, true));
+        mappings.put(ZimbraSpecialAttributes.GROUPS_NAME,
+                new Mapping(ZimbraSpecialAttributes.GROUPS_NAME, null, true));
+        mappings.put(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME,
+                new Mapping(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME, null, true));
+        this.toZimbra = new Table<Mapping>(mappings);
+
+        Map<String, Conversion> conversions = new HashMap<String, Conversion>();
+        conversions.put(Provisioning.A_zimbraAccountStatus, Conversion.ACCOUNT_STATUS);
+        conversions.put(Provisioning.A_zimbraMailStatus, Conversion.MAIL_STATUS);
+        conversions.put(Provisioning.A_userPassword, Conversion.USER_PASSWORD);
+        conversions.put(Provisioning.A_zimbraPasswordMustChange, Conversion.PASSWORD_MUST_CHANGE);
+        conversions.put(Provisioning.A_zimbraMailAlias, Conversion.ALIASES);
+        this.fromZimbra = new Table<Conversion>(conversions);
+    }
+
+    /**
+     * @param name connector attribute name
+     * @return Zimbra attribute name
+     */
+    public String toZimbraName(String name) {
+        Mapping mapping = toZimbra.get(name);
+        return mapping == null ? name : mapping.zimbraName;
+    }
+
+    /**
+     * @param attr connector attribute
+     * @return Zimbra value: null, single value or <code>Object[]</code>
+     */
+    public Object toZimbraValue(Attribute attr) {
+        Mapping mapping = toZimbra.get(attr.getName());
+        if (mapping != null && mapping.conversion != null) {
+            switch (mapping.conversion) {
+                case NAME:
+                    return ((Name) attr).getNameValue();
+
+                case UID:
+                    return ZimbraConnector.toObjectUid(objClass, ((Uid) attr).getUidValue());
+
+                case ENABLE:
+                    if (account) {
+                        return AttributeUtil.getBooleanValue(attr)
+                                ? Provisioning.ACCOUNT_STATUS_ACTIVE : Provisioning.ACCOUNT_STATUS_PENDING;
+                    }
+                    return AttributeUtil.getBooleanValue(attr)
+                            ? Provisioning.MAIL_STATUS_ENABLED : Provisioning.MAIL_STATUS_DISABLED;
+
+                case LOCK_OUT:
+                    return AttributeUtil.getBooleanValue(attr)
+                            ? Provisioning.ACCOUNT_STATUS_LOCKED : Provisioning.ACCOUNT_STATUS_ACTIVE;
+
+                case PASSWORD:
+                    return GuardedStringAccessor.toString(AttributeUtil.getGuardedStringValue(attr));
+
+                case PASSWORD_EXPIRED:
+                    return AttributeUtil.getBooleanValue(attr)
+                            ? ProvisioningConstants.TRUE : ProvisioningConstants.FALSE;
+
+                default:
+            }
+        }
+        List<Object> value = attr.getValue();
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return value.size() == 1 ? value.get(0) : value.toArray();
+    }
+
+    /**
+     * @param attrs connector attributes
+     * @return Zimbra attributes, except name, password and special attributes
+     */
+    public Map<String, Object> toZimbraAttributes(Iterable<Attribute> attrs) {
+        Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
+        for (Attribute attr : attrs) {
+            Mapping mapping = toZimbra.get(attr.getName());
+            if (mapping == null) {
+                zimbraAttrs.put(attr.getName(), toZimbraValue(attr));
+            } else if (!mapping.special) {
+                zimbraAttrs.put(mapping.zimbraName, toZimbraValue(attr));
+            }
+        }
+        return zimbraAttrs;
+    }
+
+    /**
+     * Converts Zimbra attributes to connector attributes; for accounts, <code>__ENABLE__</code> is given by
+     * <code>zimbraAccountStatus</code> whenever available.
+     *
+     * @param zimbraAttrs Zimbra attribute values, either single values or <code>Object[]</code>
+     * @return connector attributes
+     */
+    public List<Attribute> toAttributes(Map<String, Object> zimbraAttrs) {
+        List<Attribute> attrs = new ArrayList<Attribute>(zimbraAttrs.size());
+        for (Map.Entry<String, Object> zimbraAttr : zimbraAttrs.entrySet()) {
+            Object zimbraValue = zimbraAttr.getValue();
+            Conversion conversion = fromZimbra.get(zimbraAttr.getKey());
+            if (conversion == null) {
+                attrs.add(AttributeBuilder.build(zimbraAttr.getKey(), toValues(zimbraValue)));
+                continue;
+            }
+            switch (conversion) {
+                case ACCOUNT_STATUS:
+                    if (Provisioning.ACCOUNT_STATUS_LOCKED.equalsIgnoreCase((String) zimbraValue)) {
+                        attrs.add(LOCKED_OUT);
+                    } else {
+                        attrs.add(Provisioning.ACCOUNT_STATUS_ACTIVE.equalsIgnoreCase((String) zimbraValue)
+                                ? ENABLED : DISABLED);
+                    }
+                    break;
+
+                case MAIL_STATUS:
+                    if (!account || !zimbraAttrs.containsKey(Provisioning.A_zimbraAccountStatus)) {
+                        attrs.add(Provisioning.MAIL_STATUS_ENABLED.equalsIgnoreCase((String) zimbraValue)
+                                ? ENABLED : DISABLED);
+                    }
+                    break;
+
+                case USER_PASSWORD:
+                    attrs.add(AttributeBuilder.buildPassword(((String) zimbraValue).toCharArray()));
+                    break;
+
+                case PASSWORD_MUST_CHANGE:
+                    attrs.add(ProvisioningConstants.TRUE.equalsIgnoreCase((String) zimbraValue)
+                            ? PASSWORD_EXPIRED : PASSWORD_NOT_EXPIRED);
+                    break;
+
+                case ALIASES:
+                    attrs.add(AttributeBuilder.build(ZimbraSpecialAttributes.ALIASES_NAME, toValues(zimbraValue)));
+                    break;
+
+                default:
+                    attrs.add(AttributeBuilder.build(zimbraAttr.getKey(), toValues(zimbraValue)));
+            }
+        }
+        return attrs;
+    }
+
+    private static List<Object> toValues(Object zimbraValue) {
+        return zimbraValue instanceof Object[]
+                ? Arrays.asList((Object[]) zimbraValue)
+                : Collections.singletonList(zimbraValue);
+    }
+}
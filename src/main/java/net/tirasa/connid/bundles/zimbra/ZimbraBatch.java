@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.ZimbraNamespace;
+import com.zimbra.cs.account.soap.SoapProvisioning;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Requests sent together in a single <code>BatchRequest</code>, hence in a single round trip; requests are executed
+ * in order and, with {@link #execute(SoapProvisioning)}, execution stops at the first failure, reported as a
+ * {@link FaultException}. Independent requests can instead be sent with {@link #executeAll(SoapProvisioning)}.
+ */
+public class ZimbraBatch {
+
+    private static final Log LOG = Log.getLog(ZimbraBatch.class);
+
+    private static final String A_ONERROR = "onerror";
+
+    private static final String ONERROR_STOP = "stop";
+
+    private static final String ONERROR_CONTINUE = "continue";
+
+    private static final String A_REQUEST_ID = "requestId";
+
+    private static final String E_FAULT = "Fault";
+
+    private static final String E_ERROR = "Error";
+
+    private static final String E_CODE = "Code";
+
+    private static final String E_TEXT = "Text";
+
+    private static final String E_FAULTSTRING = "faultstring";
+
+    /**
+     * Failure of a request within a batch, carrying the error code reported by Zimbra.
+     */
+    public static class FaultException extends ServiceException {
+
+        private static final long serialVersionUID = -3526426815683717463L;
+
+        private final int index;
+
+        public FaultException(String message, String code, int index) {
+            super(message, code, false, null);
+            this.index = index;
+        }
+
+        /**
+         * @return position of the failed request in the batch
+         */
+        public int getIndex() {
+            return index;
+        }
+    }
+
+    private final List<Element> requests = new ArrayList<Element>();
+
+    public ZimbraBatch add(Element request) {
+        requests.add(request);
+        return this;
+    }
+
+    public ZimbraBatch addAll(List<Element> requests) {
+        this.requests.addAll(requests);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return requests.isEmpty();
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * Sends all requests; a single request is sent as is.
+     *
+     * @param sp provisioning
+     * @return responses, in request order
+     * @throws ServiceException if any request fails
+     */
+    public List<Element> execute(SoapProvisioning sp) throws ServiceException {
+        if (requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (requests.size() == 1) {
+            return Collections.singletonList(sp.invoke(requests.get(0)));
+        }
+
+        List<Element> responses = new ArrayList<Element>(requests.size());
+        for (Element response : invoke(sp, ONERROR_STOP).listElements()) {
+            if (E_FAULT.equals(response.getName())) {
+                throw toFaultException(response, responses.size());
+            }
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    /**
+     * Sends all requests, executing each of them regardless of the outcome of the others.
+     *
+     * @param sp provisioning
+     * @return failures, by position of the failed request
+     * @throws ServiceException if the batch itself could not be sent
+     */
+    public Map<Integer, ServiceException> executeAll(SoapProvisioning sp) throws ServiceException {
+        Map<Integer, ServiceException> failures = new HashMap<Integer, ServiceException>();
+        executeEach(sp, failures);
+        return failures;
+    }
+
+    /**
+     * Sends all requests, executing each of them regardless of the outcome of the others, and collects their
+     * responses.
+     *
+     * @param sp provisioning
+     * @param failures filled with failures, by position of the failed request
+     * @return responses, in request order; null for failed requests
+     * @throws ServiceException if the batch itself could not be sent
+     */
+    public List<Element> executeEach(SoapProvisioning sp, Map<Integer, ServiceException> failures)
+            throws ServiceException {
+
+        List<Element> responses = new ArrayList<Element>(Collections.<Element>nCopies(requests.size(), null));
+        if (requests.size() == 1) {
+            try {
+                responses.set(0, sp.invoke(requests.get(0)));
+            } catch (ServiceException ex) {
+                failures.put(0, ex);
+            }
+        } else if (requests.size() > 1) {
+            int position = 0;
+            for (Element response : invoke(sp, ONERROR_CONTINUE).listElements()) {
+                int index = position;
+                try {
+                    index = Integer.parseInt(response.getAttribute(A_REQUEST_ID, String.valueOf(position)));
+                } catch (NumberFormatException ex) {
+                    // keep position
+                }
+                if (index < 0 || index >= requests.size()) {
+                    index = position;
+                }
+                if (E_FAULT.equals(response.getName())) {
+                    failures.put(index, toFaultException(response, index));
+                } else {
+                    responses.set(index, response);
+                }
+                position++;
+            }
+        }
+        return responses;
+    }
+
+    private Element invoke(SoapProvisioning sp, String onerror) throws ServiceException {
+        Element batch = new Element.XMLElement(ZimbraNamespace.E_BATCH_REQUEST);
+        batch.addAttribute(A_ONERROR, onerror);
+        for (int i = 0; i < requests.size(); i++) {
+            Element request = requests.get(i);
+            request.addAttribute(A_REQUEST_ID, String.valueOf(i));
+            batch.addElement(request);
+        }
+        LOG.ok("Sending {0} requests in batch", requests.size());
+        return sp.invoke(batch);
+    }
+
+    /**
+     * Reads both SOAP 1.1 and SOAP 1.2 faults: the code is in <code>Detail/Error/Code</code>, the message in
+     * <code>Reason/Text</code> or <code>faultstring</code>.
+     *
+     * @param fault fault element
+     * @param index position of the failed request
+     * @return exception
+     */
+    protected static FaultException toFaultException(Element fault, int index) {
+        Element error = find(fault, E_ERROR);
+        Element code = error == null ? null : find(error, E_CODE);
+        Element text = find(fault, E_TEXT);
+        if (text == null) {
+            text = find(fault, E_FAULTSTRING);
+        }
+        return new FaultException(
+                text == null ? "Batch request " + index + " failed" : text.getText(),
+                code == null ? ServiceException.FAILURE : code.getText(),
+                index);
+    }
+
+    private static Element find(Element element, String name) {
+        for (Element child : element.listElements()) {
+            if (name.equalsIgnoreCase(child.getName())) {
+                return child;
+            }
+            Element found = find(child, name);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,476 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.service.ServiceException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Executes a stream of create, update and delete requests with a bounded number of requests in flight.
+ * <p>
+ * Requests are taken in chunks of <code>batchSize</code>, each chunk being executed in order by one worker thread,
+ * with up to <code>concurrency</code> chunks executed at once; consecutive deletes of a chunk are sent in a single
+ * <code>BatchRequest</code>. Requests for the same entry should therefore be submitted in the same chunk, or in
+ * different calls.
+ */
+public class ZimbraBulkProvisioner {
+
+    private static final Log LOG = Log.getLog(ZimbraBulkProvisioner.class);
+
+    /**
+     * Script action running a bulk provisioning, see {@link #run(ZimbraConnector, Map)}.
+     */
+    public static final String ACTION = "bulk";
+
+    public static final String ARG_REQUESTS = "requests";
+
+    public static final String ARG_OPERATION = "operation";
+
+    public static final String ARG_OBJECT_CLASS = "objectClass";
+
+    public static final String ARG_UID = "uid";
+
+    public static final String ARG_ATTRIBUTES = "attributes";
+
+    public static final String ARG_SUCCESS = "success";
+
+    public static final String ARG_ERROR = "error";
+
+    public enum Operation {
+        CREATE,
+        UPDATE,
+        DELETE
+
+    }
+
+    public static class Request {
+
+        private final Operation operation;
+
+        private final ObjectClass objClass;
+
+        private final Uid uid;
+
+        private final Set<Attribute> attrs;
+
+        protected Request(Operation operation, ObjectClass objClass, Uid uid, Set<Attribute> attrs) {
+            this.operation = operation;
+            this.objClass = objClass;
+            this.uid = uid;
+            this.attrs = attrs;
+        }
+
+        public static Request create(ObjectClass objClass, Set<Attribute> attrs) {
+            return new Request(Operation.CREATE, objClass, new Uid(ZimbraConnector.toObjectUid(
+                    objClass, ZimbraConnector.getName(attrs))), attrs);
+        }
+
+        public static Request update(ObjectClass objClass, Uid uid, Set<Attribute> attrs) {
+            return new Request(Operation.UPDATE, objClass, uid, attrs);
+        }
+
+        public static Request delete(ObjectClass objClass, Uid uid) {
+            return new Request(Operation.DELETE, objClass, uid, Collections.<Attribute>emptySet());
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public ObjectClass getObjectClass() {
+            return objClass;
+        }
+
+        public Uid getUid() {
+            return uid;
+        }
+
+        public Set<Attribute> getAttributes() {
+            return attrs;
+        }
+    }
+
+    public static class Result {
+
+        private final Request request;
+
+        private final Uid uid;
+
+        private final RuntimeException failure;
+
+        protected Result(Request request, Uid uid, RuntimeException failure) {
+            this.request = request;
+            this.uid = uid;
+            this.failure = failure;
+        }
+
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * @return uid after the operation, null if failed
+         */
+        public Uid getUid() {
+            return uid;
+        }
+
+        /**
+         * @return failure, null if succeeded
+         */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+    }
+
+    /**
+     * Callback receiving the result of each request, one at a time, from any thread.
+     */
+    public interface ResultHandler {
+
+        void handle(Result result);
+    }
+
+    private final ZimbraConnector connector;
+
+    private final int concurrency;
+
+    private final int batchSize;
+
+    public ZimbraBulkProvisioner(ZimbraConnector connector, int concurrency, int batchSize) {
+        this.connector = connector;
+        this.concurrency = Math.max(1, concurrency);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Executes all given requests, returning when all of them are done.
+     *
+     * @param requests requests
+     * @param handler result handler
+     * @return number of failed requests
+     */
+    public int execute(Iterator<Request> requests, final ResultHandler handler) {
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final int[] failures = new int[1];
+        final ResultHandler counting = new ResultHandler() {
+
+            @Override
+            public void handle(Result result) {
+                synchronized (this) {
+                    if (!result.isSuccess()) {
+                        failures[0]++;
+                    }
+                    handler.handle(result);
+                }
+            }
+        };
+
+        ExecutorService executor = connector.connection().workers();
+        try {
+            while (requests.hasNext()) {
+                final List<Request> chunk = new ArrayList<Request>(batchSize);
+                while (requests.hasNext() && chunk.size() < batchSize) {
+                    chunk.add(requests.next());
+                }
+                inFlight.acquire();
+                try {
+                    executor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            try {
+                                execute(chunk, counting);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    inFlight.release();
+                    throw ex;
+                }
+            }
+            // wait for all chunks
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while executing bulk requests", ex);
+        }
+        synchronized (counting) {
+            return failures[0];
+        }
+    }
+
+    private void execute(List<Request> chunk, ResultHandler handler) {
+        List<Request> deletes = new ArrayList<Request>();
+        for (Request request : chunk) {
+            if (request.getOperation() == Operation.DELETE) {
+                deletes.add(request);
+                continue;
+            }
+            delete(deletes, handler);
+            deletes.clear();
+
+            try {
+                Uid uid = request.getOperation() == Operation.CREATE
+                        ? connector.create(request.getObjectClass(), request.getAttributes(), null)
+                        : connector.update(request.getObjectClass(), request.getUid(), request.getAttributes(), null);
+                handler.handle(new Result(request, uid, null));
+            } catch (RuntimeException ex) {
+                LOG.error(ex, "{0} {1} failed", request.getOperation(), request.getUid());
+                handler.handle(new Result(request, null, ex));
+            }
+        }
+        delete(deletes, handler);
+    }
+
+    /**
+     * Deletes the given entries with a single batch of requests, each executed regardless of the others.
+     *
+     * @param deletes delete requests
+     * @param handler result handler
+     */
+    private void delete(List<Request> deletes, ResultHandler handler) {
+        if (deletes.isEmpty()) {
+            return;
+        }
+
+        ZimbraBatch batch = new ZimbraBatch();
+        List<Request> sent = new ArrayList<Request>();
+        List<String> sentNames = new ArrayList<String>();
+        for (Request request : deletes) {
+            try {
+                String zimbraName = connector.toObjectName(request.getObjectClass(), request.getUid().getUidValue());
+                String zimbraId = connector.getZimbraId(request.getObjectClass(), zimbraName);
+                if (zimbraId == null) {
+                    throw new UnknownUidException(request.getUid(), request.getObjectClass());
+                }
+                batch.add(ZimbraRequests.delete(request.getObjectClass(), zimbraId));
+                sent.add(request);
+                sentNames.add(zimbraName);
+            } catch (ServiceException ex) {
+                handler.handle(new Result(request, null, deleteFailed(request, ex)));
+            } catch (RuntimeException ex) {
+                handler.handle(new Result(request, null, ex));
+            }
+        }
+
+        Map<Integer, ServiceException> failures;
+        try {
+            failures = batch.executeAll(connector.sp());
+        } catch (ServiceException ex) {
+            for (Request request : sent) {
+                handler.handle(new Result(request, null, deleteFailed(request, ex)));
+            }
+            return;
+        } finally {
+            connector.connection().invalidateMembershipIndex();
+        }
+        for (int i = 0; i < sent.size(); i++) {
+            Request request = sent.get(i);
+            ZimbraIdCache idCache = connector.connection().getIdCache(request.getObjectClass());
+            ServiceException failure = failures.get(i);
+            if (failure == null) {
+                idCache.putAbsent(sentNames.get(i));
+                handler.handle(new Result(request, request.getUid(), null));
+            } else if (ZimbraRequests.isNoSuchEntry(failure)) {
+                idCache.remove(sentNames.get(i));
+                handler.handle(new Result(request, null,
+                        new UnknownUidException(request.getUid(), request.getObjectClass())));
+            } else {
+                handler.handle(new Result(request, null, deleteFailed(request, failure)));
+            }
+        }
+    }
+
+    private RuntimeException deleteFailed(Request request, ServiceException ex) {
+        return connector.connectorException(ex, ZimbraConstants.ZIMBRA_DELETE_FAILED_MSG,
+                request.getObjectClass(), request.getUid().getUidValue());
+    }
+
+    /**
+     * Runs the {@link #ACTION} script action: the {@link #ARG_REQUESTS} argument is a list of maps, each with
+     * {@link #ARG_OPERATION} (<code>CREATE</code>, <code>UPDATE</code> or <code>DELETE</code>),
+     * {@link #ARG_OBJECT_CLASS}, {@link #ARG_UID} and, unless deleting, {@link #ARG_ATTRIBUTES} as a map of
+     * attribute name to value or list of values.
+     *
+     * @param connector connector
+     * @param arguments script arguments
+     * @return one map per request, in request order, with {@link #ARG_OPERATION}, {@link #ARG_OBJECT_CLASS},
+     * {@link #ARG_UID}, {@link #ARG_SUCCESS} and, if failed, {@link #ARG_ERROR}
+     * @throws InvalidAttributeValueException if any request is invalid, in which case no request is executed
+     */
+    public static List<Map<String, Object>> run(ZimbraConnector connector, Map<String, Object> arguments) {
+        Object requestsArg = arguments == null ? null : arguments.get(ARG_REQUESTS);
+        if (!(requestsArg instanceof Collection)) {
+            throw new InvalidAttributeValueException("Missing script argument " + ARG_REQUESTS);
+        }
+        // validate all items before sending anything
+        final List<Request> requests = new ArrayList<Request>();
+        for (Object item : (Collection<?>) requestsArg) {
+            requests.add(toRequest(requests.size(), item));
+        }
+
+        final Map<Request, Result> results = new LinkedHashMap<Request, Result>();
+        for (Request request : requests) {
+            results.put(request, null);
+        }
+        ZimbraConfiguration configuration = (ZimbraConfiguration) connector.getConfiguration();
+        new ZimbraBulkProvisioner(connector, configuration.getBulkConcurrency(), configuration.getBulkBatchSize()).
+                execute(requests.iterator(), new ResultHandler() {
+
+                    @Override
+                    public void handle(Result result) {
+                        results.put(result.getRequest(), result);
+                    }
+                });
+
+        List<Map<String, Object>> output = new ArrayList<Map<String, Object>>(requests.size());
+        for (Result result : results.values()) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put(ARG_OPERATION, result.getRequest().getOperation().name());
+            item.put(ARG_OBJECT_CLASS, result.getRequest().getObjectClass().getObjectClassValue());
+            item.put(ARG_UID, result.isSuccess()
+                    ? result.getUid().getUidValue()
+                    : result.getRequest().getUid().getUidValue());
+            item.put(ARG_SUCCESS, result.isSuccess());
+            if (!result.isSuccess()) {
+                item.put(ARG_ERROR, result.getFailure().getMessage());
+            }
+            output.add(item);
+        }
+        return output;
+    }
+
+    /**
+     * @param index position of the item in the {@link #ARG_REQUESTS} argument
+     * @param item request item
+     * @return request
+     * @throws InvalidAttributeValueException if the item is not a map, or its operation, object class, uid or
+     * attributes are missing or invalid
+     */
+    protected static Request toRequest(int index, Object item) {
+        if (!(item instanceof Map)) {
+            throw new InvalidAttributeValueException("Bulk request " + index + " is not a map");
+        }
+        Map<?, ?> map = (Map<?, ?>) item;
+
+        Object operationArg = map.get(ARG_OPERATION);
+        Operation operation = null;
+        if (operationArg != null) {
+            for (Operation candidate : Operation.values()) {
+                if (candidate.name().equalsIgnoreCase(operationArg.toString())) {
+                    operation = candidate;
+                }
+            }
+        }
+        if (operation == null) {
+            throw new InvalidAttributeValueException(
+                    "Bulk request " + index + ": invalid " + ARG_OPERATION + " " + operationArg);
+        }
+
+        String objClassValue = toValue(map.get(ARG_OBJECT_CLASS));
+        if (objClassValue == null) {
+            throw new InvalidAttributeValueException("Bulk request " + index + ": missing " + ARG_OBJECT_CLASS);
+        }
+        ObjectClass objClass = new ObjectClass(objClassValue);
+        String uidValue = toValue(map.get(ARG_UID));
+
+        Set<Attribute> attrs = new HashSet<Attribute>();
+        Object attributesArg = map.get(ARG_ATTRIBUTES);
+        if (attributesArg instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) attributesArg).entrySet()) {
+                attrs.add(toAttribute(String.valueOf(entry.getKey()), entry.getValue()));
+            }
+        } else if (attributesArg != null) {
+            throw new InvalidAttributeValueException("Bulk request " + index + ": " + ARG_ATTRIBUTES + " is not a map");
+        }
+        if (operation == Operation.CREATE && AttributeUtil.getNameFromAttributes(attrs) == null && uidValue != null) {
+            attrs.add(new Name(uidValue));
+        }
+
+        if (operation == Operation.CREATE ? AttributeUtil.getNameFromAttributes(attrs) == null : uidValue == null) {
+            throw new InvalidAttributeValueException("Bulk request " + index + ": missing " + ARG_UID);
+        }
+        switch (operation) {
+            case CREATE:
+                return Request.create(objClass, attrs);
+            case UPDATE:
+                return Request.update(objClass, new Uid(uidValue), attrs);
+            default:
+                return Request.delete(objClass, new Uid(uidValue));
+        }
+    }
+
+    /**
+     * @param value argument value
+     * @return trimmed string value, null if missing or blank
+     */
+    private static String toValue(Object value) {
+        String string = value == null ? null : value.toString().trim();
+        return string == null || string.isEmpty() ? null : string;
+    }
+
+    private static Attribute toAttribute(String name, Object value) {
+        List<Object> values = new ArrayList<Object>();
+        if (value instanceof Collection) {
+            values.addAll((Collection<?>) value);
+        } else if (value != null) {
+            values.add(value);
+        }
+        if (OperationalAttributes.PASSWORD_NAME.equals(name) && !values.isEmpty()) {
+            return AttributeBuilder.buildPassword(values.get(0).toString().toCharArray());
+        }
+        if (Name.NAME.equals(name) && !values.isEmpty()) {
+            return new Name(values.get(0).toString());
+        }
+        if ((OperationalAttributes.ENABLE_NAME.equals(name)
+                || OperationalAttributes.LOCK_OUT_NAME.equals(name)
+                || OperationalAttributes.PASSWORD_EXPIRED_NAME.equals(name))
+                && !values.isEmpty() && values.get(0) instanceof String) {
+
+            return AttributeBuilder.build(name, Boolean.valueOf((String) values.get(0)));
+        }
+        return AttributeBuilder.build(name, values);
+    }
+}
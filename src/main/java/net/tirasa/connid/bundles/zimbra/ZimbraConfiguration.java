@@ -16,6 +16,7 @@
 package net.tirasa.connid.bundles.zimbra;
 
 import com.zimbra.common.soap.AdminConstants;
+import java.util.Arrays;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
@@ -30,6 +31,21 @@ public class ZimbraConfiguration extends AbstractConfiguration {
 
     private static final Log LOG = Log.getLog(ZimbraConfiguration.class);
 
+    /**
+     * Default projection returning all attributes.
+     */
+    public static final String PROJECTION_ALL = "all";
+
+    /**
+     * Default projection returning the attributes declared by the schema and returned by default.
+     */
+    public static final String PROJECTION_SCHEMA = "schema";
+
+    /**
+     * Default projection returning the attributes listed in {@link #getDefaultAttributesToGet()}.
+     */
+    public static final String PROJECTION_LIST = "list";
+
     /**
      * The Administration Service Location value
      */
@@ -55,6 +71,137 @@ public class ZimbraConfiguration extends AbstractConfiguration {
      */
     private String cos = null;
 
+    /**
+     * The number of entries fetched for each search request
+     */
+    private int searchPageSize = 500;
+
+    /**
+     * The maximum number of entry ids cached for each object class
+     */
+    private int idCacheSize = 10000;
+
+    /**
+     * The time to live, in seconds, of cached entry ids
+     */
+    private long idCacheTtl = 300;
+
+    /**
+     * The time to live, in seconds, of cached missing entries
+     */
+    private long idCacheAbsentTtl = 30;
+
+    /**
+     * Whether updates only send the attributes and aliases actually changed
+     */
+    private boolean diffUpdate = false;
+
+    /**
+     * The maximum number of distribution list members added or removed by each request
+     */
+    private int memberChunkSize = 500;
+
+    /**
+     * The maximum number of member requests sent concurrently
+     */
+    private int memberUpdateConcurrency = 1;
+
+    /**
+     * Whether writes are attempted without checking first whether the entry exists
+     */
+    private boolean optimisticWrites = false;
+
+    /**
+     * The maximum number of bulk provisioning chunks executed at once
+     */
+    private int bulkConcurrency = 4;
+
+    /**
+     * The number of bulk provisioning requests in each chunk
+     */
+    private int bulkBatchSize = 50;
+
+    /**
+     * Number of partitions searched concurrently by unpaged searches.
+     */
+    private int searchParallelism = 1;
+
+    /**
+     * Groups of <code>uid</code> first characters searched by each partition.
+     */
+    private String[] searchPartitions = {};
+
+    /**
+     * Whether partitioned searches return entries in <code>uid</code> order.
+     */
+    private boolean searchOrdered = true;
+
+    /**
+     * Whether search filters are simplified before being sent to Zimbra.
+     */
+    private boolean filterOptimization = true;
+
+    /**
+     * Attributes returned by searches not asking for specific attributes: all, schema or list.
+     */
+    private String defaultProjection = PROJECTION_ALL;
+
+    /**
+     * Attributes returned by searches not asking for specific attributes, when defaultProjection is list.
+     */
+    private String[] defaultAttributesToGet = {};
+
+    /**
+     * Number of distribution list members fetched per request.
+     */
+    private int memberPageSize = 1000;
+
+    /**
+     * Maximum number of members returned for each distribution list, 0 for all.
+     */
+    private int maxMembers = 0;
+
+    /**
+     * Time to live of the distribution list membership index, in seconds, unless discarded earlier by a write; 0
+     * builds the index for each search.
+     */
+    private long membershipCacheTtl = 0;
+
+    /**
+     * Directory of the snapshots used by synchronization; timestamps are used when not set.
+     */
+    private String syncSnapshotDirectory = null;
+
+    /**
+     * The LDAP URL
+     */
+    private String ldapUrl = null;
+
+    /**
+     * The LDAP Bind DN
+     */
+    private String ldapBindDn = null;
+
+    /**
+     * The LDAP Bind Password
+     */
+    private GuardedString ldapBindPassword = null;
+
+    /**
+     * The LDAP Pool Size
+     */
+    private int ldapPoolSize = 4;
+
+    /**
+     * The Streaming Search
+     */
+    private boolean streamingSearch = false;
+
+    /**
+     * The Administration Service Timeout, in milliseconds
+     */
+    private int adminServiceTimeout = 60000;
+
     /**
      * Administration Service Location getter
      *
@@ -180,6 +327,656 @@ public class ZimbraConfiguration extends AbstractConfiguration {
         this.cos = cos;
     }
 
+    /**
+     * Search Page Size getter
+     *
+     * @return searchPageSize value
+     */
+    @ConfigurationProperty(order = 6,
+            displayMessageKey = ZimbraConstants.ZIMBRA_SEARCH_PAGE_SIZE_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_SEARCH_PAGE_SIZE_HELP)
+    public int getSearchPageSize() {
+        final String VARIABLE = "searchPageSize";
+        LOG.ok("{0} is {1}", VARIABLE, searchPageSize);
+        return searchPageSize;
+    }
+
+    /**
+     * Search Page Size setter
+     *
+     * @param searchPageSize value
+     */
+    public void setSearchPageSize(int searchPageSize) {
+        final String VARIABLE = "searchPageSize";
+        LOG.ok("set {0} to {1}", VARIABLE, searchPageSize);
+        this.searchPageSize = searchPageSize;
+    }
+
+    /**
+     * Id Cache Size getter
+     *
+     * @return idCacheSize value
+     */
+    @ConfigurationProperty(order = 7,
+            displayMessageKey = ZimbraConstants.ZIMBRA_ID_CACHE_SIZE_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_ID_CACHE_SIZE_HELP)
+    public int getIdCacheSize() {
+        final String VARIABLE = "idCacheSize";
+        LOG.ok("{0} is {1}", VARIABLE, idCacheSize);
+        return idCacheSize;
+    }
+
+    /**
+     * Id Cache Size setter
+     *
+     * @param idCacheSize value
+     */
+    public void setIdCacheSize(int idCacheSize) {
+        final String VARIABLE = "idCacheSize";
+        LOG.ok("set {0} to {1}", VARIABLE, idCacheSize);
+        this.idCacheSize = idCacheSize;
+    }
+
+    /**
+     * Id Cache TTL getter
+     *
+     * @return idCacheTtl value
+     */
+    @ConfigurationProperty(order = 8,
+            displayMessageKey = ZimbraConstants.ZIMBRA_ID_CACHE_TTL_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_ID_CACHE_TTL_HELP)
+    public long getIdCacheTtl() {
+        final String VARIABLE = "idCacheTtl";
+        LOG.ok("{0} is {1}", VARIABLE, idCacheTtl);
+        return idCacheTtl;
+    }
+
+    /**
+     * Id Cache TTL setter
+     *
+     * @param idCacheTtl value
+     */
+    public void setIdCacheTtl(long idCacheTtl) {
+        final String VARIABLE = "idCacheTtl";
+        LOG.ok("set {0} to {1}", VARIABLE, idCacheTtl);
+        this.idCacheTtl = idCacheTtl;
+    }
+
+    /**
+     * Id Cache Absent TTL getter
+     *
+     * @return idCacheAbsentTtl value
+     */
+    @ConfigurationProperty(order = 9,
+            displayMessageKey = ZimbraConstants.ZIMBRA_ID_CACHE_ABSENT_TTL_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_ID_CACHE_ABSENT_TTL_HELP)
+    public long getIdCacheAbsentTtl() {
+        final String VARIABLE = "idCacheAbsentTtl";
+        LOG.ok("{0} is {1}", VARIABLE, idCacheAbsentTtl);
+        return idCacheAbsentTtl;
+    }
+
+    /**
+     * Id Cache Absent TTL setter
+     *
+     * @param idCacheAbsentTtl value
+     */
+    public void setIdCacheAbsentTtl(long idCacheAbsentTtl) {
+        final String VARIABLE = "idCacheAbsentTtl";
+        LOG.ok("set {0} to {1}", VARIABLE, idCacheAbsentTtl);
+        this.idCacheAbsentTtl = idCacheAbsentTtl;
+    }
+
+    /**
+     * Differential Update getter
+     *
+     * @return diffUpdate value
+     */
+    @ConfigurationProperty(order = 10,
+            displayMessageKey = ZimbraConstants.ZIMBRA_DIFF_UPDATE_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_DIFF_UPDATE_HELP)
+    public boolean isDiffUpdate() {
+        final String VARIABLE = "diffUpdate";
+        LOG.ok("{0} is {1}", VARIABLE, diffUpdate);
+        return diffUpdate;
+    }
+
+    /**
+     * Differential Update setter
+     *
+     * @param diffUpdate value
+     */
+    public void setDiffUpdate(boolean diffUpdate) {
+        final String VARIABLE = "diffUpdate";
+        LOG.ok("set {0} to {1}", VARIABLE, diffUpdate);
+        this.diffUpdate = diffUpdate;
+    }
+
+    /**
+     * Member Chunk Size getter
+     *
+     * @return memberChunkSize value
+     */
+    @ConfigurationProperty(order = 11,
+            displayMessageKey = ZimbraConstants.ZIMBRA_MEMBER_CHUNK_SIZE_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_MEMBER_CHUNK_SIZE_HELP)
+    public int getMemberChunkSize() {
+        final String VARIABLE = "memberChunkSize";
+        LOG.ok("{0} is {1}", VARIABLE, memberChunkSize);
+        return memberChunkSize;
+    }
+
+    /**
+     * Member Chunk Size setter
+     *
+     * @param memberChunkSize value
+     */
+    public void setMemberChunkSize(int memberChunkSize) {
+        final String VARIABLE = "memberChunkSize";
+        LOG.ok("set {0} to {1}", VARIABLE, memberChunkSize);
+        this.memberChunkSize = memberChunkSize;
+    }
+
+    /**
+     * Member Update Concurrency getter
+     *
+     * @return memberUpdateConcurrency value
+     */
+    @ConfigurationProperty(order = 12,
+            displayMessageKey = ZimbraConstants.ZIMBRA_MEMBER_UPDATE_CONCURRENCY_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_MEMBER_UPDATE_CONCURRENCY_HELP)
+    public int getMemberUpdateConcurrency() {
+        final String VARIABLE = "memberUpdateConcurrency";
+        LOG.ok("{0} is {1}", VARIABLE, memberUpdateConcurrency);
+        return memberUpdateConcurrency;
+    }
+
+    /**
+     * Member Update Concurrency setter
+     *
+     * @param memberUpdateConcurrency value
+     */
+    public void setMemberUpdateConcurrency(int memberUpdateConcurrency) {
+        final String VARIABLE = "memberUpdateConcurrency";
+        LOG.ok("set {0} to {1}", VARIABLE, memberUpdateConcurrency);
+        this.memberUpdateConcurrency = memberUpdateConcurrency;
+    }
+
+    /**
+     * Optimistic Writes getter
+     *
+     * @return optimisticWrites value
+     */
+    @ConfigurationProperty(order = 13,
+            displayMessageKey = ZimbraConstants.ZIMBRA_OPTIMISTIC_WRITES_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_OPTIMISTIC_WRITES_HELP)
+    public boolean isOptimisticWrites() {
+        final String VARIABLE = "optimisticWrites";
+        LOG.ok("{0} is {1}", VARIABLE, optimisticWrites);
+        return optimisticWrites;
+    }
+
+    /**
+     * Optimistic Writes setter
+     *
+     * @param optimisticWrites value
+     */
+    public void setOptimisticWrites(boolean optimisticWrites) {
+        final String VARIABLE = "optimisticWrites";
+        LOG.ok("set {0} to {1}", VARIABLE, optimisticWrites);
+        this.optimisticWrites = optimisticWrites;
+    }
+
+    /**
+     * Bulk Concurrency getter
+     *
+     * @return bulkConcurrency value
+     */
+    @ConfigurationProperty(order = 14,
+            displayMessageKey = ZimbraConstants.ZIMBRA_BULK_CONCURRENCY_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_BULK_CONCURRENCY_HELP)
+    public int getBulkConcurrency() {
+        final String VARIABLE = "bulkConcurrency";
+        LOG.ok("{0} is {1}", VARIABLE, bulkConcurrency);
+        return bulkConcurrency;
+    }
+
+    /**
+     * Bulk Concurrency setter
+     *
+     * @param bulkConcurrency value
+     */
+    public void setBulkConcurrency(int bulkConcurrency) {
+        final String VARIABLE = "bulkConcurrency";
+        LOG.ok("set {0} to {1}", VARIABLE, bulkConcurrency);
+        this.bulkConcurrency = bulkConcurrency;
+    }
+
+    /**
+     * Bulk Batch Size getter
+     *
+     * @return bulkBatchSize value
+     */
+    @ConfigurationProperty(order = 15,
+            displayMessageKey = ZimbraConstants.ZIMBRA_BULK_BATCH_SIZE_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_BULK_BATCH_SIZE_HELP)
+    public int getBulkBatchSize() {
+        final String VARIABLE = "bulkBatchSize";
+        LOG.ok("{0} is {1}", VARIABLE, bulkBatchSize);
+        return bulkBatchSize;
+    }
+
+    /**
+     * Bulk Batch Size setter
+     *
+     * @param bulkBatchSize value
+     */
+    public void setBulkBatchSize(int bulkBatchSize) {
+        final String VARIABLE = "bulkBatchSize";
+        LOG.ok("set {0} to {1}", VARIABLE, bulkBatchSize);
+        this.bulkBatchSize = bulkBatchSize;
+    }
+
+    /**
+     * Search Parallelism getter
+     *
+     * @return searchParallelism value
+     */
+    @ConfigurationProperty(order = 16,
+            displayMessageKey = ZimbraConstants.ZIMBRA_SEARCH_PARALLELISM_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_SEARCH_PARALLELISM_HELP)
+    public int getSearchParallelism() {
+        final String VARIABLE = "searchParallelism";
+        LOG.ok("{0} is {1}", VARIABLE, searchParallelism);
+        return searchParallelism;
+    }
+
+    /**
+     * Search Parallelism setter
+     *
+     * @param searchParallelism value
+     */
+    public void setSearchParallelism(int searchParallelism) {
+        final String VARIABLE = "searchParallelism";
+        LOG.ok("set {0} to {1}", VARIABLE, searchParallelism);
+        this.searchParallelism = searchParallelism;
+    }
+
+    /**
+     * Search Partitions getter
+     *
+     * @return searchPartitions value
+     */
+    @ConfigurationProperty(order = 17,
+            displayMessageKey = ZimbraConstants.ZIMBRA_SEARCH_PARTITIONS_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_SEARCH_PARTITIONS_HELP)
+    public String[] getSearchPartitions() {
+        final String VARIABLE = "searchPartitions";
+        LOG.ok("{0} is {1}", VARIABLE, Arrays.toString(searchPartitions));
+        return searchPartitions;
+    }
+
+    /**
+     * Search Partitions setter
+     *
+     * @param searchPartitions value
+     */
+    public void setSearchPartitions(String[] searchPartitions) {
+        final String VARIABLE = "searchPartitions";
+        LOG.ok("set {0} to {1}", VARIABLE, Arrays.toString(searchPartitions));
+        this.searchPartitions = searchPartitions;
+    }
+
+    /**
+     * Search Ordered getter
+     *
+     * @return searchOrdered value
+     */
+    @ConfigurationProperty(order = 18,
+            displayMessageKey = ZimbraConstants.ZIMBRA_SEARCH_ORDERED_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_SEARCH_ORDERED_HELP)
+    public boolean isSearchOrdered() {
+        final String VARIABLE = "searchOrdered";
+        LOG.ok("{0} is {1}", VARIABLE, searchOrdered);
+        return searchOrdered;
+    }
+
+    /**
+     * Search Ordered setter
+     *
+     * @param searchOrdered value
+     */
+    public void setSearchOrdered(boolean searchOrdered) {
+        final String VARIABLE = "searchOrdered";
+        LOG.ok("set {0} to {1}", VARIABLE, searchOrdered);
+        this.searchOrdered = searchOrdered;
+    }
+
+    /**
+     * Filter Optimization getter
+     *
+     * @return filterOptimization value
+     */
+    @ConfigurationProperty(order = 19,
+            displayMessageKey = ZimbraConstants.ZIMBRA_FILTER_OPTIMIZATION_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_FILTER_OPTIMIZATION_HELP)
+    public boolean isFilterOptimization() {
+        final String VARIABLE = "filterOptimization";
+        LOG.ok("{0} is {1}", VARIABLE, filterOptimization);
+        return filterOptimization;
+    }
+
+    /**
+     * Filter Optimization setter
+     *
+     * @param filterOptimization value
+     */
+    public void setFilterOptimization(boolean filterOptimization) {
+        final String VARIABLE = "filterOptimization";
+        LOG.ok("set {0} to {1}", VARIABLE, filterOptimization);
+        this.filterOptimization = filterOptimization;
+    }
+
+    /**
+     * Default Projection getter
+     *
+     * @return defaultProjection value
+     */
+    @ConfigurationProperty(order = 20,
+            displayMessageKey = ZimbraConstants.ZIMBRA_DEFAULT_PROJECTION_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_DEFAULT_PROJECTION_HELP)
+    public String getDefaultProjection() {
+        final String VARIABLE = "defaultProjection";
+        LOG.ok("{0} is {1}", VARIABLE, defaultProjection);
+        return defaultProjection;
+    }
+
+    /**
+     * Default Projection setter
+     *
+     * @param defaultProjection value
+     */
+    public void setDefaultProjection(String defaultProjection) {
+        final String VARIABLE = "defaultProjection";
+        LOG.ok("set {0} to {1}", VARIABLE, defaultProjection);
+        this.defaultProjection = defaultProjection;
+    }
+
+    /**
+     * Default Attributes To Get getter
+     *
+     * @return defaultAttributesToGet value
+     */
+    @ConfigurationProperty(order = 21,
+            displayMessageKey = ZimbraConstants.ZIMBRA_DEFAULT_ATTRIBUTES_TO_GET_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_DEFAULT_ATTRIBUTES_TO_GET_HELP)
+    public String[] getDefaultAttributesToGet() {
+        final String VARIABLE = "defaultAttributesToGet";
+        LOG.ok("{0} is {1}", VARIABLE, Arrays.toString(defaultAttributesToGet));
+        return defaultAttributesToGet;
+    }
+
+    /**
+     * Default Attributes To Get setter
+     *
+     * @param defaultAttributesToGet value
+     */
+    public void setDefaultAttributesToGet(String[] defaultAttributesToGet) {
+        final String VARIABLE = "defaultAttributesToGet";
+        LOG.ok("set {0} to {1}", VARIABLE, Arrays.toString(defaultAttributesToGet));
+        this.defaultAttributesToGet = defaultAttributesToGet;
+    }
+
+    /**
+     * Member Page Size getter
+     *
+     * @return memberPageSize value
+     */
+    @ConfigurationProperty(order = 22,
+            displayMessageKey = ZimbraConstants.ZIMBRA_MEMBER_PAGE_SIZE_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_MEMBER_PAGE_SIZE_HELP)
+    public int getMemberPageSize() {
+        final String VARIABLE = "memberPageSize";
+        LOG.ok("{0} is {1}", VARIABLE, memberPageSize);
+        return memberPageSize;
+    }
+
+    /**
+     * Member Page Size setter
+     *
+     * @param memberPageSize value
+     */
+    public void setMemberPageSize(int memberPageSize) {
+        final String VARIABLE = "memberPageSize";
+        LOG.ok("set {0} to {1}", VARIABLE, memberPageSize);
+        this.memberPageSize = memberPageSize;
+    }
+
+    /**
+     * Max Members getter
+     *
+     * @return maxMembers value
+     */
+    @ConfigurationProperty(order = 23,
+            displayMessageKey = ZimbraConstants.ZIMBRA_MAX_MEMBERS_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_MAX_MEMBERS_HELP)
+    public int getMaxMembers() {
+        final String VARIABLE = "maxMembers";
+        LOG.ok("{0} is {1}", VARIABLE, maxMembers);
+        return maxMembers;
+    }
+
+    /**
+     * Max Members setter
+     *
+     * @param maxMembers value
+     */
+    public void setMaxMembers(int maxMembers) {
+        final String VARIABLE = "maxMembers";
+        LOG.ok("set {0} to {1}", VARIABLE, maxMembers);
+        this.maxMembers = maxMembers;
+    }
+
+    /**
+     * Membership Cache TTL getter
+     *
+     * @return membershipCacheTtl value
+     */
+    @ConfigurationProperty(order = 24,
+            displayMessageKey = ZimbraConstants.ZIMBRA_MEMBERSHIP_CACHE_TTL_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_MEMBERSHIP_CACHE_TTL_HELP)
+    public long getMembershipCacheTtl() {
+        final String VARIABLE = "membershipCacheTtl";
+        LOG.ok("{0} is {1}", VARIABLE, membershipCacheTtl);
+        return membershipCacheTtl;
+    }
+
+    /**
+     * Membership Cache TTL setter
+     *
+     * @param membershipCacheTtl value
+     */
+    public void setMembershipCacheTtl(long membershipCacheTtl) {
+        final String VARIABLE = "membershipCacheTtl";
+        LOG.ok("set {0} to {1}", VARIABLE, membershipCacheTtl);
+        this.membershipCacheTtl = membershipCacheTtl;
+    }
+
+    /**
+     * Sync Snapshot Directory getter
+     *
+     * @return syncSnapshotDirectory value
+     */
+    @ConfigurationProperty(order = 25,
+            displayMessageKey = ZimbraConstants.ZIMBRA_SYNC_SNAPSHOT_DIRECTORY_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_SYNC_SNAPSHOT_DIRECTORY_HELP)
+    public String getSyncSnapshotDirectory() {
+        final String VARIABLE = "syncSnapshotDirectory";
+        LOG.ok("{0} is {1}", VARIABLE, syncSnapshotDirectory);
+        return syncSnapshotDirectory;
+    }
+
+    /**
+     * Sync Snapshot Directory setter
+     *
+     * @param syncSnapshotDirectory value
+     */
+    public void setSyncSnapshotDirectory(String syncSnapshotDirectory) {
+        final String VARIABLE = "syncSnapshotDirectory";
+        LOG.ok("set {0} to {1}", VARIABLE, syncSnapshotDirectory);
+        this.syncSnapshotDirectory = syncSnapshotDirectory;
+    }
+
+    /**
+     * LDAP URL getter
+     *
+     * @return ldapUrl value
+     */
+    @ConfigurationProperty(order = 26,
+            displayMessageKey = ZimbraConstants.ZIMBRA_LDAP_URL_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_LDAP_URL_HELP)
+    public String getLdapUrl() {
+        final String VARIABLE = "ldapUrl";
+        LOG.ok("{0} is {1}", VARIABLE, ldapUrl);
+        return ldapUrl;
+    }
+
+    /**
+     * LDAP URL setter
+     *
+     * @param ldapUrl value
+     */
+    public void setLdapUrl(String ldapUrl) {
+        final String VARIABLE = "ldapUrl";
+        LOG.ok("set {0} to {1}", VARIABLE, ldapUrl);
+        this.ldapUrl = ldapUrl;
+    }
+
+    /**
+     * LDAP Bind DN getter
+     *
+     * @return ldapBindDn value
+     */
+    @ConfigurationProperty(order = 27,
+            displayMessageKey = ZimbraConstants.ZIMBRA_LDAP_BIND_DN_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_LDAP_BIND_DN_HELP)
+    public String getLdapBindDn() {
+        final String VARIABLE = "ldapBindDn";
+        LOG.ok("{0} is {1}", VARIABLE, ldapBindDn);
+        return ldapBindDn;
+    }
+
+    /**
+     * LDAP Bind DN setter
+     *
+     * @param ldapBindDn value
+     */
+    public void setLdapBindDn(String ldapBindDn) {
+        final String VARIABLE = "ldapBindDn";
+        LOG.ok("set {0} to {1}", VARIABLE, ldapBindDn);
+        this.ldapBindDn = ldapBindDn;
+    }
+
+    /**
+     * LDAP Bind Password getter
+     *
+     * @return ldapBindPassword value
+     */
+    @ConfigurationProperty(order = 28, confidential = true,
+            displayMessageKey = ZimbraConstants.ZIMBRA_LDAP_BIND_PASSWORD_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_LDAP_BIND_PASSWORD_HELP)
+    public GuardedString getLdapBindPassword() {
+        final String VARIABLE = "ldapBindPassword";
+        LOG.ok("{0} is {1}", VARIABLE, (ldapBindPassword != null ? "********" : null));
+        return ldapBindPassword;
+    }
+
+    /**
+     * LDAP Bind Password setter
+     *
+     * @param ldapBindPassword value
+     */
+    public void setLdapBindPassword(GuardedString ldapBindPassword) {
+        final String VARIABLE = "ldapBindPassword";
+        LOG.ok("set {0} to {1}", VARIABLE, (ldapBindPassword != null ? "********" : null));
+        this.ldapBindPassword = ldapBindPassword;
+    }
+
+    /**
+     * LDAP Pool Size getter
+     *
+     * @return ldapPoolSize value
+     */
+    @ConfigurationProperty(order = 29,
+            displayMessageKey = ZimbraConstants.ZIMBRA_LDAP_POOL_SIZE_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_LDAP_POOL_SIZE_HELP)
+    public int getLdapPoolSize() {
+        final String VARIABLE = "ldapPoolSize";
+        LOG.ok("{0} is {1}", VARIABLE, ldapPoolSize);
+        return ldapPoolSize;
+    }
+
+    /**
+     * LDAP Pool Size setter
+     *
+     * @param ldapPoolSize value
+     */
+    public void setLdapPoolSize(int ldapPoolSize) {
+        final String VARIABLE = "ldapPoolSize";
+        LOG.ok("set {0} to {1}", VARIABLE, ldapPoolSize);
+        this.ldapPoolSize = ldapPoolSize;
+    }
+
+    /**
+     * Streaming Search getter
+     *
+     * @return streamingSearch value
+     */
+    @ConfigurationProperty(order = 30,
+            displayMessageKey = ZimbraConstants.ZIMBRA_STREAMING_SEARCH_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_STREAMING_SEARCH_HELP)
+    public boolean isStreamingSearch() {
+        final String VARIABLE = "streamingSearch";
+        LOG.ok("{0} is {1}", VARIABLE, streamingSearch);
+        return streamingSearch;
+    }
+
+    /**
+     * Streaming Search setter
+     *
+     * @param streamingSearch value
+     */
+    public void setStreamingSearch(boolean streamingSearch) {
+        final String VARIABLE = "streamingSearch";
+        LOG.ok("set {0} to {1}", VARIABLE, streamingSearch);
+        this.streamingSearch = streamingSearch;
+    }
+
+    /**
+     * Administration Service Timeout getter
+     *
+     * @return adminServiceTimeout value
+     */
+    @ConfigurationProperty(order = 31,
+            displayMessageKey = ZimbraConstants.ZIMBRA_ADMIN_SERVICE_TIMEOUT_DISPLAY,
+            helpMessageKey = ZimbraConstants.ZIMBRA_ADMIN_SERVICE_TIMEOUT_HELP)
+    public int getAdminServiceTimeout() {
+        final String VARIABLE = "adminServiceTimeout";
+        LOG.ok("{0} is {1}", VARIABLE, adminServiceTimeout);
+        return adminServiceTimeout;
+    }
+
+    /**
+     * Administration Service Timeout setter
+     *
+     * @param adminServiceTimeout value
+     */
+    public void setAdminServiceTimeout(int adminServiceTimeout) {
+        final String VARIABLE = "adminServiceTimeout";
+        LOG.ok("set {0} to {1}", VARIABLE, adminServiceTimeout);
+        this.adminServiceTimeout = adminServiceTimeout;
+    }
+
     /**
      * Attempt to validate the arguments added to the Configuration.
      * {@inheritDoc}
@@ -196,6 +993,52 @@ public class ZimbraConfiguration extends AbstractConfiguration {
             throw new ConfigurationException(getConnectorMessages().format(
                     ZimbraConstants.ZIMBRA_ADMIN_USERNAME_REQUIRED, null));
         }
+        if (searchPageSize <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_SEARCH_PAGE_SIZE_INVALID, null));
+        }
+        if (memberChunkSize <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_MEMBER_CHUNK_SIZE_INVALID, null));
+        }
+        if (memberUpdateConcurrency <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_MEMBER_UPDATE_CONCURRENCY_INVALID, null));
+        }
+        if (bulkConcurrency <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_BULK_CONCURRENCY_INVALID, null));
+        }
+        if (bulkBatchSize <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_BULK_BATCH_SIZE_INVALID, null));
+        }
+        if (searchParallelism <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_SEARCH_PARALLELISM_INVALID, null));
+        }
+        if (!PROJECTION_ALL.equalsIgnoreCase(defaultProjection)
+                && !PROJECTION_SCHEMA.equalsIgnoreCase(defaultProjection)
+                && !PROJECTION_LIST.equalsIgnoreCase(defaultProjection)) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_DEFAULT_PROJECTION_INVALID, null));
+        }
+        if (memberPageSize <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_MEMBER_PAGE_SIZE_INVALID, null));
+        }
+        if (maxMembers < 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_MAX_MEMBERS_INVALID, null));
+        }
+        if (ldapPoolSize <= 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_LDAP_POOL_SIZE_INVALID, null));
+        }
+        if (adminServiceTimeout < 0) {
+            throw new ConfigurationException(getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_ADMIN_SERVICE_TIMEOUT_INVALID, null));
+        }
         LOG.ok("exit {0}", METHOD);
     }
 }
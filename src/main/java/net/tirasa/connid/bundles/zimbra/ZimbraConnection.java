@@ -15,13 +15,225 @@
  */
 package net.tirasa.connid.bundles.zimbra;
 
+import com.zimbra.common.account.Key;
+import com.zimbra.common.auth.ZAuthToken;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.common.soap.Element;
+import com.zimbra.cs.account.Domain;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.soap.SoapProvisioning;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Schema;
+
 /**
  * Class to represent a Zimbra Connection.
+ * <p>
+ * A connection is shared by all connector instances with the same settings for everything the connection reads:
+ * administration service and credentials, domain, COS, caches and LDAP server. It holds a single admin auth token,
+ * renewed in background shortly before its expiration, together with the domain, COS id and schema resolved once at
+ * startup. Each thread gets its own {@link SoapProvisioning}
+ * bound to the shared token, so that connector instances can be used concurrently.
+ * <p>
+ * Once disposed, a connection cannot be used any more: requests fail with {@link IllegalStateException} instead of
+ * authenticating again.
  */
 public class ZimbraConnection {
 
+    private static final Log LOG = Log.getLog(ZimbraConnection.class);
+
+    /**
+     * Auth token renewal is attempted this long before expiration, at most.
+     */
+    private static final long REFRESH_MARGIN = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Delay before retrying a failed renewal.
+     */
+    private static final long REFRESH_RETRY = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Map<String, ZimbraConnection> CONNECTIONS = new HashMap<String, ZimbraConnection>();
+
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ZimbraConnection-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Returns the connection shared by all configurations with the same {@link #toKey(ZimbraConfiguration) key},
+     * creating it if needed; each call must be matched by a call to {@link #release()}.
+     *
+     * @param configuration the actual {@link ZimbraConfiguration}
+     * @return shared connection
+     */
+    public static ZimbraConnection acquire(ZimbraConfiguration configuration) {
+        String key = toKey(configuration);
+        synchronized (CONNECTIONS) {
+            ZimbraConnection connection = CONNECTIONS.get(key);
+            if (connection == null) {
+                connection = new ZimbraConnection(configuration);
+                connection.key = key;
+                CONNECTIONS.put(key, connection);
+            }
+            connection.references++;
+            return connection;
+        }
+    }
+
+    /**
+     * @param configuration the actual {@link ZimbraConfiguration}
+     * @return all the settings read by a connection, passwords as digests; connector instances with different
+     * settings, such as a rotated password, do not share a connection
+     */
+    protected static String toKey(ZimbraConfiguration configuration) {
+        StringBuilder key = new StringBuilder();
+        for (Object setting : new Object[] {
+            configuration.getAdminServiceLocation(),
+            configuration.getAdminServiceTimeout(),
+            configuration.getAdminUsername(),
+            digest(configuration.getAdminPassword()),
+            configuration.getEmailDomainName(),
+            configuration.getCos(),
+            configuration.getIdCacheSize(),
+            configuration.getIdCacheTtl(),
+            configuration.getIdCacheAbsentTtl(),
+            configuration.getMembershipCacheTtl(),
+            configuration.getLdapUrl(),
+            configuration.getLdapBindDn(),
+            digest(configuration.getLdapBindPassword()),
+            configuration.getLdapPoolSize() }) {
+
+            key.append(setting).append('|');
+        }
+        return key.toString();
+    }
+
+    private static String digest(GuardedString password) {
+        String clear = GuardedStringAccessor.toString(password);
+        if (clear == null) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(clear.getBytes(Charset.forName("UTF-8")));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Immutable admin session: auth token and its expiration.
+     */
+    private static final class Session {
+
+        private final ZAuthToken authToken;
+
+        private final long expiration;
+
+        private Session(ZAuthToken authToken, long expiration) {
+            this.authToken = authToken;
+            this.expiration = expiration;
+        }
+
+        private boolean isExpired() {
+            return expiration <= System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Per-thread provisioning, with the session it is currently bound to.
+     */
+    private static final class Binding {
+
+        private volatile SoapProvisioning sp;
+
+        private volatile Session session;
+
+        private Binding(SoapProvisioning sp) {
+            this.sp = sp;
+        }
+    }
+
     private final ZimbraConfiguration configuration;
 
+    private final ThreadLocal<Binding> bindings = new ThreadLocal<Binding>();
+
+    /**
+     * Bindings of all threads, released on disposal.
+     */
+    private final Set<Binding> allBindings = Collections.newSetFromMap(new ConcurrentHashMap<Binding, Boolean>());
+
+    private String key;
+
+    private int references;
+
+    /**
+     * Held while authenticating, so that a single thread at a time logs in; never held with the lock on this.
+     */
+    private final Object loginLock = new Object();
+
+    private volatile boolean disposed;
+
+    private volatile Session session;
+
+    private ScheduledFuture<?> refresh;
+
+    private volatile String emailDomainName;
+
+    private volatile Domain domain;
+
+    private volatile String cosId;
+
+    private volatile Schema schema;
+
+    private final ZimbraIdCache accountIds;
+
+    private final ZimbraIdCache distributionListIds;
+
+    private final Object membershipIndexLock = new Object();
+
+    private volatile ZimbraMembershipIndex membershipIndex;
+
+    private ExecutorService workers;
+
+    private ZimbraLdapPool ldapPool;
+
     /**
      * Constructor of ZimbraConnection class.
      *
@@ -29,20 +241,420 @@ public class ZimbraConnection {
      */
     public ZimbraConnection(ZimbraConfiguration configuration) {
         this.configuration = configuration;
+        this.accountIds = newIdCache(configuration);
+        this.distributionListIds = newIdCache(configuration);
+    }
+
+    private static ZimbraIdCache newIdCache(ZimbraConfiguration configuration) {
+        return new ZimbraIdCache(
+                configuration.getIdCacheSize(),
+                TimeUnit.SECONDS.toMillis(configuration.getIdCacheTtl()),
+                TimeUnit.SECONDS.toMillis(configuration.getIdCacheAbsentTtl()));
+    }
+
+    /**
+     * Releases this connection, disposing it when no longer used by any connector instance.
+     */
+    public void release() {
+        synchronized (CONNECTIONS) {
+            references--;
+            if (references > 0) {
+                return;
+            }
+            if (key != null && CONNECTIONS.get(key) == this) {
+                CONNECTIONS.remove(key);
+            }
+        }
+        dispose();
     }
 
     /**
      * Release internal resources.
      */
     public void dispose() {
-        //implementation
+        synchronized (this) {
+            disposed = true;
+            if (refresh != null) {
+                refresh.cancel(false);
+                refresh = null;
+            }
+            session = null;
+            if (workers != null) {
+                workers.shutdown();
+                workers = null;
+            }
+            if (ldapPool != null) {
+                ldapPool.close();
+                ldapPool = null;
+            }
+        }
+        bindings.remove();
+        for (Binding binding : allBindings) {
+            binding.sp = null;
+            binding.session = null;
+        }
+        allBindings.clear();
+        accountIds.clear();
+        distributionListIds.clear();
+        membershipIndex = null;
     }
 
     /**
      * If internal connection is not usable, throw IllegalStateException.
      */
     public void test() {
-        //implementation
+        try {
+            provisioning().healthCheck();
+        } catch (ServiceException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the provisioning of the calling thread, bound to the current admin session; domain and COS are
+     * resolved with the first session.
+     *
+     * @return provisioning bound to the shared admin session
+     */
+    public SoapProvisioning provisioning() {
+        Session current = session();
+        Binding binding = bindings.get();
+        SoapProvisioning sp = binding == null ? null : binding.sp;
+        if (sp == null) {
+            sp = new SoapProvisioning();
+            sp.soapSetURI(configuration.getAdminServiceLocation());
+            sp.soapSetTransportTimeout(configuration.getAdminServiceTimeout());
+            binding = new Binding(sp);
+            bindings.set(binding);
+            allBindings.add(binding);
+        }
+        if (binding.session != current) {
+            sp.setAuthToken(current.authToken);
+            binding.session = current;
+        }
+        if (domain == null) {
+            resolve(sp);
+        }
+        return sp;
+    }
+
+    /**
+     * @return current admin session token, for requests not sent through a provisioning
+     */
+    public String getAuthToken() {
+        return session().authToken.getValue();
+    }
+
+    public String getEmailDomainName() {
+        if (emailDomainName == null) {
+            provisioning();
+        }
+        return emailDomainName;
+    }
+
+    public Domain getDomain() {
+        if (domain == null) {
+            provisioning();
+        }
+        return domain;
+    }
+
+    /**
+     * @return id of the configured COS, null if none was configured
+     */
+    public String getCosId() {
+        if (domain == null) {
+            provisioning();
+        }
+        return cosId;
+    }
+
+    /**
+     * @param connector connector building the schema when not yet available
+     * @return schema shared by all connector instances
+     */
+    public Schema getSchema(ZimbraConnector connector) {
+        if (schema == null) {
+            synchronized (this) {
+                if (schema == null) {
+                    schema = connector.buildSchema();
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * @param connector connector building the index when not yet available or expired
+     * @return membership index, shared by all connector instances for the configured membership cache TTL or until
+     * {@link #invalidateMembershipIndex()}
+     * @throws ServiceException if the index cannot be built
+     */
+    public ZimbraMembershipIndex getMembershipIndex(ZimbraConnector connector) throws ServiceException {
+        long ttl = TimeUnit.SECONDS.toMillis(configuration.getMembershipCacheTtl());
+        if (ttl <= 0) {
+            return connector.buildMembershipIndex();
+        }
+        ZimbraMembershipIndex current = membershipIndex;
+        if (current == null || current.isExpired(ttl)) {
+            synchronized (membershipIndexLock) {
+                current = membershipIndex;
+                if (current == null || current.isExpired(ttl)) {
+                    current = connector.buildMembershipIndex();
+                    membershipIndex = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Discards the shared membership index, so that the next search reading memberships sees the changes written
+     * since it was built.
+     */
+    public void invalidateMembershipIndex() {
+        membershipIndex = null;
+    }
+
+    /**
+     * @param objClass {@link ObjectClass#ACCOUNT} or {@link ObjectClass#GROUP}
+     * @return cache of name to zimbraId for the given object class, shared by all connector instances
+     */
+    public ZimbraIdCache getIdCache(ObjectClass objClass) {
+        if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+            return accountIds;
+        } else if (objClass.is(ObjectClass.GROUP_NAME)) {
+            return distributionListIds;
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Sends the given requests using at most <code>concurrency</code> threads at once, each with its own
+     * provisioning bound to the shared admin session; stops at the first failure.
+     *
+     * @param requests requests to send, in any order
+     * @param concurrency maximum number of requests in flight
+     * @throws ServiceException the first failure
+     */
+    public void invokeAll(List<Element> requests, int concurrency) throws ServiceException {
+        if (concurrency <= 1 || requests.size() <= 1) {
+            SoapProvisioning sp = provisioning();
+            for (Element request : requests) {
+                sp.invoke(request);
+            }
+            return;
+        }
+
+        final Queue<Element> pending = new ConcurrentLinkedQueue<Element>(requests);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        ExecutorService executor = workers();
+        for (int i = 0; i < Math.min(concurrency, requests.size()); i++) {
+            results.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws ServiceException {
+                    SoapProvisioning sp = provisioning();
+                    Element request;
+                    while ((request = pending.poll()) != null) {
+                        try {
+                            sp.invoke(request);
+                        } catch (ServiceException ex) {
+                            pending.clear();
+                            throw ex;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        ServiceException failure = null;
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException ex) {
+                pending.clear();
+                Thread.currentThread().interrupt();
+                throw ServiceException.FAILURE("Interrupted while sending requests", ex);
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof ServiceException
+                            ? (ServiceException) ex.getCause()
+                            : ServiceException.FAILURE(ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return executor shared by all connector instances using this connection; its threads are daemon threads,
+     * each using its own provisioning
+     */
+    public synchronized ExecutorService workers() {
+        checkNotDisposed();
+        if (workers == null) {
+            workers = Executors.newCachedThreadPool(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ZimbraConnection-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return workers;
     }
 
+    /**
+     * @return pool of connections to the Zimbra LDAP server, shared by all connector instances using this
+     * connection; null if no LDAP URL was configured
+     */
+    public synchronized ZimbraLdapPool ldapPool() {
+        checkNotDisposed();
+        if (ldapPool == null && StringUtil.isNotBlank(configuration.getLdapUrl())) {
+            ldapPool = new ZimbraLdapPool(configuration.getLdapUrl(), configuration.getLdapBindDn(),
+                    configuration.getLdapBindPassword(), configuration.getLdapPoolSize(),
+                    configuration.getAdminServiceTimeout());
+        }
+        return ldapPool;
+    }
+
+    private Session session() {
+        Session current = session;
+        if (current == null || current.isExpired()) {
+            synchronized (loginLock) {
+                current = session;
+                if (current == null || current.isExpired()) {
+                    current = authenticate();
+                }
+            }
+        }
+        return current;
+    }
+
+    private void checkNotDisposed() {
+        if (disposed) {
+            throw new IllegalStateException("Zimbra connection already disposed");
+        }
+    }
+
+    /**
+     * Authenticates and schedules the renewal of the new session; callers must hold the login lock, the lock on this
+     * is only held to publish the new session.
+     *
+     * @return new session
+     * @throws IllegalStateException if this connection is disposed
+     */
+    private Session authenticate() {
+        checkNotDisposed();
+        String adminServiceLocation = configuration.getAdminServiceLocation();
+        String adminUsername = configuration.getAdminUsername();
+        Session authenticated;
+        try {
+            SoapProvisioning sp = new SoapProvisioning();
+            sp.soapSetURI(adminServiceLocation);
+            sp.soapSetTransportTimeout(configuration.getAdminServiceTimeout());
+            Element request = new Element.XMLElement(AdminConstants.AUTH_REQUEST);
+            request.addElement(AdminConstants.E_NAME).setText(adminUsername);
+            request.addElement(AdminConstants.E_PASSWORD).setText(
+                    GuardedStringAccessor.toString(configuration.getAdminPassword()));
+            Element response = sp.invoke(request);
+            String authToken = response.getElement(AdminConstants.E_AUTH_TOKEN).getText();
+            long lifetime = Long.parseLong(response.getElement(AdminConstants.E_LIFETIME).getText());
+            authenticated = new Session(new ZAuthToken(null, authToken, null), System.currentTimeMillis() + lifetime);
+        } catch (ServiceException ex) {
+            throw new ConnectionFailedException(configuration.getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_CONNECT_FAILED_MSG, null, adminServiceLocation, adminUsername), ex);
+        } catch (NumberFormatException ex) {
+            throw new ConnectionFailedException(configuration.getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_CONNECT_FAILED_MSG, null, adminServiceLocation, adminUsername), ex);
+        }
+        synchronized (this) {
+            // disposed while logging in
+            checkNotDisposed();
+            session = authenticated;
+            long lifetime = authenticated.expiration - System.currentTimeMillis();
+            scheduleRefresh(lifetime - Math.min(REFRESH_MARGIN, lifetime / 10));
+        }
+        LOG.ok("Authenticated {0} on {1}", adminUsername, adminServiceLocation);
+        return authenticated;
+    }
+
+    /**
+     * Schedules the renewal of the session, unless disposed; callers must hold the lock on this.
+     *
+     * @param delay delay before renewal, in milliseconds
+     */
+    private void scheduleRefresh(long delay) {
+        if (refresh != null) {
+            refresh.cancel(false);
+            refresh = null;
+        }
+        if (disposed) {
+            return;
+        }
+        refresh = REFRESHER.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (loginLock) {
+                    if (disposed) {
+                        return;
+                    }
+                    try {
+                        authenticate();
+                    } catch (RuntimeException ex) {
+                        synchronized (ZimbraConnection.this) {
+                            if (!disposed) {
+                                LOG.error(ex, "Admin auth token renewal failed, retrying");
+                                scheduleRefresh(REFRESH_RETRY);
+                            }
+                        }
+                    }
+                }
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void resolve(SoapProvisioning sp) {
+        if (domain != null) {
+            return;
+        }
+
+        String resolvedEmailDomainName = configuration.getEmailDomainName();
+        if (StringUtil.isBlank(resolvedEmailDomainName)) {
+            try {
+                resolvedEmailDomainName = sp.getConfig().getAttr(Provisioning.A_zimbraDefaultDomainName, null);
+            } catch (ServiceException ex) {
+                throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_CONFIG_FAILED_MSG);
+            }
+        }
+
+        Domain resolvedDomain;
+        try {
+            resolvedDomain = sp.get(Key.DomainBy.name, resolvedEmailDomainName);
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_DOMAIN_FAILED_MSG);
+        }
+
+        try {
+            if (StringUtil.isNotBlank(configuration.getCos())) {
+                cosId = sp.getCosByName(configuration.getCos()).getId();
+            }
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_COS_FAILED_MSG);
+        }
+
+        emailDomainName = resolvedEmailDomainName;
+        domain = resolvedDomain;
+    }
+
+    private RuntimeException connectorException(Throwable ex, String key) {
+        return new ConnectorException(configuration.getConnectorMessages().format(key, null), ex);
+    }
 }
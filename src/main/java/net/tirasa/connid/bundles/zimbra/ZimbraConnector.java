@@ -16,32 +16,37 @@
 package net.tirasa.connid.bundles.zimbra;
 
 import com.zimbra.common.account.Key;
-import com.zimbra.common.account.ProvisioningConstants;
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.common.soap.Element;
 import com.zimbra.cs.account.Account;
-import com.zimbra.cs.account.Config;
 import com.zimbra.cs.account.DistributionList;
-import com.zimbra.cs.account.Domain;
 import com.zimbra.cs.account.NamedEntry;
 import com.zimbra.cs.account.Provisioning;
-import com.zimbra.cs.account.SearchDirectoryOptions;
-import com.zimbra.cs.account.SearchDirectoryOptions.SortOpt;
 import com.zimbra.cs.account.auth.AuthContext;
 import com.zimbra.cs.account.soap.SoapProvisioning;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import javax.naming.NamingException;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.ConnectionBrokenException;
-import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
 import org.identityconnectors.framework.common.exceptions.InvalidCredentialException;
 import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
@@ -50,49 +55,107 @@ import org.identityconnectors.framework.common.objects.AttributeInfo;
 import org.identityconnectors.framework.common.objects.AttributeInfo.Flags;
 import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
 import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.ObjectClassInfoBuilder;
 import org.identityconnectors.framework.common.objects.OperationalAttributeInfos;
-import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.OperationOptionInfo;
+import org.identityconnectors.framework.common.objects.OperationOptionInfoBuilder;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
+import org.identityconnectors.framework.common.objects.ScriptContext;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.ConnectorClass;
 import org.identityconnectors.framework.spi.PoolableConnector;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
 import org.identityconnectors.framework.spi.operations.AuthenticateOp;
 import org.identityconnectors.framework.spi.operations.CreateOp;
 import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.identityconnectors.framework.spi.operations.ResolveUsernameOp;
 import org.identityconnectors.framework.spi.operations.SchemaOp;
+import org.identityconnectors.framework.spi.operations.ScriptOnConnectorOp;
 import org.identityconnectors.framework.spi.operations.SearchOp;
+import org.identityconnectors.framework.spi.operations.SyncOp;
 import org.identityconnectors.framework.spi.operations.TestOp;
-import org.identityconnectors.framework.spi.operations.UpdateOp;
+import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
 
 @ConnectorClass(
         displayNameKey = ZimbraConstants.ZIMBRA_CONNECTOR_DISPLAY, configurationClass = ZimbraConfiguration.class)
 public class ZimbraConnector implements PoolableConnector, AuthenticateOp, CreateOp, DeleteOp, ResolveUsernameOp,
-        SchemaOp, SearchOp<String>, TestOp, UpdateOp {
+        SchemaOp, ScriptOnConnectorOp, SearchOp<String>, SyncOp, TestOp, UpdateAttributeValuesOp {
 
     private static final Log LOG = Log.getLog(ZimbraConnector.class);
 
-    protected ZimbraConfiguration configuration;
+    /**
+     * Search option: zero-based index of the partition of entries to search, see {@link #OP_PARTITION_COUNT}.
+     */
+    public static final String OP_PARTITION_INDEX = "partitionIndex";
+
+    /**
+     * Search option: number of disjoint partitions all entries are split into; each search only returns the entries
+     * of the partition given by {@link #OP_PARTITION_INDEX}, so that partitions can be searched by different nodes.
+     */
+    public static final String OP_PARTITION_COUNT = "partitionCount";
+
+    /**
+     * Search option: attribute entries are partitioned by, either <code>uid</code> (default, at most 37 partitions)
+     * or <code>zimbraId</code> (at most 256 partitions).
+     */
+    public static final String OP_PARTITION_ATTRIBUTE = "partitionAttribute";
+
+    /**
+     * Search option: when <code>true</code>, entries are only read with their identifiers and modify timestamp, and
+     * returned with no other attributes; the same happens when only {@link Uid} and {@link Name} are asked for.
+     */
+    public static final String OP_IDENTITY_ONLY = "identityOnly";
 
-    protected SoapProvisioning sp;
+    /**
+     * Search option: when <code>true</code>, no entry is returned, only the number of matching entries, as the
+     * remaining paged results of the {@link SearchResult}.
+     */
+    public static final String OP_COUNT_ONLY = "countOnly";
+
+    /**
+     * Script action counting the entries of the {@link #ARG_OBJECT_CLASS} argument matching the {@link #ARG_FILTER}
+     * argument, either a {@link Filter} or an LDAP filter; all entries are counted when no filter is given.
+     */
+    public static final String COUNT_ACTION = "count";
+
+    public static final String ARG_OBJECT_CLASS = "objectClass";
 
-    protected String emailDomainName;
+    public static final String ARG_FILTER = "filter";
 
-    protected Domain domain;
+    private static final String[] IDENTITY_ATTRS = new String[] {
+        Provisioning.A_uid, Provisioning.A_zimbraId, Provisioning.A_zimbraModifyTimestamp };
 
-    protected Schema schema;
+    private static final String HEX_CHARACTERS = "0123456789abcdef";
 
-    protected String cos;
+    private static final String[] SYNC_TIMESTAMP_ATTRS =
+            new String[] { Provisioning.A_zimbraModifyTimestamp, Provisioning.A_zimbraCreateTimestamp };
+
+    /**
+     * First characters of <code>uid</code> split among search partitions by default.
+     */
+    private static final String PARTITION_CHARACTERS = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    protected ZimbraConfiguration configuration;
+
+    protected volatile ZimbraConnection connection;
 
     /* (non-Javadoc)
      * @see org.identityconnectors.framework.spi.Connector#init(org.identityconnectors.framework.spi.Configuration)
@@ -117,59 +180,32 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
      */
     @Override
     public void dispose() {
-        schema = null;
-        domain = null;
-        emailDomainName = null;
-        sp = null;
+        synchronized (this) {
+            if (connection != null) {
+                connection.release();
+                connection = null;
+            }
+        }
         configuration = null;
-        cos = null;
     }
 
-    protected SoapProvisioning sp() {
-        if ((sp == null || sp.isExpired()) && configuration != null) {
-            configuration.validate();
-
-            String adminServiceLocation = configuration.getAdminServiceLocation();
-            String adminUsername = configuration.getAdminUsername();
-            GuardedString adminPassword = configuration.getAdminPassword();
-            try {
-                sp = new SoapProvisioning();
-                sp.soapSetURI(adminServiceLocation);
-                sp.soapAdminAuthenticate(adminUsername, GuardedStringAccessor.toString(adminPassword));
-
-            } catch (ServiceException ex) {
-                throw new ConnectionFailedException(configuration.getConnectorMessages().format(
-                        ZimbraConstants.ZIMBRA_CONNECT_FAILED_MSG, null, adminServiceLocation, adminUsername), ex);
-            }
-
-            emailDomainName = configuration.getEmailDomainName();
-            if (StringUtil.isBlank(emailDomainName)) {
-                Config spConfig;
-                try {
-                    spConfig = sp.getConfig();
-                } catch (ServiceException ex) {
-                    throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_CONFIG_FAILED_MSG);
+    protected ZimbraConnection connection() {
+        ZimbraConnection current = connection;
+        if (current == null) {
+            synchronized (this) {
+                current = connection;
+                if (current == null) {
+                    configuration.validate();
+                    current = ZimbraConnection.acquire(configuration);
+                    connection = current;
                 }
-                emailDomainName = spConfig.getAttr(Provisioning.A_zimbraDefaultDomainName, null);
             }
-
-            try {
-                domain = sp.get(Key.DomainBy.name, emailDomainName);
-            } catch (ServiceException ex) {
-                throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_DOMAIN_FAILED_MSG);
-            }
-
-            try {
-                if (StringUtil.isNotBlank(configuration.getCos())) {
-                    cos = sp.getCosByName(configuration.getCos()).getId();
-                }
-            } catch (ServiceException ex) {
-                throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_DOMAIN_FAILED_MSG);
-            }
-
-            schema = schema();
         }
-        return sp;
+        return current;
+    }
+
+    protected SoapProvisioning sp() {
+        return connection().provisioning();
     }
 
     @Override
@@ -225,7 +261,7 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
                 sb.append(name);
                 if (name.indexOf('@') == -1) {
                     sb.append('@');
-                    sb.append(emailDomainName);
+                    sb.append(connection().getEmailDomainName());
                 }
             } else {
                 throw new UnsupportedOperationException();
@@ -242,9 +278,83 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
         } else if (objClass.is(ObjectClass.GROUP_NAME)) {
             zimbraEntry = sp().get(Key.DistributionListBy.name, zimbraName);
         }
+        ZimbraIdCache idCache = connection().getIdCache(objClass);
+        if (zimbraEntry == null) {
+            idCache.putAbsent(zimbraName);
+        } else {
+            idCache.put(zimbraName, zimbraEntry.getId());
+        }
         return zimbraEntry;
     }
 
+    /**
+     * Resolves the zimbraId of the given entry, from cache if available, otherwise with a request returning the
+     * zimbraId only.
+     *
+     * @param objClass object class
+     * @param zimbraName entry name
+     * @return zimbraId of the entry, null if the entry does not exist
+     * @throws ServiceException if the lookup fails
+     */
+    protected String getZimbraId(ObjectClass objClass, String zimbraName) throws ServiceException {
+        ZimbraIdCache idCache = connection().getIdCache(objClass);
+        String zimbraId = idCache.get(zimbraName);
+        if (zimbraId == null) {
+            Element request;
+            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+                request = ZimbraRequests.getAccount(Key.AccountBy.name, zimbraName, Provisioning.A_zimbraId);
+            } else if (objClass.is(ObjectClass.GROUP_NAME)) {
+                request = ZimbraRequests.getDistributionList(
+                        Key.DistributionListBy.name, zimbraName, 1, 0, Provisioning.A_zimbraId);
+            } else {
+                throw new UnsupportedOperationException();
+            }
+            try {
+                zimbraId = ZimbraRequests.getId(sp().invoke(request));
+                idCache.put(zimbraName, zimbraId);
+            } catch (ServiceException ex) {
+                if (!ZimbraRequests.isNoSuchEntry(ex)) {
+                    throw ex;
+                }
+                idCache.putAbsent(zimbraName);
+                zimbraId = ZimbraIdCache.ABSENT;
+            }
+        }
+        return ZimbraIdCache.ABSENT.equals(zimbraId) ? null : zimbraId;
+    }
+
+    /**
+     * @param dl distribution list name
+     * @return zimbraId of the distribution list
+     * @throws ServiceException if the lookup fails
+     */
+    private String getDistributionListId(String dl) throws ServiceException {
+        String zimbraDLName = toObjectName(ObjectClass.GROUP, dl);
+        String zimbraDLId = getZimbraId(ObjectClass.GROUP, zimbraDLName);
+        if (zimbraDLId == null) {
+            throw new InvalidAttributeValueException("Unknown distribution list " + zimbraDLName);
+        }
+        return zimbraDLId;
+    }
+
+    /**
+     * Adds to the given batch the requests adding the given account to the given distribution lists, addressing
+     * each list by its zimbraId.
+     *
+     * @param batch batch
+     * @param zimbraName account name
+     * @param distributionLists distribution list names
+     * @throws ServiceException if any distribution list lookup fails
+     */
+    private void addToDistributionLists(ZimbraBatch batch, String zimbraName, List<Object> distributionLists)
+            throws ServiceException {
+
+        LOG.ok("Insert account into distribution list");
+        for (Object dl : distributionLists) {
+            batch.add(ZimbraRequests.addDistributionListMembers(getDistributionListId(dl.toString()), zimbraName));
+        }
+    }
+
     @Override
     public Uid authenticate(ObjectClass objClass, String username, GuardedString password, OperationOptions options) {
         final String METHOD = "authenticate";
@@ -275,15 +385,15 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
         final String METHOD = "resolveUsername";
         Uid uid = new Uid(toObjectUid(objClass, username));
         LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, uid);
-        NamedEntry zimbraEntry = null;
+        String zimbraId = null;
         try {
             String zimbraName = toObjectName(objClass, username);
-            zimbraEntry = getZimbraObject(objClass, zimbraName);
+            zimbraId = getZimbraId(objClass, zimbraName);
         } catch (ServiceException ex) {
             throw connectorException(
                     ex, ZimbraConstants.ZIMBRA_RESOLVE_USERNAME_FAILED_MSG, objClass, uid.getUidValue());
         }
-        if (zimbraEntry == null) {
+        if (zimbraId == null) {
             throw new UnknownUidException(uid, objClass);
         }
         LOG.ok("exit {0}() == \"{1}\"", METHOD, uid);
@@ -292,56 +402,76 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
 
     @Override
     public Uid create(ObjectClass objClass, Set<Attribute> attrs, OperationOptions options) {
+        try {
+            return create(objClass, attrs, options, true);
+        } finally {
+            connection().invalidateMembershipIndex();
+        }
+    }
+
+    /**
+     * @param objClass object class
+     * @param attrs attributes
+     * @param options operation options
+     * @param fallback whether to update the entry if it already exists
+     * @return uid
+     */
+    private Uid create(ObjectClass objClass, Set<Attribute> attrs, OperationOptions options, boolean fallback) {
         final String METHOD = "create";
         String name = getName(attrs);
         Uid uid = new Uid(toObjectUid(objClass, name));
         LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, uid);
+        boolean optimistic = configuration.isOptimisticWrites();
         try {
             String zimbraNewName = toObjectName(objClass, uid.getUidValue());
-            NamedEntry zimbraEntry = getZimbraObject(objClass, zimbraNewName);
-            if (zimbraEntry != null) {
-                return update(objClass, uid, attrs, options);
+            if (!optimistic && fallback && getZimbraId(objClass, zimbraNewName) != null) {
+                return update(objClass, uid, attrs, options, false);
             }
 
+            // the entry is created together with the requests not needing its id...
+            ZimbraBatch batch = new ZimbraBatch();
             Map<String, Object> zimbraAttrs = toZimbraAttributes(objClass, attrs);
             if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+                String cos = connection().getCosId();
                 if (cos != null) {
                     zimbraAttrs.put(Provisioning.A_zimbraCOSId, cos);
                 }
                 GuardedString password = AttributeUtil.getPasswordValue(attrs);
-                Account account = sp().createAccount(zimbraNewName, GuardedStringAccessor.toString(password),
-                        zimbraAttrs);
-                zimbraEntry = account;
-                String[] aliases = findAttribute(attrs, ZimbraSpecialAttributes.ALIASES_NAME);
-                if (aliases != null && aliases.length > 0) {
-                    for (String alias : aliases) {
-                        sp().addAlias(account, toObjectName(objClass, alias));
-                    }
-                }
+                batch.add(ZimbraRequests.createAccount(
+                        zimbraNewName, GuardedStringAccessor.toString(password), zimbraAttrs));
                 Attribute distributionListAttr =
                         AttributeUtil.find(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME, attrs);
                 if (distributionListAttr != null && !CollectionUtil.isEmpty(distributionListAttr.getValue())) {
-                    LOG.ok("Insert account into distribution list");
-                    for (Object dl : distributionListAttr.getValue()) {
-                        DistributionList distributionList = sp().get(Key.DistributionListBy.name, dl.toString());
-                        distributionList.addMembers(new String[]{zimbraNewName});
-                        LOG.ok("enter {0}(\"{1}\")", zimbraNewName, distributionList.getName());
-                    }
+                    addToDistributionLists(batch, zimbraNewName, distributionListAttr.getValue());
                 }
             } else if (objClass.is(ObjectClass.GROUP_NAME)) {
-                DistributionList distributionList = sp().createDistributionList(zimbraNewName, zimbraAttrs);
-                zimbraEntry = distributionList;
-                String[] aliases = findAttribute(attrs, ZimbraSpecialAttributes.ALIASES_NAME);
-                if (aliases != null && aliases.length > 0) {
-                    for (String alias : aliases) {
-                        sp().addAlias(distributionList, toObjectName(objClass, alias));
-                    }
-                }
-                String[] members = findAttribute(attrs, ZimbraSpecialAttributes.MEMBERS_NAME);
-                if (members != null && members.length > 0) {
-                    sp().addMembers(distributionList, members);
+                batch.add(ZimbraRequests.createDistributionList(zimbraNewName, zimbraAttrs));
+            }
+
+            String zimbraId;
+            try {
+                zimbraId = ZimbraRequests.getId(batch.execute(sp()).get(0));
+            } catch (ServiceException ex) {
+                if (!optimistic || !fallback || !ZimbraRequests.isEntryExists(ex)) {
+                    throw ex;
                 }
+                LOG.ok("{0} already exists, updating", zimbraNewName);
+                return update(objClass, uid, attrs, options, false);
             }
+            connection().getIdCache(objClass).put(zimbraNewName, zimbraId);
+
+            // ...then with the requests addressing it by id
+            batch = new ZimbraBatch();
+            String[] aliases = findAttribute(attrs, ZimbraSpecialAttributes.ALIASES_NAME);
+            if (aliases != null) {
+                batch.addAll(toAliasRequests(objClass, zimbraId, null, aliases));
+            }
+            List<Element> memberRequests = Collections.emptyList();
+            String[] members = findAttribute(attrs, ZimbraSpecialAttributes.MEMBERS_NAME);
+            if (objClass.is(ObjectClass.GROUP_NAME) && members != null && members.length > 0) {
+                memberRequests = toMemberRequests(zimbraId, null, members);
+            }
+            execute(batch, memberRequests);
         } catch (ServiceException ex) {
             throw connectorException(ex, ZimbraConstants.ZIMBRA_CREATE_FAILED_MSG, objClass, uid.getUidValue());
         }
@@ -351,165 +481,1197 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
 
     @Override
     public Uid update(ObjectClass objClass, Uid uid, Set<Attribute> attrs, OperationOptions options) {
+        try {
+            return update(objClass, uid, attrs, options, true);
+        } finally {
+            connection().invalidateMembershipIndex();
+        }
+    }
+
+    /**
+     * @param objClass object class
+     * @param uid uid
+     * @param attrs attributes
+     * @param options operation options
+     * @param fallback whether to create the entry if it does not exist
+     * @return uid
+     */
+    private Uid update(
+            ObjectClass objClass, Uid uid, Set<Attribute> attrs, OperationOptions options, boolean fallback) {
+
         final String METHOD = "update";
         LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, uid);
         try {
             String zimbraName = toObjectName(objClass, uid.getUidValue());
+            if (configuration.isOptimisticWrites() && !isCurrentStateNeeded(objClass, attrs)) {
+                Uid updated = updateById(objClass, uid, zimbraName, attrs);
+                if (updated != null) {
+                    LOG.ok("exit {0}() == \"{1}\"", METHOD, updated);
+                    return updated;
+                }
+                if (!fallback) {
+                    throw new UnknownUidException(uid, objClass);
+                }
+                return create(objClass, attrs, options, false);
+            }
+
             NamedEntry zimbraEntry = getZimbraObject(objClass, zimbraName);
             if (zimbraEntry == null) {
-                return create(objClass, attrs, options);
+                if (!fallback) {
+                    throw new UnknownUidException(uid, objClass);
+                }
+                return create(objClass, attrs, options, false);
             }
+            String zimbraId = zimbraEntry.getId();
 
+            ZimbraBatch batch = new ZimbraBatch();
             Map<String, Object> zimbraAttrs = toZimbraAttributes(objClass, attrs);
-
-            if (cos != null) {
-                zimbraAttrs.put(Provisioning.A_zimbraCOSId, cos);
+            String cos = connection().getCosId();
+            if (configuration.isDiffUpdate()) {
+                if (cos != null && objClass.is(ObjectClass.ACCOUNT_NAME)) {
+                    zimbraAttrs.put(Provisioning.A_zimbraCOSId, cos);
+                }
+                zimbraAttrs = toChangedAttributes(zimbraEntry.getAttrs(false), zimbraAttrs);
+                if (!zimbraAttrs.isEmpty()) {
+                    batch.add(ZimbraRequests.modify(objClass, zimbraId, zimbraAttrs));
+                }
+            } else {
+                if (cos != null) {
+                    zimbraAttrs.put(Provisioning.A_zimbraCOSId, cos);
+                }
+                batch.add(ZimbraRequests.modify(objClass, zimbraId, zimbraAttrs));
             }
-            sp().modifyAttrs(zimbraEntry, zimbraAttrs);
+
+            String[] oldAliases = null;
+            List<Element> memberRequests = Collections.emptyList();
             if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                Account account = (Account) zimbraEntry;
                 GuardedString password = AttributeUtil.getPasswordValue(attrs);
                 if (password != null) {
-                    sp().setPassword(account, GuardedStringAccessor.toString(password));
-                }
-                String[] aliases = findAttribute(attrs, ZimbraSpecialAttributes.ALIASES_NAME);
-                if (aliases != null && aliases.length > 0) {
-                    String[] oldAliases = account.getMultiAttr(Provisioning.A_zimbraMailAlias);
-                    if (oldAliases != null && oldAliases.length > 0) {
-                        for (String alias : oldAliases) {
-                            sp().removeAlias(account, toObjectName(objClass, alias));
-                        }
-                    }
-                    for (String alias : aliases) {
-                        sp().addAlias(account, toObjectName(objClass, alias));
-                    }
+                    batch.add(ZimbraRequests.setPassword(zimbraId, GuardedStringAccessor.toString(password)));
                 }
+                oldAliases = zimbraEntry.getMultiAttr(Provisioning.A_zimbraMailAlias);
                 Attribute distributionListAttr =
                         AttributeUtil.find(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME, attrs);
                 if (distributionListAttr != null && !CollectionUtil.isEmpty(distributionListAttr.getValue())) {
-                    LOG.ok("Insert account into distribution list");
-                    for (Object dl : distributionListAttr.getValue()) {
-                        DistributionList distributionList = sp().get(Key.DistributionListBy.name, dl.toString());
-                        distributionList.addMembers(new String[]{zimbraName});
-                        LOG.ok("enter {0}(\"{1}\")", zimbraName, distributionList.getName());
-                    }
+                    addToDistributionLists(batch, zimbraName, distributionListAttr.getValue());
                 }
             } else if (objClass.is(ObjectClass.GROUP_NAME)) {
                 DistributionList distributionList = (DistributionList) zimbraEntry;
-                String[] aliases = findAttribute(attrs, ZimbraSpecialAttributes.ALIASES_NAME);
-                if (aliases != null && aliases.length > 0) {
-                    String[] oldAliases = distributionList.getAliases();
-                    if (oldAliases != null && oldAliases.length > 0) {
-                        for (String alias : oldAliases) {
-                            sp().removeAlias(distributionList, toObjectName(objClass, alias));
-                        }
-                    }
-                    for (String alias : aliases) {
-                        sp().addAlias(distributionList, toObjectName(objClass, alias));
+                oldAliases = distributionList.getAliases();
+                String[] members = findAttribute(attrs, ZimbraSpecialAttributes.MEMBERS_NAME);
+                if (members != null) {
+                    memberRequests = toMemberRequests(zimbraId, distributionList.getAllMembers(), members);
+                }
+            }
+
+            String[] aliases = findAttribute(attrs, ZimbraSpecialAttributes.ALIASES_NAME);
+            // no alias values: aliases are left as they are
+            if (aliases != null && aliases.length > 0 && configuration.isDiffUpdate()) {
+                batch.addAll(toAliasRequests(objClass, zimbraId, oldAliases, aliases));
+            } else if (aliases != null && aliases.length > 0) {
+                if (oldAliases != null) {
+                    for (String alias : oldAliases) {
+                        batch.add(ZimbraRequests.removeAlias(objClass, zimbraId, toObjectName(objClass, alias)));
                     }
                 }
+                for (String alias : aliases) {
+                    batch.add(ZimbraRequests.addAlias(objClass, zimbraId, toObjectName(objClass, alias)));
+                }
+            }
 
-                String[] oldMembers = distributionList.getAllMembers();
-                if (oldMembers != null && oldMembers.length > 0) {
-                    sp().removeMembers(distributionList, oldMembers);
+            uid = rename(objClass, uid, zimbraName, zimbraId, attrs, batch, memberRequests);
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_UPDATE_FAILED_MSG, objClass, uid.getUidValue());
+        }
+        LOG.ok("exit {0}() == \"{1}\"", METHOD, uid);
+        return uid;
+    }
+
+    /**
+     * @param objClass object class
+     * @param attrs requested attributes
+     * @return whether updating requires the current entry: to compute differences, or to replace aliases or
+     * members
+     */
+    private boolean isCurrentStateNeeded(ObjectClass objClass, Set<Attribute> attrs) {
+        return configuration.isDiffUpdate()
+                || AttributeUtil.find(ZimbraSpecialAttributes.ALIASES_NAME, attrs) != null
+                || (objClass.is(ObjectClass.GROUP_NAME)
+                && AttributeUtil.find(ZimbraSpecialAttributes.MEMBERS_NAME, attrs) != null);
+    }
+
+    /**
+     * Updates an entry addressing it by id, without reading it first. When the entry's own requests fail because the
+     * cached id is stale, the update is retried once with a freshly resolved id; when a distribution list to join
+     * does not exist any more, its cached id is evicted and the failure is reported as is.
+     *
+     * @param objClass object class
+     * @param uid uid
+     * @param zimbraName entry name
+     * @param attrs requested attributes, neither aliases nor members
+     * @return updated uid, null if the entry does not exist
+     * @throws ServiceException if any request fails
+     */
+    private Uid updateById(ObjectClass objClass, Uid uid, String zimbraName, Set<Attribute> attrs)
+            throws ServiceException {
+
+        for (int attempt = 0;; attempt++) {
+            String zimbraId = getZimbraId(objClass, zimbraName);
+            if (zimbraId == null) {
+                return null;
+            }
+
+            ZimbraBatch batch = new ZimbraBatch();
+            Map<String, Object> zimbraAttrs = toZimbraAttributes(objClass, attrs);
+            String cos = connection().getCosId();
+            if (cos != null && objClass.is(ObjectClass.ACCOUNT_NAME)) {
+                zimbraAttrs.put(Provisioning.A_zimbraCOSId, cos);
+            }
+            if (!zimbraAttrs.isEmpty()) {
+                batch.add(ZimbraRequests.modify(objClass, zimbraId, zimbraAttrs));
+            }
+            int firstDL = 0;
+            List<Object> distributionLists = Collections.emptyList();
+            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+                GuardedString password = AttributeUtil.getPasswordValue(attrs);
+                if (password != null) {
+                    batch.add(ZimbraRequests.setPassword(zimbraId, GuardedStringAccessor.toString(password)));
                 }
-                String[] members = findAttribute(attrs, ZimbraSpecialAttributes.MEMBERS_NAME);
-                if (members != null && members.length > 0) {
-                    sp().addMembers(distributionList, members);
+                Attribute distributionListAttr =
+                        AttributeUtil.find(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME, attrs);
+                if (distributionListAttr != null && !CollectionUtil.isEmpty(distributionListAttr.getValue())) {
+                    firstDL = batch.size();
+                    distributionLists = distributionListAttr.getValue();
+                    addToDistributionLists(batch, zimbraName, distributionLists);
                 }
             }
 
-            // rename
-            String newName = getName(attrs);
-            if (newName != null && !newName.equalsIgnoreCase(uid.getUidValue())) {
-                String zimbraNewName = toObjectName(objClass, newName);
-                String zimbraId = zimbraEntry.getId();
-                if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                    sp().renameAccount(zimbraId, zimbraNewName);
-                } else if (objClass.is(ObjectClass.GROUP_NAME)) {
-                    sp().renameDistributionList(zimbraId, zimbraNewName);
+            try {
+                return rename(objClass, uid, zimbraName, zimbraId, attrs, batch, Collections.<Element>emptyList());
+            } catch (ServiceException ex) {
+                if (!ZimbraRequests.isNoSuchEntry(ex)) {
+                    throw ex;
+                }
+                int index = ex instanceof ZimbraBatch.FaultException
+                        ? ((ZimbraBatch.FaultException) ex).getIndex()
+                        : 0;
+                if (index >= firstDL && index < firstDL + distributionLists.size()) {
+                    // stale distribution list id: the account itself exists
+                    connection().getIdCache(ObjectClass.GROUP).remove(
+                            toObjectName(ObjectClass.GROUP, distributionLists.get(index - firstDL).toString()));
+                    throw ex;
+                }
+
+                // stale entry id
+                connection().getIdCache(objClass).remove(zimbraName);
+                if (attempt > 0) {
+                    return null;
                 }
-                uid = new Uid(toObjectUid(objClass, newName));
+                LOG.ok("Stale id {0} for {1}, resolving it again", zimbraId, zimbraName);
             }
-        } catch (ServiceException ex) {
-            throw connectorException(ex, ZimbraConstants.ZIMBRA_UPDATE_FAILED_MSG, objClass, uid.getUidValue());
         }
+    }
+
+    /**
+     * Adds the rename request, if a new name is requested, as last request of the given batch, then executes it.
+     *
+     * @param objClass object class
+     * @param uid current uid
+     * @param zimbraName current entry name
+     * @param zimbraId entry id
+     * @param attrs requested attributes
+     * @param batch requests to send
+     * @param memberRequests member requests to send after the batch
+     * @return new uid
+     * @throws ServiceException if any request fails
+     */
+    private Uid rename(ObjectClass objClass, Uid uid, String zimbraName, String zimbraId, Set<Attribute> attrs,
+            ZimbraBatch batch, List<Element> memberRequests) throws ServiceException {
+
+        String newName = getName(attrs);
+        String zimbraNewName = null;
+        if (newName != null && !newName.equalsIgnoreCase(uid.getUidValue())) {
+            zimbraNewName = toObjectName(objClass, newName);
+            batch.add(ZimbraRequests.rename(objClass, zimbraId, zimbraNewName));
+        }
+        execute(batch, memberRequests);
+
+        if (zimbraNewName == null) {
+            return uid;
+        }
+        ZimbraIdCache idCache = connection().getIdCache(objClass);
+        idCache.remove(zimbraName);
+        idCache.put(zimbraNewName, zimbraId);
+        return new Uid(toObjectUid(objClass, newName));
+    }
+
+    /**
+     * Sends the given batch; member requests are added to the batch as well when they fit a single chunk,
+     * otherwise they are sent afterwards with up to {@link ZimbraConfiguration#getMemberUpdateConcurrency()}
+     * concurrent requests.
+     *
+     * @param batch requests to send
+     * @param memberRequests member requests
+     * @throws ServiceException if any request fails
+     */
+    private void execute(ZimbraBatch batch, List<Element> memberRequests) throws ServiceException {
+        if (memberRequests.size() <= 1) {
+            batch.addAll(memberRequests);
+            batch.execute(sp());
+        } else {
+            batch.execute(sp());
+            connection().invokeAll(memberRequests, configuration.getMemberUpdateConcurrency());
+        }
+    }
+
+    /**
+     * Keeps only the attributes whose requested values differ from the current ones; an empty or null value requests
+     * the removal of the attribute. Current values are those set on the entry itself: a value equal to the class of
+     * service default is still written, so that the entry keeps it when the default changes.
+     *
+     * @param currentAttrs values set on the current entry, without defaults
+     * @param zimbraAttrs requested attribute values
+     * @return attributes to modify
+     */
+    protected static Map<String, Object> toChangedAttributes(
+            Map<String, Object> currentAttrs, Map<String, Object> zimbraAttrs) {
+
+        Map<String, Object> changed = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> zimbraAttr : zimbraAttrs.entrySet()) {
+            Object value = zimbraAttr.getValue();
+            if (!toValueSet(value).equals(toValueSet(currentAttrs.get(zimbraAttr.getKey())))) {
+                changed.put(zimbraAttr.getKey(), value);
+            }
+        }
+        return changed;
+    }
+
+    private static Set<String> toValueSet(Object value) {
+        Set<String> values = new HashSet<String>();
+        if (value instanceof Object[]) {
+            for (Object item : (Object[]) value) {
+                if (item != null && !item.toString().isEmpty()) {
+                    values.add(item.toString());
+                }
+            }
+        } else if (value != null && !value.toString().isEmpty()) {
+            values.add(value.toString());
+        }
+        return values;
+    }
+
+    /**
+     * Adds the requested aliases not yet defined, then removes the current aliases no longer requested, so that
+     * unchanged aliases are never touched.
+     *
+     * @param objClass object class
+     * @param zimbraId account or distribution list id
+     * @param oldAliases current aliases
+     * @param aliases requested aliases
+     * @return alias requests
+     */
+    private List<Element> toAliasRequests(ObjectClass objClass, String zimbraId, String[] oldAliases,
+            String[] aliases) {
+
+        List<Element> requests = new ArrayList<Element>();
+        Set<String> current = toAliasNames(objClass, oldAliases);
+        Set<String> requested = toAliasNames(objClass, aliases);
+        for (String alias : requested) {
+            if (!current.contains(alias)) {
+                requests.add(ZimbraRequests.addAlias(objClass, zimbraId, alias));
+            }
+        }
+        for (String alias : current) {
+            if (!requested.contains(alias)) {
+                requests.add(ZimbraRequests.removeAlias(objClass, zimbraId, alias));
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Adds the requested members not yet in the distribution list and removes the current members no longer
+     * requested; unchanged members are never sent.
+     *
+     * @param zimbraId distribution list id
+     * @param oldMembers current members
+     * @param members requested members
+     * @return member requests
+     */
+    private List<Element> toMemberRequests(String zimbraId, String[] oldMembers, String[] members) {
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        diffMembers(oldMembers, members, added, removed);
+        return toMemberRequests(zimbraId, added, removed);
+    }
+
+    /**
+     * Compares members case-insensitively, each counted once.
+     *
+     * @param oldMembers current members, possibly null
+     * @param members requested members
+     * @param added filled with the requested members not among the current ones, in request order
+     * @param removed filled with the current members not requested, in their current order
+     */
+    protected static void diffMembers(
+            String[] oldMembers, String[] members, List<String> added, List<String> removed) {
+
+        Map<String, String> current = new LinkedHashMap<String, String>();
+        if (oldMembers != null) {
+            for (String member : oldMembers) {
+                current.put(member.toLowerCase(Locale.ROOT), member);
+            }
+        }
+        Set<String> requested = new HashSet<String>(members.length * 2);
+        for (String member : members) {
+            String key = member.toLowerCase(Locale.ROOT);
+            if (requested.add(key) && !current.containsKey(key)) {
+                added.add(member);
+            }
+        }
+        for (Map.Entry<String, String> member : current.entrySet()) {
+            if (!requested.contains(member.getKey())) {
+                removed.add(member.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param values values to split
+     * @param chunkSize maximum number of values per chunk
+     * @return consecutive chunks of the given values
+     */
+    protected static List<List<String>> toChunks(List<String> values, int chunkSize) {
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        for (int i = 0; i < values.size(); i += chunkSize) {
+            chunks.add(values.subList(i, Math.min(i + chunkSize, values.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits the given member additions and removals in chunks of at most
+     * {@link ZimbraConfiguration#getMemberChunkSize()} members.
+     *
+     * @param zimbraId distribution list id
+     * @param added members to add
+     * @param removed members to remove
+     * @return member requests
+     */
+    private List<Element> toMemberRequests(String zimbraId, List<String> added, List<String> removed) {
+        LOG.ok("Distribution list {0}: adding {1} members, removing {2}", zimbraId, added.size(), removed.size());
+
+        int chunkSize = configuration.getMemberChunkSize();
+        List<Element> requests = new ArrayList<Element>();
+        for (List<String> chunk : toChunks(added, chunkSize)) {
+            requests.add(ZimbraRequests.addDistributionListMembers(zimbraId, chunk.toArray(new String[0])));
+        }
+        for (List<String> chunk : toChunks(removed, chunkSize)) {
+            requests.add(ZimbraRequests.removeDistributionListMembers(zimbraId, chunk.toArray(new String[0])));
+        }
+        return requests;
+    }
+
+    private Set<String> toAliasNames(ObjectClass objClass, String[] aliases) {
+        Set<String> names = new LinkedHashSet<String>();
+        if (aliases != null) {
+            for (String alias : aliases) {
+                names.add(toObjectName(objClass, alias).toLowerCase(Locale.ROOT));
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public Uid addAttributeValues(ObjectClass objClass, Uid uid, Set<Attribute> valuesToAdd,
+            OperationOptions options) {
+
+        final String METHOD = "addAttributeValues";
+        LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, uid);
+        updateAttributeValues(objClass, uid, valuesToAdd, true);
+        LOG.ok("exit {0}() == \"{1}\"", METHOD, uid);
+        return uid;
+    }
+
+    @Override
+    public Uid removeAttributeValues(ObjectClass objClass, Uid uid, Set<Attribute> valuesToRemove,
+            OperationOptions options) {
+
+        final String METHOD = "removeAttributeValues";
+        LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, uid);
+        updateAttributeValues(objClass, uid, valuesToRemove, false);
         LOG.ok("exit {0}() == \"{1}\"", METHOD, uid);
         return uid;
     }
 
+    /**
+     * Adds or removes single values without reading the entry: members, aliases and distribution lists are sent
+     * as dedicated requests, any other attribute through a single modify request with <code>+attr</code> /
+     * <code>-attr</code> values.
+     *
+     * @param objClass object class
+     * @param uid entry uid
+     * @param attrs values to add or remove
+     * @param add <code>true</code> to add values, <code>false</code> to remove them
+     */
+    private void updateAttributeValues(ObjectClass objClass, Uid uid, Set<Attribute> attrs, boolean add) {
+        try {
+            String zimbraName = toObjectName(objClass, uid.getUidValue());
+            String zimbraId = getZimbraId(objClass, zimbraName);
+            if (zimbraId == null) {
+                throw new UnknownUidException(uid, objClass);
+            }
+
+            ZimbraBatch batch = new ZimbraBatch();
+            List<Element> memberRequests = Collections.emptyList();
+            Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
+            for (Attribute attr : attrs) {
+                if (CollectionUtil.isEmpty(attr.getValue())) {
+                    continue;
+                }
+                if (attr.is(ZimbraSpecialAttributes.MEMBERS_NAME) && objClass.is(ObjectClass.GROUP_NAME)) {
+                    List<String> members = Arrays.asList(findAttribute(attrs, attr.getName()));
+                    memberRequests = toMemberRequests(zimbraId,
+                            add ? members : Collections.<String>emptyList(),
+                            add ? Collections.<String>emptyList() : members);
+                } else if (attr.is(ZimbraSpecialAttributes.ALIASES_NAME)) {
+                    for (String alias : findAttribute(attrs, attr.getName())) {
+                        String zimbraAlias = toObjectName(objClass, alias);
+                        batch.add(add
+                                ? ZimbraRequests.addAlias(objClass, zimbraId, zimbraAlias)
+                                : ZimbraRequests.removeAlias(objClass, zimbraId, zimbraAlias));
+                    }
+                } else if (attr.is(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME)
+                        && objClass.is(ObjectClass.ACCOUNT_NAME)) {
+
+                    for (String dl : findAttribute(attrs, attr.getName())) {
+                        String zimbraDLId = getDistributionListId(dl);
+                        batch.add(add
+                                ? ZimbraRequests.addDistributionListMembers(zimbraDLId, zimbraName)
+                                : ZimbraRequests.removeDistributionListMembers(zimbraDLId, zimbraName));
+                    }
+                } else if (AttributeUtil.isSpecial(attr) || ZimbraSpecialAttributes.isZimbraSpecialAttribute(attr)) {
+                    throw new InvalidAttributeValueException("Values of " + attr.getName()
+                            + " cannot be " + (add ? "added" : "removed"));
+                } else {
+                    zimbraAttrs.put((add ? "+" : "-") + toZimbraAttributeName(objClass, attr.getName()),
+                            attr.getValue().toArray());
+                }
+            }
+            if (!zimbraAttrs.isEmpty()) {
+                batch.add(ZimbraRequests.modify(objClass, zimbraId, zimbraAttrs));
+            }
+            execute(batch, memberRequests);
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_UPDATE_FAILED_MSG, objClass, uid.getUidValue());
+        } finally {
+            connection().invalidateMembershipIndex();
+        }
+    }
+
     @Override
     public void delete(ObjectClass objClass, Uid uid, OperationOptions options) {
         final String METHOD = "delete";
         LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, uid);
         try {
             String zimbraName = toObjectName(objClass, uid.getUidValue());
-            NamedEntry zimbraEntry = getZimbraObject(objClass, zimbraName);
-            if (zimbraEntry == null) {
+            String zimbraId = getZimbraId(objClass, zimbraName);
+            if (zimbraId == null) {
                 throw new UnknownUidException(uid, objClass);
             }
 
-            String zimbraId = zimbraEntry.getId();
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                sp().deleteAccount(zimbraId);
-            } else if (objClass.is(ObjectClass.GROUP_NAME)) {
-                sp().deleteDistributionList(zimbraId);
+            ZimbraIdCache idCache = connection().getIdCache(objClass);
+            try {
+                if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+                    sp().deleteAccount(zimbraId);
+                } else if (objClass.is(ObjectClass.GROUP_NAME)) {
+                    sp().deleteDistributionList(zimbraId);
+                }
+            } catch (ServiceException ex) {
+                if (!ZimbraRequests.isNoSuchEntry(ex)) {
+                    throw ex;
+                }
+                // stale cached id
+                idCache.remove(zimbraName);
+                throw new UnknownUidException(uid, objClass);
             }
+            idCache.putAbsent(zimbraName);
         } catch (ServiceException ex) {
             throw connectorException(ex, ZimbraConstants.ZIMBRA_DELETE_FAILED_MSG, objClass, uid.getUidValue());
+        } finally {
+            connection().invalidateMembershipIndex();
+        }
+        LOG.ok("exit {0}()", METHOD);
+    }
+
+    /**
+     * Runs a connector-side action, given as script text; the only action supported is
+     * {@link ZimbraBulkProvisioner#ACTION}.
+     */
+    @Override
+    public Object runScriptOnConnector(ScriptContext request, OperationOptions options) {
+        final String METHOD = "runScriptOnConnector";
+        String action = request.getScriptText() == null ? "" : request.getScriptText().trim();
+        LOG.ok("enter {0}(\"{1}\")", METHOD, action);
+        Object result;
+        if (ZimbraBulkProvisioner.ACTION.equalsIgnoreCase(action)) {
+            result = ZimbraBulkProvisioner.run(this, request.getScriptArguments());
+        } else if (COUNT_ACTION.equalsIgnoreCase(action)) {
+            result = runCount(request.getScriptArguments());
+        } else {
+            throw new UnsupportedOperationException(configuration.getConnectorMessages().format(
+                    ZimbraConstants.ZIMBRA_UNSUPPORTED_SCRIPT_ACTION_MSG, null, action));
         }
         LOG.ok("exit {0}()", METHOD);
+        return result;
+    }
+
+    /**
+     * Runs the {@link #COUNT_ACTION} script action.
+     *
+     * @param arguments script arguments
+     * @return number of matching entries
+     */
+    protected Integer runCount(Map<String, Object> arguments) {
+        Object objClassArg = arguments == null ? null : arguments.get(ARG_OBJECT_CLASS);
+        if (objClassArg == null) {
+            throw new InvalidAttributeValueException("Missing script argument " + ARG_OBJECT_CLASS);
+        }
+        ObjectClass objClass = new ObjectClass(objClassArg.toString());
+        Object filterArg = arguments.get(ARG_FILTER);
+        String query = null;
+        if (filterArg instanceof Filter) {
+            List<String> queries = createFilterTranslator(objClass, null).translate((Filter) filterArg);
+            query = queries.isEmpty() ? null : queries.get(0);
+        } else if (filterArg != null) {
+            query = filterArg.toString();
+        }
+        try {
+            return countEntries(objClass, query);
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_EXECUTE_QUERY_FAILED_MSG, objClass, query);
+        }
+    }
+
+    /**
+     * Builds a directory search, streaming or not as configured.
+     *
+     * @param objClass object class searched
+     * @param query LDAP filter
+     * @param returnAttrs attributes to return, all when null
+     * @return directory search
+     */
+    private ZimbraSearch newSearch(ObjectClass objClass, String query, String[] returnAttrs) {
+        return configuration.isStreamingSearch()
+                ? new ZimbraStreamingSearch(connection(), configuration.getAdminServiceLocation(),
+                        configuration.getAdminServiceTimeout(), objClass, query, returnAttrs)
+                : new ZimbraSearch(sp(), connection().getDomain(), objClass, query, returnAttrs);
+    }
+
+    /**
+     * @param objClass object class searched
+     * @param query LDAP filter, null for all entries
+     * @return number of entries of the domain matching the given filter
+     * @throws ServiceException if the request fails
+     */
+    protected int countEntries(ObjectClass objClass, String query) throws ServiceException {
+        int count = new ZimbraSearch(sp(), connection().getDomain(), objClass, query, null).count();
+        LOG.ok("{0} entries of {1} matching {2}", count, objClass, query);
+        return count;
     }
 
     @Override
     public FilterTranslator<String> createFilterTranslator(ObjectClass objClass, OperationOptions options) {
-        return new ZimbraFilterTranslator(objClass);
+        return new ZimbraFilterTranslator(objClass, configuration.isFilterOptimization());
     }
 
     @Override
-    public void executeQuery(ObjectClass objClass, String query, ResultsHandler handler, OperationOptions options) {
+    public void executeQuery(
+            final ObjectClass objClass, String query, final ResultsHandler handler, OperationOptions options) {
+
         final String METHOD = "executeQuery";
         LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, query);
-        String[] mappedAttributesToGet = toZimbraAttributesToGet(objClass, options);
+        final boolean identityOnly = isIdentityOnly(options);
+        String[] mappedAttributesToGet = identityOnly
+                ? IDENTITY_ATTRS.clone()
+                : toSearchAttributesToGet(objClass, options);
+        // distribution list members are read separately, in pages
+        final boolean members = objClass.is(ObjectClass.GROUP_NAME) && mappedAttributesToGet != null
+                && Arrays.asList(mappedAttributesToGet).contains(Provisioning.A_zimbraMailForwardingAddress);
+        if (members) {
+            List<String> attrsToGet = new ArrayList<String>(Arrays.asList(mappedAttributesToGet));
+            attrsToGet.remove(Provisioning.A_zimbraMailForwardingAddress);
+            mappedAttributesToGet = attrsToGet.toArray(new String[attrsToGet.size()]);
+        }
+        // account memberships are read from an index of all distribution lists
+        final boolean groups = objClass.is(ObjectClass.ACCOUNT_NAME) && mappedAttributesToGet != null
+                && Arrays.asList(mappedAttributesToGet).contains(ZimbraSpecialAttributes.GROUPS_NAME);
+        final boolean distributionLists = objClass.is(ObjectClass.ACCOUNT_NAME) && mappedAttributesToGet != null
+                && Arrays.asList(mappedAttributesToGet).contains(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME);
+        // aliases are needed to look memberships up, though not necessarily requested
+        final boolean hiddenAliases = (groups || distributionLists)
+                && !Arrays.asList(mappedAttributesToGet).contains(Provisioning.A_zimbraMailAlias);
+        if (groups || distributionLists) {
+            List<String> attrsToGet = new ArrayList<String>(Arrays.asList(mappedAttributesToGet));
+            attrsToGet.remove(ZimbraSpecialAttributes.GROUPS_NAME);
+            attrsToGet.remove(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME);
+            if (hiddenAliases) {
+                attrsToGet.add(Provisioning.A_zimbraMailAlias);
+            }
+            mappedAttributesToGet = attrsToGet.toArray(new String[attrsToGet.size()]);
+        }
+        String partition = toPartitionFilter(objClass, options);
+        if (partition != null) {
+            query = StringUtil.isBlank(query) ? partition : "(&" + query + partition + ")";
+        }
         try {
-            SearchDirectoryOptions searchOptions = new SearchDirectoryOptions();
-            searchOptions.setDomain(domain);
-            searchOptions.setFilterString(null, query);
-            searchOptions.setReturnAttrs(mappedAttributesToGet);
-            searchOptions.setSortOpt(SortOpt.SORT_ASCENDING);
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                searchOptions.addType(SearchDirectoryOptions.ObjectType.accounts);
-            } else if (objClass.is(ObjectClass.GROUP_NAME)) {
-                searchOptions.addType(SearchDirectoryOptions.ObjectType.distributionlists);
-            } else {
-                throw new UnsupportedOperationException();
+            if (isCountOnly(options)) {
+                int count = countEntries(objClass, query);
+                if (handler instanceof SearchResultsHandler) {
+                    ((SearchResultsHandler) handler).handleResult(new SearchResult(null, count));
+                }
+                LOG.ok("exit {0}()", METHOD);
+                return;
             }
-            List<NamedEntry> allEntries = sp().searchDirectory(searchOptions);
-            for (NamedEntry zimbraEntry : allEntries) {
-                ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
-                builder.setObjectClass(objClass);
-                String zimbraName = zimbraEntry.getAttr(Provisioning.A_uid, true, true);
-                Uid uid = new Uid(toObjectUid(objClass, zimbraName));
-                builder.setUid(uid);
-                builder.setName(toObjectName(objClass, zimbraName));
-                Map<String, Object> zimbraAttrs = zimbraEntry.getAttrs(true, false);
-                builder.addAttributes(getAttributes(objClass, zimbraAttrs));
-                if (!handler.handle(builder.build())) {
-                    break;
+            final ZimbraMembershipIndex membershipIndex = groups || distributionLists
+                    ? connection().getMembershipIndex(this)
+                    : null;
+            ZimbraSearch.EntryHandler entryHandler = new ZimbraSearch.EntryHandler() {
+
+                @Override
+                public boolean handle(Map<String, Object> zimbraAttrs) {
+                    if (identityOnly) {
+                        return handler.handle(toIdentityObject(objClass, zimbraAttrs));
+                    }
+                    String zimbraName = toZimbraName(zimbraAttrs);
+                    if (members) {
+                        try {
+                            String[] dlMembers = getMembers(toObjectName(objClass, zimbraName));
+                            if (dlMembers.length > 0) {
+                                zimbraAttrs.put(Provisioning.A_zimbraMailForwardingAddress, dlMembers);
+                            }
+                        } catch (ServiceException ex) {
+                            throw connectorException(ex, ZimbraConstants.ZIMBRA_EXECUTE_QUERY_FAILED_MSG,
+                                    objClass, zimbraName);
+                        }
+                    }
+                    if (membershipIndex != null) {
+                        List<String> addresses = new ArrayList<String>();
+                        addresses.add(toObjectName(objClass, zimbraName));
+                        Object aliases = hiddenAliases
+                                ? zimbraAttrs.remove(Provisioning.A_zimbraMailAlias)
+                                : zimbraAttrs.get(Provisioning.A_zimbraMailAlias);
+                        if (aliases instanceof Object[]) {
+                            for (Object alias : (Object[]) aliases) {
+                                addresses.add(alias.toString());
+                            }
+                        } else if (aliases != null) {
+                            addresses.add(aliases.toString());
+                        }
+                        List<String> dlNames = membershipIndex.get(addresses);
+                        String[] values = dlNames.toArray(new String[dlNames.size()]);
+                        if (groups) {
+                            zimbraAttrs.put(ZimbraSpecialAttributes.GROUPS_NAME, values);
+                        }
+                        if (distributionLists) {
+                            zimbraAttrs.put(ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME, values);
+                        }
+                    }
+                    return handler.handle(toConnectorObject(objClass, zimbraAttrs));
+                }
+            };
+
+            Integer pageSize = options == null ? null : options.getPageSize();
+            if (pageSize != null && pageSize > 0) {
+                ZimbraSearch.Page page = newSearch(objClass, query, mappedAttributesToGet).
+                        page(entryHandler, toPagedResultsOffset(options), pageSize);
+                if (handler instanceof SearchResultsHandler) {
+                    String cookie = page.isMore() ? String.valueOf(page.getNextOffset()) : null;
+                    int remaining = page.getTotal() < 0 ? -1 : Math.max(0, page.getTotal() - page.getNextOffset());
+                    ((SearchResultsHandler) handler).handleResult(new SearchResult(cookie, remaining));
+                }
+            } else {
+                ZimbraLookup lookup = partition == null
+                        ? ZimbraLookup.forQuery(sp(), connection().getDomain(), objClass, query, mappedAttributesToGet)
+                        : null;
+                if (lookup != null) {
+                    // equalities on uid or zimbraId: direct gets instead of a search
+                    lookup.stream(entryHandler);
+                } else {
+                    List<String> partitions = toSearchPartitions(objClass);
+                    ZimbraLdapPool ldapPool = connection().ldapPool();
+                    if (ldapPool != null) {
+                        // straight from LDAP: no entry serialized as SOAP, no need to partition;
+                        // unordered, and without values inherited from the class of service
+                        new ZimbraLdapSearch(ldapPool, connection().getEmailDomainName(), objClass, query,
+                                mappedAttributesToGet).stream(entryHandler, configuration.getSearchPageSize());
+                    } else if (partitions.size() > 1) {
+                        new ZimbraParallelSearch(connection(), objClass, query, partitions, mappedAttributesToGet,
+                                configuration.isSearchOrdered()).
+                                stream(entryHandler, configuration.getSearchPageSize());
+                    } else {
+                        newSearch(objClass, query, mappedAttributesToGet).
+                                stream(entryHandler, configuration.getSearchPageSize());
+                    }
+                }
+                if (handler instanceof SearchResultsHandler) {
+                    ((SearchResultsHandler) handler).handleResult(new SearchResult());
                 }
             }
         } catch (ServiceException ex) {
             throw connectorException(ex, ZimbraConstants.ZIMBRA_EXECUTE_QUERY_FAILED_MSG, objClass, query);
+        } catch (NamingException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_EXECUTE_QUERY_FAILED_MSG, objClass, query);
         }
         LOG.ok("exit {0}()", METHOD);
     }
 
+    /**
+     * Builds the filters of the partitions searched concurrently by unpaged searches, each matching the entries whose
+     * <code>uid</code> starts with one of the characters of a group; the last partition matches all the remaining
+     * entries. Prefix filters are used because <code>uid</code> has no ordering matching rule.
+     *
+     * @param objClass object class searched
+     * @return partition filters, empty when searches are not partitioned
+     */
+    protected List<String> toSearchPartitions(ObjectClass objClass) {
+        List<String> groups = new ArrayList<String>();
+        if (configuration.getSearchPartitions() != null && configuration.getSearchPartitions().length > 0) {
+            for (String partition : configuration.getSearchPartitions()) {
+                String group = toPartitionCharacters(partition);
+                if (!group.isEmpty()) {
+                    groups.add(group);
+                }
+            }
+        } else if (configuration.getSearchParallelism() > 1) {
+            int count = Math.min(configuration.getSearchParallelism(), PARTITION_CHARACTERS.length());
+            for (int i = 0; i < count; i++) {
+                groups.add(PARTITION_CHARACTERS.substring(
+                        i * PARTITION_CHARACTERS.length() / count, (i + 1) * PARTITION_CHARACTERS.length() / count));
+            }
+        }
+        if (groups.isEmpty()) {
+            return Collections.<String>emptyList();
+        }
+
+        FilterTranslator<String> translator = createFilterTranslator(objClass, null);
+        List<String> partitions = new ArrayList<String>();
+        Set<Character> covered = new HashSet<Character>();
+        List<Filter> all = new ArrayList<Filter>();
+        for (String group : groups) {
+            List<Filter> prefixes = new ArrayList<Filter>();
+            for (char c : group.toCharArray()) {
+                if (covered.add(c)) {
+                    prefixes.add(FilterBuilder.startsWith(
+                            AttributeBuilder.build(Provisioning.A_uid, String.valueOf(c))));
+                }
+            }
+            if (!prefixes.isEmpty()) {
+                partitions.add(translator.translate(or(prefixes)).get(0));
+                all.addAll(prefixes);
+            }
+        }
+        partitions.add(translator.translate(FilterBuilder.not(or(all))).get(0));
+        return partitions;
+    }
+
+    /**
+     * Combines the given filters with binary <code>or</code> filters, as the composite filters built from a
+     * collection are not translated as <code>or</code> past their first operand.
+     */
+    private static Filter or(List<Filter> filters) {
+        Filter result = filters.get(0);
+        for (int i = 1; i < filters.size(); i++) {
+            result = FilterBuilder.or(result, filters.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Builds the filter matching the entries of the partition requested by {@link #OP_PARTITION_INDEX} and
+     * {@link #OP_PARTITION_COUNT}: entries are split into buckets by the first characters of their <code>uid</code>
+     * or <code>zimbraId</code>, and each partition gets a contiguous range of buckets.
+     *
+     * @param objClass object class searched
+     * @param options search options
+     * @return partition filter, null when no partition was requested
+     */
+    protected String toPartitionFilter(ObjectClass objClass, OperationOptions options) {
+        Object countOption = options == null ? null : options.getOptions().get(OP_PARTITION_COUNT);
+        if (countOption == null) {
+            return null;
+        }
+        Object indexOption = options.getOptions().get(OP_PARTITION_INDEX);
+        Object attrOption = options.getOptions().get(OP_PARTITION_ATTRIBUTE);
+        String attr = attrOption == null ? Provisioning.A_uid : toZimbraAttributeName(objClass, attrOption.toString());
+        int count;
+        int index;
+        try {
+            count = Integer.parseInt(countOption.toString());
+            index = indexOption == null ? -1 : Integer.parseInt(indexOption.toString());
+        } catch (NumberFormatException ex) {
+            throw new InvalidAttributeValueException(
+                    "Invalid partition " + indexOption + " of " + countOption + " by " + attr, ex);
+        }
+
+        // buckets are prefixes; the last uid bucket holds the uids starting with any other character
+        List<String> prefixes = new ArrayList<String>();
+        if (Provisioning.A_uid.equalsIgnoreCase(attr)) {
+            for (char c : PARTITION_CHARACTERS.toCharArray()) {
+                prefixes.add(String.valueOf(c));
+            }
+            prefixes.add(null);
+        } else if (Provisioning.A_zimbraId.equalsIgnoreCase(attr)) {
+            for (char c : HEX_CHARACTERS.toCharArray()) {
+                if (count <= HEX_CHARACTERS.length()) {
+                    prefixes.add(String.valueOf(c));
+                } else {
+                    for (char d : HEX_CHARACTERS.toCharArray()) {
+                        prefixes.add(String.valueOf(c) + d);
+                    }
+                }
+            }
+        }
+        if (prefixes.isEmpty() || count < 1 || count > prefixes.size() || index < 0 || index >= count) {
+            throw new InvalidAttributeValueException(
+                    "Invalid partition " + indexOption + " of " + countOption + " by " + attr);
+        }
+        if (count == 1) {
+            return null;
+        }
+
+        List<Filter> all = new ArrayList<Filter>();
+        List<Filter> own = new ArrayList<Filter>();
+        for (int bucket = 0; bucket < prefixes.size(); bucket++) {
+            String prefix = prefixes.get(bucket);
+            boolean owned = bucket * count / prefixes.size() == index;
+            if (prefix == null) {
+                if (owned) {
+                    own.add(FilterBuilder.not(or(all)));
+                }
+            } else {
+                Filter filter = FilterBuilder.startsWith(AttributeBuilder.build(attr, prefix));
+                all.add(filter);
+                if (owned) {
+                    own.add(filter);
+                }
+            }
+        }
+        return createFilterTranslator(objClass, options).translate(or(own)).get(0);
+    }
+
+    /**
+     * @param partition characters and ranges such as <code>a-f</code>
+     * @return lower case characters of the partition
+     */
+    private static String toPartitionCharacters(String partition) {
+        StringBuilder characters = new StringBuilder();
+        String value = partition.trim().toLowerCase(Locale.ROOT);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (i + 2 < value.length() && value.charAt(i + 1) == '-') {
+                for (char r = c; r <= value.charAt(i + 2); r++) {
+                    characters.append(r);
+                }
+                i += 2;
+            } else {
+                characters.append(c);
+            }
+        }
+        return characters.toString();
+    }
+
     @Override
-    public Schema schema() {
-        if (schema != null) {
-            return schema;
+    public SyncToken getLatestSyncToken(ObjectClass objClass) {
+        final String METHOD = "getLatestSyncToken";
+        LOG.ok("enter {0}(\"{1}\")", METHOD, objClass);
+        if (StringUtil.isNotBlank(configuration.getSyncSnapshotDirectory())) {
+            // the snapshot of the last synchronization, or else the current state of the directory, is the
+            // baseline of the next synchronization
+            Long generation;
+            try {
+                generation = ZimbraSnapshot.readGeneration(toSnapshotFile(objClass));
+            } catch (IOException ex) {
+                throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_LATEST_SYNC_TOKEN_FAILED_MSG, objClass);
+            }
+            SyncToken token = generation == null
+                    ? snapshotSync(objClass, null, null, null)
+                    : ZimbraSnapshot.toSyncToken(generation);
+            LOG.ok("exit {0}() == \"{1}\"", METHOD, token);
+            return token;
+        }
+        ZimbraSyncToken latest;
+        try {
+            latest = new ZimbraSyncSearch(sp(), connection().getDomain(), objClass,
+                    toSyncAttributesToGet(new String[] { Provisioning.A_uid }), configuration.getSearchPageSize()).
+                    latest();
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_GET_LATEST_SYNC_TOKEN_FAILED_MSG, objClass);
         }
+        SyncToken token = latest == null ? null : latest.toSyncToken();
+        LOG.ok("exit {0}() == \"{1}\"", METHOD, token);
+        return token;
+    }
+
+    @Override
+    public void sync(final ObjectClass objClass, SyncToken token, final SyncResultsHandler handler,
+            OperationOptions options) {
 
+        final String METHOD = "sync";
+        LOG.ok("enter {0}(\"{1}\", \"{2}\")", METHOD, objClass, token);
+        if (StringUtil.isNotBlank(configuration.getSyncSnapshotDirectory())) {
+            SyncToken last = snapshotSync(objClass, token, handler, options);
+            if (handler instanceof SyncTokenResultsHandler) {
+                ((SyncTokenResultsHandler) handler).handleResult(last);
+            }
+            LOG.ok("exit {0}()", METHOD);
+            return;
+        }
+        final ZimbraSyncToken from = ZimbraSyncToken.fromSyncToken(token);
+        ZimbraSyncToken last;
+        try {
+            last = new ZimbraSyncSearch(sp(), connection().getDomain(), objClass,
+                    toSyncAttributesToGet(toSearchAttributesToGet(objClass, options)),
+                    configuration.getSearchPageSize()).
+                    stream(from, new ZimbraSyncSearch.ChangeHandler() {
+
+                        @Override
+                        public boolean handle(Map<String, Object> zimbraAttrs, ZimbraSyncToken position) {
+                            ConnectorObject object = toConnectorObject(objClass, zimbraAttrs);
+                            SyncDeltaBuilder builder = new SyncDeltaBuilder();
+                            builder.setToken(position.toSyncToken());
+                            builder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+                            builder.setObjectClass(objClass);
+                            builder.setUid(object.getUid());
+                            builder.setObject(object);
+                            return handler.handle(builder.build());
+                        }
+                    });
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_SYNC_FAILED_MSG, objClass, token);
+        }
+        if (handler instanceof SyncTokenResultsHandler && last != null) {
+            ((SyncTokenResultsHandler) handler).handleResult(last.toSyncToken());
+        }
+        LOG.ok("exit {0}()", METHOD);
+    }
+
+    private File toSnapshotFile(ObjectClass objClass) {
+        return new File(configuration.getSyncSnapshotDirectory(),
+                (connection().getEmailDomainName() + '-' + objClass.getObjectClassValue()).
+                        replaceAll("[^A-Za-z0-9._-]", "_") + ".snapshot");
+    }
+
+    /**
+     * Synchronizes by comparing all entries, read in <code>zimbraId</code> order, with the snapshot taken by the
+     * previous synchronization, which is then replaced.
+     *
+     * @param objClass object class
+     * @param from token of the previous synchronization, which must be that of the current snapshot or that of the
+     * synchronizations failed since; null to report all entries as created
+     * @param handler handler of the changes found, null to only take a new snapshot
+     * @param options options, giving the attributes returned and compared
+     * @return token of this synchronization
+     */
+    protected SyncToken snapshotSync(final ObjectClass objClass, SyncToken from, final SyncResultsHandler handler,
+            OperationOptions options) {
+
+        Long expected = ZimbraSnapshot.fromSyncToken(from);
+        final SyncToken[] token = new SyncToken[1];
+        final ZimbraSnapshot snapshot = new ZimbraSnapshot(toSnapshotFile(objClass), new ZimbraSnapshot.DeltaHandler() {
+
+            @Override
+            public boolean handle(
+                    SyncDeltaType type, String zimbraId, String zimbraName, Map<String, Object> zimbraAttrs) {
+
+                if (handler == null) {
+                    return true;
+                }
+                SyncDeltaBuilder builder = new SyncDeltaBuilder();
+                builder.setToken(token[0]);
+                builder.setDeltaType(type);
+                builder.setObjectClass(objClass);
+                if (zimbraAttrs == null) {
+                    builder.setUid(new Uid(toObjectUid(objClass, zimbraName)));
+                } else {
+                    ConnectorObject object = toConnectorObject(objClass, zimbraAttrs);
+                    builder.setUid(object.getUid());
+                    builder.setObject(object);
+                }
+                return handler.handle(builder.build());
+            }
+        });
+        // timestamps change with any attribute, also those not compared
+        final List<String> excluded = Arrays.asList(SYNC_TIMESTAMP_ATTRS);
+        try {
+            snapshot.open(expected != null);
+            // the pending generation was reported by synchronizations failing before their commit
+            if (expected != null && !expected.equals(snapshot.getPreviousGeneration())
+                    && !expected.equals(snapshot.getPendingGeneration())) {
+                throw new InvalidAttributeValueException("Sync token " + from.getValue() + " does not match the "
+                        + "snapshot of the last synchronization, " + snapshot.getPreviousGeneration()
+                        + "; get the latest sync token to start over");
+            }
+            token[0] = ZimbraSnapshot.toSyncToken(snapshot.getGeneration());
+
+            new ZimbraSyncSearch(sp(), connection().getDomain(), objClass,
+                    toSyncAttributesToGet(toSearchAttributesToGet(objClass, options)),
+                    configuration.getSearchPageSize()).
+                    streamById(new ZimbraSearch.EntryHandler() {
+
+                        @Override
+                        public boolean handle(Map<String, Object> zimbraAttrs) {
+                            try {
+                                snapshot.add((String) zimbraAttrs.get(Provisioning.A_zimbraId),
+                                        toZimbraName(zimbraAttrs), ZimbraSnapshot.hash(zimbraAttrs, excluded),
+                                        zimbraAttrs);
+                            } catch (IOException ex) {
+                                throw connectorException(
+                                        ex, ZimbraConstants.ZIMBRA_SYNC_FAILED_MSG, objClass, token[0]);
+                            }
+                            return true;
+                        }
+                    });
+            snapshot.commit();
+        } catch (ServiceException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_SYNC_FAILED_MSG, objClass, from);
+        } catch (IOException ex) {
+            throw connectorException(ex, ZimbraConstants.ZIMBRA_SYNC_FAILED_MSG, objClass, from);
+        } finally {
+            snapshot.close();
+        }
+        return token[0];
+    }
+
+    protected static String[] toSyncAttributesToGet(String[] attrsToGet) {
+        if (attrsToGet == null) {
+            return null;
+        }
+        Set<String> attrsToGetSet = new HashSet<String>(Arrays.asList(attrsToGet));
+        attrsToGetSet.add(Provisioning.A_zimbraId);
+        attrsToGetSet.addAll(Arrays.asList(SYNC_TIMESTAMP_ATTRS));
+        return attrsToGetSet.toArray(new String[0]);
+    }
+
+    /**
+     * @param zimbraAttrs entry attributes
+     * @return newest between zimbraModifyTimestamp and zimbraCreateTimestamp, empty if neither is set
+     */
+    protected static String getSyncTimestamp(Map<String, Object> zimbraAttrs) {
+        String newest = "";
+        for (String timestampAttr : SYNC_TIMESTAMP_ATTRS) {
+            Object timestamp = zimbraAttrs.get(timestampAttr);
+            if (timestamp instanceof String && ((String) timestamp).compareTo(newest) > 0) {
+                newest = (String) timestamp;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * The paged results cookie, when given, is the zero-based offset of the next entry to return; otherwise the
+     * one-based paged results offset is used.
+     *
+     * @param options operation options
+     * @return zero-based offset of the first entry to return
+     */
+    protected static int toPagedResultsOffset(OperationOptions options) {
+        String cookie = options.getPagedResultsCookie();
+        if (StringUtil.isNotBlank(cookie)) {
+            try {
+                return Math.max(0, Integer.parseInt(cookie));
+            } catch (NumberFormatException ex) {
+                throw new InvalidAttributeValueException("Invalid paged results cookie: " + cookie, ex);
+            }
+        }
+        Integer offset = options.getPagedResultsOffset();
+        return offset != null && offset > 1 ? offset - 1 : 0;
+    }
+
+    /**
+     * @param zimbraAttrs attribute values of an entry
+     * @return entry <code>uid</code>
+     */
+    protected static String toZimbraName(Map<String, Object> zimbraAttrs) {
+        Object zimbraName = zimbraAttrs.get(Provisioning.A_uid);
+        if (zimbraName instanceof Object[]) {
+            zimbraName = ((Object[]) zimbraName)[0];
+        }
+        return (String) zimbraName;
+    }
+
+    /**
+     * @param options search options
+     * @return whether only identifiers are to be read, see {@link #OP_IDENTITY_ONLY}
+     */
+    protected static boolean isIdentityOnly(OperationOptions options) {
+        if (options == null) {
+            return false;
+        }
+        Object identityOnly = options.getOptions().get(OP_IDENTITY_ONLY);
+        if (identityOnly != null) {
+            return Boolean.parseBoolean(identityOnly.toString());
+        }
+        String[] attrsToGet = options.getAttributesToGet();
+        if (attrsToGet == null || attrsToGet.length == 0) {
+            return false;
+        }
+        for (String attrName : attrsToGet) {
+            if (!Uid.NAME.equals(attrName) && !Name.NAME.equals(attrName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param options search options
+     * @return whether only the number of matching entries is asked for, see {@link #OP_COUNT_ONLY}
+     */
+    protected static boolean isCountOnly(OperationOptions options) {
+        Object countOnly = options == null ? null : options.getOptions().get(OP_COUNT_ONLY);
+        return countOnly != null && Boolean.parseBoolean(countOnly.toString());
+    }
+
+    /**
+     * Builds an object with only identifiers and modify timestamp, without going through the attribute mapping.
+     */
+    protected ConnectorObject toIdentityObject(ObjectClass objClass, Map<String, Object> zimbraAttrs) {
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setObjectClass(objClass);
+        String zimbraName = toZimbraName(zimbraAttrs);
+        builder.setUid(new Uid(toObjectUid(objClass, zimbraName)));
+        builder.setName(toObjectName(objClass, zimbraName));
+        Object zimbraId = zimbraAttrs.get(Provisioning.A_zimbraId);
+        if (zimbraId != null) {
+            builder.addAttribute(Provisioning.A_zimbraId, zimbraId);
+        }
+        Object modifyTimestamp = zimbraAttrs.get(Provisioning.A_zimbraModifyTimestamp);
+        if (modifyTimestamp != null) {
+            builder.addAttribute(Provisioning.A_zimbraModifyTimestamp, modifyTimestamp);
+        }
+        return builder.build();
+    }
+
+    protected ConnectorObject toConnectorObject(ObjectClass objClass, Map<String, Object> zimbraAttrs) {
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setObjectClass(objClass);
+        String zimbraName = toZimbraName(zimbraAttrs);
+        builder.setUid(new Uid(toObjectUid(objClass, zimbraName)));
+        builder.setName(toObjectName(objClass, zimbraName));
+        builder.addAttributes(getAttributes(objClass, zimbraAttrs));
+        return builder.build();
+    }
+
+    @Override
+    public Schema schema() {
+        ZimbraConnection current = connection;
+        return current == null ? buildSchema() : current.getSchema(this);
+    }
+
+    // defineOperationOption takes a generic varargs of operation classes, only ever passed SearchOp.class
+    @SuppressWarnings("unchecked")
+    protected Schema buildSchema() {
         SchemaBuilder schemaBld = new SchemaBuilder(ZimbraConnector.class);
 
         Set<AttributeInfo> accountAttrsInfo = new HashSet<AttributeInfo>();
@@ -538,6 +1700,8 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
         accountAttrsInfo.add(AttributeInfoBuilder.build(Provisioning.A_zimbraAccountStatus, String.class));
         accountAttrsInfo.add(AttributeInfoBuilder.build(Provisioning.A_zimbraId, String.class));
         accountAttrsInfo.add(ZimbraSpecialAttributeInfos.ALIASES);
+        accountAttrsInfo.add(ZimbraSpecialAttributeInfos.GROUPS);
+        accountAttrsInfo.add(ZimbraSpecialAttributeInfos.DISTRIBUTION_LISTS);
         ObjectClassInfoBuilder accountInfoBld = new ObjectClassInfoBuilder();
         accountInfoBld.setType(ObjectClass.ACCOUNT_NAME);
         accountInfoBld.addAllAttributeInfo(accountAttrsInfo);
@@ -563,99 +1727,150 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
         groupAttrsInfo.add(AttributeInfoBuilder.build(Provisioning.A_zimbraPrefReplyToEnabled, String.class));
         groupAttrsInfo.add(AttributeInfoBuilder.build(Provisioning.A_zimbraPrefReplyToDisplay, String.class));
         groupAttrsInfo.add(AttributeInfoBuilder.build(Provisioning.A_zimbraPrefReplyToAddress, String.class));
-        groupAttrsInfo.add(AttributeInfoBuilder.build(Provisioning.A_zimbraMailForwardingAddress, String.class));
+        groupAttrsInfo.add(AttributeInfoBuilder.build(Provisioning.A_zimbraMailForwardingAddress, String.class,
+                EnumSet.of(Flags.MULTIVALUED, Flags.NOT_RETURNED_BY_DEFAULT)));
         groupInfoBld.addAllAttributeInfo(groupAttrsInfo);
         ObjectClassInfo groupInfo = groupInfoBld.build();
         schemaBld.defineObjectClass(groupInfo);
         schemaBld.removeSupportedObjectClass(AuthenticateOp.class, groupInfo);
 
+        schemaBld.defineOperationOption(OperationOptionInfoBuilder.buildAttributesToGet(), SearchOp.class);
+        schemaBld.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        schemaBld.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(), SearchOp.class);
+        schemaBld.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsOffset(), SearchOp.class);
+        schemaBld.defineOperationOption(new OperationOptionInfo(OP_PARTITION_INDEX, Integer.class), SearchOp.class);
+        schemaBld.defineOperationOption(new OperationOptionInfo(OP_PARTITION_COUNT, Integer.class), SearchOp.class);
+        schemaBld.defineOperationOption(new OperationOptionInfo(OP_PARTITION_ATTRIBUTE, String.class), SearchOp.class);
+        schemaBld.defineOperationOption(new OperationOptionInfo(OP_IDENTITY_ONLY, Boolean.class), SearchOp.class);
+        schemaBld.defineOperationOption(new OperationOptionInfo(OP_COUNT_ONLY, Boolean.class), SearchOp.class);
+
         return schemaBld.build();
     }
 
     public static String toZimbraAttributeName(ObjectClass objClass, String name) {
-        if (AttributeUtil.namesEqual(Name.NAME, name)) {
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                return Provisioning.A_uid;
-            } else if (objClass.is(ObjectClass.GROUP_NAME)) {
-                return Provisioning.A_uid;
-            }
-        } else if (AttributeUtil.namesEqual(Uid.NAME, name)) {
-            return Provisioning.A_uid;
-        } else if (AttributeUtil.namesEqual(OperationalAttributes.ENABLE_NAME, name)) {
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                return Provisioning.A_zimbraAccountStatus;
-            } else if (objClass.is(ObjectClass.GROUP_NAME)) {
-                return Provisioning.A_zimbraMailStatus;
-            }
-        } else if (AttributeUtil.namesEqual(OperationalAttributes.LOCK_OUT_NAME, name)) {
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                return Provisioning.A_zimbraAccountStatus;
-            }
-        } else if (AttributeUtil.namesEqual(OperationalAttributes.PASSWORD_NAME, name)) {
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                return Provisioning.A_userPassword;
-            }
-        } else if (AttributeUtil.namesEqual(ZimbraSpecialAttributes.ALIASES_NAME, name)) {
-            return Provisioning.A_zimbraMailAlias;
-        } else if (AttributeUtil.namesEqual(ZimbraSpecialAttributes.MEMBERS_NAME, name)) {
-            return Provisioning.A_zimbraMailForwardingAddress;
-        } else if (AttributeUtil.namesEqual(OperationalAttributes.PASSWORD_EXPIRED_NAME, name)) {
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                return Provisioning.A_zimbraPasswordMustChange;
-            }
-        }
-        return name;
+        return ZimbraAttributeMapping.forClass(objClass).toZimbraName(name);
     }
 
     protected static String[] toZimbraAttributesToGet(ObjectClass objClass, OperationOptions options) {
-        if (options != null) {
-            String[] attrsToGet = options.getAttributesToGet();
-            if (attrsToGet != null) {
-                Set<String> attrsToGetSet = new HashSet<String>();
-                attrsToGetSet.add(toZimbraAttributeName(objClass, Uid.NAME));
-                for (String attrName : attrsToGet) {
-                    attrsToGetSet.add(toZimbraAttributeName(objClass, attrName));
-                }
-                return attrsToGetSet.toArray(new String[0]);
-            }
+        return options == null ? null : toZimbraAttributesToGet(objClass, options.getAttributesToGet());
+    }
+
+    protected static String[] toZimbraAttributesToGet(ObjectClass objClass, String[] attrsToGet) {
+        if (attrsToGet == null) {
+            return null;
+        }
+        ZimbraAttributeMapping mapping = ZimbraAttributeMapping.forClass(objClass);
+        Set<String> attrsToGetSet = new HashSet<String>(attrsToGet.length * 2 + 2);
+        attrsToGetSet.add(mapping.toZimbraName(Uid.NAME));
+        for (String attrName : attrsToGet) {
+            attrsToGetSet.add(mapping.toZimbraName(attrName));
+        }
+        return attrsToGetSet.toArray(new String[0]);
+    }
+
+    /**
+     * Attributes to return: those asked for by the given options or, if none, those of the configured default
+     * projection; distribution lists are never returned with all their attributes, not to read all members.
+     *
+     * @param objClass object class searched
+     * @param options search options
+     * @return Zimbra attribute names, null for all attributes
+     */
+    protected String[] toSearchAttributesToGet(ObjectClass objClass, OperationOptions options) {
+        String[] attrsToGet = toZimbraAttributesToGet(objClass, options);
+        if (attrsToGet != null) {
+            return attrsToGet;
+        }
+        if (ZimbraConfiguration.PROJECTION_LIST.equalsIgnoreCase(configuration.getDefaultProjection())) {
+            return toZimbraAttributesToGet(objClass, configuration.getDefaultAttributesToGet());
+        }
+        if (ZimbraConfiguration.PROJECTION_SCHEMA.equalsIgnoreCase(configuration.getDefaultProjection())
+                || objClass.is(ObjectClass.GROUP_NAME)) {
+
+            // distribution list members are only returned when asked for
+            return toSchemaAttributesToGet(objClass);
         }
         return null;
     }
 
-    protected static Set<Attribute> getAttributes(ObjectClass objClass, Map<String, Object> zimbraAttrs) {
-        Set<Attribute> attrs = new HashSet<Attribute>();
-        for (String zimbraName : zimbraAttrs.keySet()) {
-            Object zimbraValue = zimbraAttrs.get(zimbraName);
-            List<Object> value = new ArrayList<Object>();
-            if (zimbraValue instanceof Object[]) {
-                for (Object o : (Object[]) zimbraValue) {
-                    value.add(o);
-                }
-            } else {
-                value.add(zimbraValue);
+    /**
+     * @param objClass object class searched
+     * @return Zimbra names of the attributes declared by the schema and returned by default, null if the object
+     * class is not in the schema
+     */
+    protected String[] toSchemaAttributesToGet(ObjectClass objClass) {
+        ObjectClassInfo info = schema().findObjectClassInfo(objClass.getObjectClassValue());
+        if (info == null) {
+            return null;
+        }
+        List<String> attrNames = new ArrayList<String>();
+        for (AttributeInfo attrInfo : info.getAttributeInfo()) {
+            if (attrInfo.isReturnedByDefault()) {
+                attrNames.add(attrInfo.getName());
             }
-            if (Provisioning.A_zimbraAccountStatus.equalsIgnoreCase(zimbraName)) {
-                if (Provisioning.ACCOUNT_STATUS_LOCKED.equalsIgnoreCase((String) zimbraValue)) {
-                    attrs.add(AttributeBuilder.buildLockOut(true));
-                } else {
-                    attrs.add(AttributeBuilder.buildEnabled(Provisioning.ACCOUNT_STATUS_ACTIVE.equalsIgnoreCase(
-                            (String) zimbraValue)));
-                }
-            } else if (Provisioning.A_zimbraMailStatus.equalsIgnoreCase(zimbraName)) {
-                attrs.add(AttributeBuilder.buildEnabled(Provisioning.MAIL_STATUS_ENABLED.equalsIgnoreCase(
-                        (String) zimbraValue)));
-            } else if (Provisioning.A_userPassword.equalsIgnoreCase(zimbraName)) {
-                attrs.add(AttributeBuilder.buildPassword(((String) zimbraValue).toCharArray()));
-            } else if (Provisioning.A_zimbraPasswordMustChange.equalsIgnoreCase(zimbraName)) {
-                attrs.add(AttributeBuilder.buildPasswordExpired(ProvisioningConstants.TRUE.equalsIgnoreCase(
-                        (String) zimbraValue)));
-            } else if (Provisioning.A_zimbraMailAlias.equalsIgnoreCase(zimbraName)) {
-                attrs.add(AttributeBuilder.build(ZimbraSpecialAttributes.ALIASES_NAME, value));
-            } else {
-                attrs.add(AttributeBuilder.build(zimbraName, value));
+        }
+        return toZimbraAttributesToGet(objClass, attrNames.toArray(new String[attrNames.size()]));
+    }
+
+    /**
+     * Builds the index of the memberships of all accounts, reading the members of all distribution lists of the
+     * domain with a single search.
+     *
+     * @return membership index
+     * @throws ServiceException if the search fails
+     */
+    protected ZimbraMembershipIndex buildMembershipIndex() throws ServiceException {
+        final ZimbraMembershipIndex index = new ZimbraMembershipIndex();
+        new ZimbraSearch(sp(), connection().getDomain(), ObjectClass.GROUP, null,
+                new String[] { Provisioning.A_uid, Provisioning.A_zimbraMailForwardingAddress,
+                    Provisioning.A_zimbraMailAlias }).
+                stream(new ZimbraSearch.EntryHandler() {
+
+                    @Override
+                    public boolean handle(Map<String, Object> zimbraAttrs) {
+                        String dlName = toObjectName(ObjectClass.GROUP, toZimbraName(zimbraAttrs));
+                        index.add(dlName, zimbraAttrs.get(Provisioning.A_zimbraMailForwardingAddress));
+                        index.addAliases(dlName, zimbraAttrs.get(Provisioning.A_zimbraMailAlias));
+                        return true;
+                    }
+                }, configuration.getSearchPageSize());
+        LOG.ok("Membership index built for {0} addresses", index.size());
+        return index;
+    }
+
+    /**
+     * Reads the members of the given distribution list in pages of {@link ZimbraConfiguration#getMemberPageSize()},
+     * up to {@link ZimbraConfiguration#getMaxMembers()} members.
+     *
+     * @param dlName distribution list name
+     * @return member addresses
+     * @throws ServiceException if any request fails
+     */
+    protected String[] getMembers(String dlName) throws ServiceException {
+        int pageSize = configuration.getMemberPageSize();
+        int maxMembers = configuration.getMaxMembers();
+        List<String> members = new ArrayList<String>();
+        boolean more = true;
+        while (more && (maxMembers == 0 || members.size() < maxMembers)) {
+            Element response = sp().invoke(ZimbraRequests.getDistributionList(
+                    Key.DistributionListBy.name, dlName, pageSize, members.size(), Provisioning.A_uid));
+            int size = members.size();
+            for (Element entry : response.listElements(AdminConstants.E_DL)) {
+                for (Element member : entry.listElements(AdminConstants.E_DLM)) {
+                    members.add(member.getText());
+                }
             }
+            more = response.getAttributeBool(AdminConstants.A_MORE, false) && members.size() > size;
+        }
+        if (maxMembers > 0 && members.size() > maxMembers) {
+            LOG.ok("{0} members of {1} truncated to {2}", members.size(), dlName, maxMembers);
+            members = members.subList(0, maxMembers);
         }
-        return attrs;
+        return members.toArray(new String[members.size()]);
+    }
+
+    protected static List<Attribute> getAttributes(ObjectClass objClass, Map<String, Object> zimbraAttrs) {
+        return ZimbraAttributeMapping.forClass(objClass).toAttributes(zimbraAttrs);
     }
 
     protected static String[] findAttribute(Set<Attribute> attrs, String attrName) {
@@ -677,52 +1892,11 @@ public class ZimbraConnector implements PoolableConnector, AuthenticateOp, Creat
     }
 
     public static Object toZimbraAttributeValue(ObjectClass objClass, Attribute attr) {
-        if (attr.is(Name.NAME)) {
-            return ((Name) attr).getNameValue();
-        } else if (attr.is(Uid.NAME)) {
-            return toObjectUid(objClass, ((Uid) attr).getUidValue());
-        } else if (attr.is(OperationalAttributes.ENABLE_NAME)) {
-            Boolean isEnabled = AttributeUtil.getBooleanValue(attr);
-            if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-                return isEnabled ? Provisioning.ACCOUNT_STATUS_ACTIVE : Provisioning.ACCOUNT_STATUS_PENDING;
-            } else if (objClass.is(ObjectClass.GROUP_NAME)) {
-                return isEnabled ? Provisioning.MAIL_STATUS_ENABLED : Provisioning.MAIL_STATUS_DISABLED;
-            }
-        } else if (attr.is(OperationalAttributes.LOCK_OUT_NAME)) {
-            Boolean isLockedOut = AttributeUtil.getBooleanValue(attr);
-            return isLockedOut ? Provisioning.ACCOUNT_STATUS_LOCKED : Provisioning.ACCOUNT_STATUS_ACTIVE;
-        } else if (attr.is(OperationalAttributes.PASSWORD_NAME)) {
-            return GuardedStringAccessor.toString(AttributeUtil.getGuardedStringValue(attr));
-        } else if (attr.is(OperationalAttributes.PASSWORD_EXPIRED_NAME)) {
-            Boolean isPasswordExpired = AttributeUtil.getBooleanValue(attr);
-            return isPasswordExpired ? ProvisioningConstants.TRUE : ProvisioningConstants.FALSE;
-        }
-        List<Object> attrValue = attr.getValue();
-        if (attrValue == null || CollectionUtil.isEmpty(attrValue)) {
-            return null;
-        }
-        int attrSize = attrValue.size();
-        if (attrSize == 1) {
-            return attrValue.get(0);
-        }
-        Object[] result = new Object[attrSize];
-        for (int i = 0; i < attrSize; i++) {
-            result[i] = attrValue.get(i);
-        }
-        return result;
+        return ZimbraAttributeMapping.forClass(objClass).toZimbraValue(attr);
     }
 
     protected static Map<String, Object> toZimbraAttributes(ObjectClass objClass, Set<Attribute> attrs) {
-        Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
-        for (Attribute attr : attrs) {
-            if (!(attr.is(Name.NAME) || attr.is(Uid.NAME) || attr.is(OperationalAttributes.PASSWORD_NAME)
-                    || ZimbraSpecialAttributes.isZimbraSpecialAttribute(attr))) {
-                String zimbraName = toZimbraAttributeName(objClass, attr.getName());
-                Object zimbraValue = toZimbraAttributeValue(objClass, attr);
-                zimbraAttrs.put(zimbraName, zimbraValue);
-            }
-        }
-        return zimbraAttrs;
+        return ZimbraAttributeMapping.forClass(objClass).toZimbraAttributes(attrs);
     }
 
     protected RuntimeException connectorException(Throwable ex, String key, Object... args) {
@@ -45,6 +45,132 @@ public interface ZimbraConstants {
 
     static final String ZIMBRA_COS_HELP = "zimbra.cos.help";
 
+    static final String ZIMBRA_SEARCH_PAGE_SIZE_DISPLAY = "zimbra.searchPageSize.display";
+
+    static final String ZIMBRA_SEARCH_PAGE_SIZE_HELP = "zimbra.searchPageSize.help";
+
+    static final String ZIMBRA_SEARCH_PAGE_SIZE_INVALID = "zimbra.searchPageSize.invalid";
+
+    static final String ZIMBRA_ID_CACHE_SIZE_DISPLAY = "zimbra.idCacheSize.display";
+
+    static final String ZIMBRA_ID_CACHE_SIZE_HELP = "zimbra.idCacheSize.help";
+
+    static final String ZIMBRA_ID_CACHE_TTL_DISPLAY = "zimbra.idCacheTtl.display";
+
+    static final String ZIMBRA_ID_CACHE_TTL_HELP = "zimbra.idCacheTtl.help";
+
+    static final String ZIMBRA_ID_CACHE_ABSENT_TTL_DISPLAY = "zimbra.idCacheAbsentTtl.display";
+
+    static final String ZIMBRA_ID_CACHE_ABSENT_TTL_HELP = "zimbra.idCacheAbsentTtl.help";
+
+    static final String ZIMBRA_DIFF_UPDATE_DISPLAY = "zimbra.diffUpdate.display";
+
+    static final String ZIMBRA_DIFF_UPDATE_HELP = "zimbra.diffUpdate.help";
+
+    static final String ZIMBRA_MEMBER_CHUNK_SIZE_DISPLAY = "zimbra.memberChunkSize.display";
+
+    static final String ZIMBRA_MEMBER_CHUNK_SIZE_HELP = "zimbra.memberChunkSize.help";
+
+    static final String ZIMBRA_MEMBER_CHUNK_SIZE_INVALID = "zimbra.memberChunkSize.invalid";
+
+    static final String ZIMBRA_MEMBER_UPDATE_CONCURRENCY_DISPLAY = "zimbra.memberUpdateConcurrency.display";
+
+    static final String ZIMBRA_MEMBER_UPDATE_CONCURRENCY_HELP = "zimbra.memberUpdateConcurrency.help";
+
+    static final String ZIMBRA_MEMBER_UPDATE_CONCURRENCY_INVALID = "zimbra.memberUpdateConcurrency.invalid";
+
+    static final String ZIMBRA_OPTIMISTIC_WRITES_DISPLAY = "zimbra.optimisticWrites.display";
+
+    static final String ZIMBRA_OPTIMISTIC_WRITES_HELP = "zimbra.optimisticWrites.help";
+
+    static final String ZIMBRA_BULK_CONCURRENCY_DISPLAY = "zimbra.bulkConcurrency.display";
+
+    static final String ZIMBRA_BULK_CONCURRENCY_HELP = "zimbra.bulkConcurrency.help";
+
+    static final String ZIMBRA_BULK_CONCURRENCY_INVALID = "zimbra.bulkConcurrency.invalid";
+
+    static final String ZIMBRA_BULK_BATCH_SIZE_DISPLAY = "zimbra.bulkBatchSize.display";
+
+    static final String ZIMBRA_BULK_BATCH_SIZE_HELP = "zimbra.bulkBatchSize.help";
+
+    static final String ZIMBRA_BULK_BATCH_SIZE_INVALID = "zimbra.bulkBatchSize.invalid";
+
+    static final String ZIMBRA_SEARCH_PARALLELISM_DISPLAY = "zimbra.searchParallelism.display";
+
+    static final String ZIMBRA_SEARCH_PARALLELISM_HELP = "zimbra.searchParallelism.help";
+
+    static final String ZIMBRA_SEARCH_PARALLELISM_INVALID = "zimbra.searchParallelism.invalid";
+
+    static final String ZIMBRA_SEARCH_PARTITIONS_DISPLAY = "zimbra.searchPartitions.display";
+
+    static final String ZIMBRA_SEARCH_PARTITIONS_HELP = "zimbra.searchPartitions.help";
+
+    static final String ZIMBRA_SEARCH_ORDERED_DISPLAY = "zimbra.searchOrdered.display";
+
+    static final String ZIMBRA_SEARCH_ORDERED_HELP = "zimbra.searchOrdered.help";
+
+    static final String ZIMBRA_FILTER_OPTIMIZATION_DISPLAY = "zimbra.filterOptimization.display";
+
+    static final String ZIMBRA_FILTER_OPTIMIZATION_HELP = "zimbra.filterOptimization.help";
+
+    static final String ZIMBRA_DEFAULT_PROJECTION_DISPLAY = "zimbra.defaultProjection.display";
+
+    static final String ZIMBRA_DEFAULT_PROJECTION_HELP = "zimbra.defaultProjection.help";
+
+    static final String ZIMBRA_DEFAULT_PROJECTION_INVALID = "zimbra.defaultProjection.invalid";
+
+    static final String ZIMBRA_DEFAULT_ATTRIBUTES_TO_GET_DISPLAY = "zimbra.defaultAttributesToGet.display";
+
+    static final String ZIMBRA_DEFAULT_ATTRIBUTES_TO_GET_HELP = "zimbra.defaultAttributesToGet.help";
+
+    static final String ZIMBRA_MEMBER_PAGE_SIZE_DISPLAY = "zimbra.memberPageSize.display";
+
+    static final String ZIMBRA_MEMBER_PAGE_SIZE_HELP = "zimbra.memberPageSize.help";
+
+    static final String ZIMBRA_MEMBER_PAGE_SIZE_INVALID = "zimbra.memberPageSize.invalid";
+
+    static final String ZIMBRA_MAX_MEMBERS_DISPLAY = "zimbra.maxMembers.display";
+
+    static final String ZIMBRA_MAX_MEMBERS_HELP = "zimbra.maxMembers.help";
+
+    static final String ZIMBRA_MAX_MEMBERS_INVALID = "zimbra.maxMembers.invalid";
+
+    static final String ZIMBRA_MEMBERSHIP_CACHE_TTL_DISPLAY = "zimbra.membershipCacheTtl.display";
+
+    static final String ZIMBRA_MEMBERSHIP_CACHE_TTL_HELP = "zimbra.membershipCacheTtl.help";
+
+    static final String ZIMBRA_SYNC_SNAPSHOT_DIRECTORY_DISPLAY = "zimbra.syncSnapshotDirectory.display";
+
+    static final String ZIMBRA_SYNC_SNAPSHOT_DIRECTORY_HELP = "zimbra.syncSnapshotDirectory.help";
+
+    static final String ZIMBRA_LDAP_URL_DISPLAY = "zimbra.ldapUrl.display";
+
+    static final String ZIMBRA_LDAP_URL_HELP = "zimbra.ldapUrl.help";
+
+    static final String ZIMBRA_LDAP_BIND_DN_DISPLAY = "zimbra.ldapBindDn.display";
+
+    static final String ZIMBRA_LDAP_BIND_DN_HELP = "zimbra.ldapBindDn.help";
+
+    static final String ZIMBRA_LDAP_BIND_PASSWORD_DISPLAY = "zimbra.ldapBindPassword.display";
+
+    static final String ZIMBRA_LDAP_BIND_PASSWORD_HELP = "zimbra.ldapBindPassword.help";
+
+    static final String ZIMBRA_LDAP_POOL_SIZE_DISPLAY = "zimbra.ldapPoolSize.display";
+
+    static final String ZIMBRA_LDAP_POOL_SIZE_HELP = "zimbra.ldapPoolSize.help";
+
+    static final String ZIMBRA_LDAP_POOL_SIZE_INVALID = "zimbra.ldapPoolSize.invalid";
+
+    static final String ZIMBRA_STREAMING_SEARCH_DISPLAY = "zimbra.streamingSearch.display";
+
+    static final String ZIMBRA_STREAMING_SEARCH_HELP = "zimbra.streamingSearch.help";
+
+    static final String ZIMBRA_ADMIN_SERVICE_TIMEOUT_DISPLAY = "zimbra.adminServiceTimeout.display";
+
+    static final String ZIMBRA_ADMIN_SERVICE_TIMEOUT_HELP = "zimbra.adminServiceTimeout.help";
+
+    static final String ZIMBRA_ADMIN_SERVICE_TIMEOUT_INVALID = "zimbra.adminServiceTimeout.invalid";
+
     static final String ZIMBRA_CONNECT_FAILED_MSG = "zimbra.connectFailed.msg";
 
     static final String ZIMBRA_GET_CONFIG_FAILED_MSG = "zimbra.getConfigFailed.msg";
@@ -69,4 +195,10 @@ public interface ZimbraConstants {
 
     static final String ZIMBRA_EXECUTE_QUERY_FAILED_MSG = "zimbra.executeQueryFailed.msg";
 
+    static final String ZIMBRA_SYNC_FAILED_MSG = "zimbra.syncFailed.msg";
+
+    static final String ZIMBRA_GET_LATEST_SYNC_TOKEN_FAILED_MSG = "zimbra.getLatestSyncTokenFailed.msg";
+
+    static final String ZIMBRA_UNSUPPORTED_SCRIPT_ACTION_MSG = "zimbra.unsupportedScriptAction.msg";
+
 }
@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Simplifies LDAP filters before they are rendered: nested <code>&amp;</code> and <code>|</code> of the same kind are
+ * flattened, duplicate operands removed, double negations and complementary operands folded, and operands reordered
+ * so that equality conditions on indexed attributes come first.
+ */
+public final class ZimbraFilterOptimizer {
+
+    /**
+     * Attributes indexed for equality by the Zimbra LDAP server.
+     */
+    private static final Set<String> INDEXED = new HashSet<String>();
+
+    static {
+        INDEXED.add("uid");
+        INDEXED.add("mail");
+        INDEXED.add("zimbraid");
+        INDEXED.add("zimbramailalias");
+    }
+
+    /**
+     * Filter matching all entries.
+     */
+    private static final String TRUE = "(objectClass=*)";
+
+    private static final int RANK_INDEXED_EQUALITY = 0;
+
+    private static final int RANK_INDEXED = 1;
+
+    private static final int RANK_OTHER = 2;
+
+    private static final int RANK_NEGATION = 3;
+
+    private static final Comparator<Node> BY_RANK = new Comparator<Node>() {
+
+        @Override
+        public int compare(Node o1, Node o2) {
+            return o1.rank() - o2.rank();
+        }
+    };
+
+    private ZimbraFilterOptimizer() {
+        // private constructor for static utility class
+    }
+
+    /**
+     * Filter tree node.
+     */
+    public abstract static class Node {
+
+        private String text;
+
+        protected abstract void render(StringBuilder sb);
+
+        protected abstract int rank();
+
+        /**
+         * @return rendered filter, used to compare nodes
+         */
+        public String text() {
+            if (text == null) {
+                StringBuilder sb = new StringBuilder();
+                render(sb);
+                text = sb.toString();
+            }
+            return text;
+        }
+    }
+
+    private static final class Term extends Node {
+
+        private final String condition;
+
+        private final int rank;
+
+        private Term(String condition, int rank) {
+            this.condition = condition;
+            this.rank = rank;
+        }
+
+        @Override
+        protected void render(StringBuilder sb) {
+            sb.append(condition);
+        }
+
+        @Override
+        protected int rank() {
+            return rank;
+        }
+
+        @Override
+        public String text() {
+            return condition;
+        }
+    }
+
+    private static final class Not extends Node {
+
+        private final Node operand;
+
+        private Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        protected void render(StringBuilder sb) {
+            sb.append('(').append('!');
+            if (operand == null) {
+                sb.append(TRUE);
+            } else {
+                operand.render(sb);
+            }
+            sb.append(')');
+        }
+
+        @Override
+        protected int rank() {
+            return RANK_NEGATION;
+        }
+    }
+
+    private static final class Composite extends Node {
+
+        private final char operator;
+
+        private final List<Node> operands;
+
+        private Composite(char operator, List<Node> operands) {
+            this.operator = operator;
+            this.operands = operands;
+        }
+
+        @Override
+        protected void render(StringBuilder sb) {
+            sb.append('(').append(operator);
+            for (Node operand : operands) {
+                operand.render(sb);
+            }
+            sb.append(')');
+        }
+
+        @Override
+        protected int rank() {
+            int rank = RANK_OTHER;
+            if (operator == '&') {
+                // an and is as selective as its most selective operand
+                for (Node operand : operands) {
+                    rank = Math.min(rank, operand.rank());
+                }
+            }
+            return rank;
+        }
+    }
+
+    /**
+     * @param attribute Zimbra attribute name
+     * @param equality whether the condition is an exact equality
+     * @param condition rendered condition, such as <code>(uid=guest)</code>
+     * @return condition node
+     */
+    public static Node term(String attribute, boolean equality, String condition) {
+        boolean indexed = INDEXED.contains(attribute.toLowerCase(Locale.ROOT));
+        return new Term(condition, indexed ? equality ? RANK_INDEXED_EQUALITY : RANK_INDEXED : RANK_OTHER);
+    }
+
+    /**
+     * @param operand negated node
+     * @return negation node
+     */
+    public static Node not(Node operand) {
+        return new Not(operand);
+    }
+
+    /**
+     * @param operator <code>&amp;</code> or <code>|</code>
+     * @param operands operands
+     * @return composite node
+     */
+    public static Node composite(char operator, List<Node> operands) {
+        return new Composite(operator, operands);
+    }
+
+    /**
+     * @param node filter tree
+     * @return simplified filter
+     */
+    public static String optimize(Node node) {
+        Node optimized = simplify(node);
+        if (optimized == null) {
+            return TRUE;
+        }
+        return optimized.text();
+    }
+
+    /**
+     * @return simplified node; null if matching all entries, a {@link Not} of null if matching none
+     */
+    private static Node simplify(Node node) {
+        if (node instanceof Not) {
+            Node operand = ((Not) node).operand;
+            if (operand instanceof Not) {
+                return simplify(((Not) operand).operand);
+            }
+            Node simplified = simplify(operand);
+            if (simplified instanceof Not) {
+                return ((Not) simplified).operand;
+            }
+            return new Not(simplified);
+        }
+        if (!(node instanceof Composite)) {
+            return node;
+        }
+
+        Composite composite = (Composite) node;
+        boolean and = composite.operator == '&';
+        Map<String, Node> operands = new LinkedHashMap<String, Node>();
+        List<Node> pending = new ArrayList<Node>(composite.operands);
+        Collections.reverse(pending);
+        while (!pending.isEmpty()) {
+            Node operand = pending.remove(pending.size() - 1);
+            if (operand instanceof Composite && ((Composite) operand).operator == composite.operator) {
+                // flattened, keeping the order of operands
+                List<Node> nested = new ArrayList<Node>(((Composite) operand).operands);
+                Collections.reverse(nested);
+                pending.addAll(nested);
+                continue;
+            }
+            Node simplified = simplify(operand);
+            if (simplified instanceof Composite && ((Composite) simplified).operator == composite.operator) {
+                for (Node nested : ((Composite) simplified).operands) {
+                    operands.put(nested.text(), nested);
+                }
+            } else if (simplified == null || isNone(simplified)) {
+                // true is neutral for and, absorbing for or; false the other way round
+                if (and == (simplified == null)) {
+                    continue;
+                }
+                return simplified;
+            } else {
+                operands.put(simplified.text(), simplified);
+            }
+        }
+
+        // complementary operands: x and !x
+        for (Node operand : operands.values()) {
+            if (operand instanceof Not && ((Not) operand).operand != null
+                    && operands.containsKey(((Not) operand).operand.text())) {
+                return and ? new Not(null) : null;
+            }
+        }
+
+        if (operands.isEmpty()) {
+            return and ? null : new Not(null);
+        }
+        if (operands.size() == 1) {
+            return operands.values().iterator().next();
+        }
+        List<Node> sorted = new ArrayList<Node>(operands.values());
+        Collections.sort(sorted, BY_RANK);
+        return new Composite(composite.operator, sorted);
+    }
+
+    private static boolean isNone(Node node) {
+        return node instanceof Not && ((Not) node).operand == null;
+    }
+}
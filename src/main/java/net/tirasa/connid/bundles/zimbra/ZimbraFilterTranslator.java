@@ -15,196 +15,225 @@
  */
 package net.tirasa.connid.bundles.zimbra;
 
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
 import org.identityconnectors.common.logging.Log;
-import org.identityconnectors.framework.common.exceptions.ConnectionBrokenException;
-import org.identityconnectors.framework.common.objects.Attribute;
-import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
-import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
+import org.identityconnectors.framework.common.objects.filter.AndFilter;
 import org.identityconnectors.framework.common.objects.filter.AttributeFilter;
+import org.identityconnectors.framework.common.objects.filter.CompositeFilter;
 import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
 import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
 import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 import org.identityconnectors.framework.common.objects.filter.EqualsIgnoreCaseFilter;
+import org.identityconnectors.framework.common.objects.filter.ExternallyChainedFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.common.objects.filter.GreaterThanFilter;
 import org.identityconnectors.framework.common.objects.filter.GreaterThanOrEqualFilter;
 import org.identityconnectors.framework.common.objects.filter.LessThanFilter;
 import org.identityconnectors.framework.common.objects.filter.LessThanOrEqualFilter;
+import org.identityconnectors.framework.common.objects.filter.NotFilter;
+import org.identityconnectors.framework.common.objects.filter.OrFilter;
 import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
 
-public class ZimbraFilterTranslator extends AbstractFilterTranslator<String> {
+/**
+ * Translates a filter into a single LDAP filter, appending the whole filter tree into one builder.
+ * <p>
+ * Negations are pushed down to the leaves as <code>AbstractFilterTranslator</code> does; values are escaped one UTF-8
+ * byte at a time as <code>\xx</code>, unpaired and paired surrogates alike being encoded as <code>?</code>.
+ * <p>
+ * When optimizing, the filter tree is simplified by {@link ZimbraFilterOptimizer} before being rendered.
+ */
+public class ZimbraFilterTranslator implements FilterTranslator<String> {
 
     private static final Log LOG = Log.getLog(ZimbraFilterTranslator.class);
 
-    private final ObjectClass objectClass;
-
-    public ZimbraFilterTranslator(ObjectClass objectClass) {
-        this.objectClass = objectClass;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String createAndExpression(String leftExpression, String rightExpression) {
-        return createAndOrExpression("&", leftExpression, rightExpression);
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String createOrExpression(String leftExpression, String rightExpression) {
-        return createAndOrExpression("|", leftExpression, rightExpression);
-    }
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String createContainsExpression(ContainsFilter filter, boolean not) {
-        return createNotExpression(filter, "=", "*", "*", not);
-    }
+    private final ObjectClass objectClass;
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String createEndsWithExpression(EndsWithFilter filter, boolean not) {
-        return createNotExpression(filter, "=", "*", "", not);
-    }
+    private final boolean optimize;
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String createStartsWithExpression(StartsWithFilter filter, boolean not) {
-        return createNotExpression(filter, "=", "", "*", not);
+    public ZimbraFilterTranslator(ObjectClass objectClass) {
+        this(objectClass, false);
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String createGreaterThanExpression(GreaterThanFilter filter, boolean not) {
-        return createNotExpression(filter, "<=", "", "", !not);
+    public ZimbraFilterTranslator(ObjectClass objectClass, boolean optimize) {
+        this.objectClass = objectClass;
+        this.optimize = optimize;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public String createGreaterThanOrEqualExpression(GreaterThanOrEqualFilter filter, boolean not) {
-        return createNotExpression(filter, ">=", "", "", not);
+    public List<String> translate(Filter filter) {
+        if (filter == null) {
+            return new ArrayList<String>();
+        }
+        if (optimize) {
+            return Collections.singletonList(ZimbraFilterOptimizer.optimize(toNode(filter, false)));
+        }
+        StringBuilder sb = new StringBuilder(64);
+        append(sb, filter, false);
+        return Collections.singletonList(sb.toString());
     }
 
     /**
-     * {@inheritDoc}
+     * Appends the given filter, negated when <code>not</code>; composite filters are split into their left and right
+     * operands, as given by {@link CompositeFilter#getLeft()} and {@link CompositeFilter#getRight()}.
+     *
+     * @param sb builder
+     * @param filter filter
+     * @param not whether the filter is negated
      */
-    @Override
-    public String createLessThanExpression(LessThanFilter filter, boolean not) {
-        return createNotExpression(filter, ">=", "", "", !not);
+    protected void append(StringBuilder sb, Filter filter, boolean not) {
+        if (filter instanceof ExternallyChainedFilter) {
+            append(sb, ((ExternallyChainedFilter) filter).getFilter(), not);
+        } else if (filter instanceof NotFilter) {
+            append(sb, ((NotFilter) filter).getFilter(), !not);
+        } else if (filter instanceof AndFilter || filter instanceof OrFilter) {
+            // De Morgan: a negated and is an or of negated operands, and vice versa
+            char operator = (filter instanceof AndFilter) ^ not ? '&' : '|';
+            // left-deep chains, as built by folding many filters, are walked without recursion
+            List<Filter> rights = new ArrayList<Filter>();
+            Filter left = filter;
+            while (left.getClass() == filter.getClass()) {
+                sb.append('(').append(operator);
+                rights.add(((CompositeFilter) left).getRight());
+                left = ((CompositeFilter) left).getLeft();
+            }
+            append(sb, left, not);
+            for (int i = rights.size() - 1; i >= 0; i--) {
+                append(sb, rights.get(i), not);
+                sb.append(')');
+            }
+        } else {
+            boolean negated = isNegated(filter, not);
+            if (negated) {
+                sb.append('(').append('!');
+            }
+            appendExpression(sb, filter);
+            if (negated) {
+                sb.append(')');
+            }
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Builds the filter tree to be simplified, negated when <code>not</code>; nested composite filters of the same
+     * kind are collected as operands of a single node.
+     *
+     * @param filter filter
+     * @param not whether the filter is negated
+     * @return filter tree
      */
-    @Override
-    public String createLessThanOrEqualExpression(LessThanOrEqualFilter filter, boolean not) {
-        return createNotExpression(filter, "<=", "", "", not);
+    protected ZimbraFilterOptimizer.Node toNode(Filter filter, boolean not) {
+        if (filter instanceof ExternallyChainedFilter) {
+            return toNode(((ExternallyChainedFilter) filter).getFilter(), not);
+        } else if (filter instanceof NotFilter) {
+            return toNode(((NotFilter) filter).getFilter(), !not);
+        } else if (filter instanceof AndFilter || filter instanceof OrFilter) {
+            char operator = (filter instanceof AndFilter) ^ not ? '&' : '|';
+            List<ZimbraFilterOptimizer.Node> operands = new ArrayList<ZimbraFilterOptimizer.Node>();
+            Deque<Filter> pending = new ArrayDeque<Filter>();
+            pending.push(filter);
+            while (!pending.isEmpty()) {
+                Filter operand = pending.pop();
+                if (operand.getClass() == filter.getClass()) {
+                    Deque<Filter> filters = new ArrayDeque<Filter>(((CompositeFilter) operand).getFilters());
+                    while (!filters.isEmpty()) {
+                        pending.push(filters.removeLast());
+                    }
+                } else {
+                    operands.add(toNode(operand, not));
+                }
+            }
+            return ZimbraFilterOptimizer.composite(operator, operands);
+        } else {
+            StringBuilder sb = new StringBuilder(32);
+            appendExpression(sb, filter);
+            ZimbraFilterOptimizer.Node term = ZimbraFilterOptimizer.term(
+                    ZimbraConnector.toZimbraAttributeName(objectClass, ((AttributeFilter) filter).getName()),
+                    filter instanceof EqualsFilter
+                    || filter instanceof EqualsIgnoreCaseFilter
+                    || filter instanceof ContainsAllValuesFilter,
+                    sb.toString());
+            return isNegated(filter, not) ? ZimbraFilterOptimizer.not(term) : term;
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Greater and less than are expressed in LDAP as negations of less and greater than or equal.
      */
-    @Override
-    public String createEqualsExpression(EqualsFilter filter, boolean not) {
-        return createNotExpression(filter, "=", "", "", not);
-    }
-
-    @Override
-    protected String createEqualsIgnoreCaseExpression(EqualsIgnoreCaseFilter filter, boolean not) {
-        // Zimbra is on LDAP, then generally case-insensitive, reverting to EqualsFilter
-        Attribute attr = filter.getValue() == null
-                ? AttributeBuilder.build(filter.getName())
-                : AttributeBuilder.build(filter.getName(), filter.getValue());
-        return createEqualsExpression(new EqualsFilter(attr), not);
+    private static boolean isNegated(Filter filter, boolean not) {
+        return not ^ (filter instanceof GreaterThanFilter || filter instanceof LessThanFilter);
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String createContainsAllValuesExpression(ContainsAllValuesFilter filter, boolean not) {
-        return createNotExpression(filter, "=", "", "", not);
-    }
+    private void appendExpression(StringBuilder sb, Filter filter) {
+        if (filter instanceof ContainsFilter) {
+            appendExpression(sb, (AttributeFilter) filter, "=", "*", "*");
+        } else if (filter instanceof EndsWithFilter) {
+            appendExpression(sb, (AttributeFilter) filter, "=", "*", "");
+        } else if (filter instanceof StartsWithFilter) {
+            appendExpression(sb, (AttributeFilter) filter, "=", "", "*");
+        } else if (filter instanceof GreaterThanFilter) {
+            appendExpression(sb, (AttributeFilter) filter, "<=", "", "");
+        } else if (filter instanceof GreaterThanOrEqualFilter) {
+            appendExpression(sb, (AttributeFilter) filter, ">=", "", "");
+        } else if (filter instanceof LessThanFilter) {
+            appendExpression(sb, (AttributeFilter) filter, ">=", "", "");
+        } else if (filter instanceof LessThanOrEqualFilter) {
+            appendExpression(sb, (AttributeFilter) filter, "<=", "", "");
+        } else if (filter instanceof EqualsFilter
+                || filter instanceof EqualsIgnoreCaseFilter
+                || filter instanceof ContainsAllValuesFilter) {
 
-    private String createNotExpression(AttributeFilter filter, String operator, String prefix, String suffix,
-            boolean not) {
-        String expression = createExpression(filter, operator, prefix, suffix);
-        if (not) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("(");
-            sb.append("!");
-            sb.append(expression);
-            sb.append(")");
-            return sb.toString();
+            // Zimbra is on LDAP, then generally case-insensitive, reverting to EqualsFilter
+            appendExpression(sb, (AttributeFilter) filter, "=", "", "");
+        } else {
+            throw new UnsupportedOperationException("Unsupported filter: " + filter);
         }
-        return expression;
     }
 
-    private static String createAndOrExpression(String operator, String... operands) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("(");
-        sb.append(operator);
-        for (String s : operands) {
-            sb.append(s);
-        }
-        sb.append(")");
-        return sb.toString();
-    }
+    private void appendExpression(StringBuilder sb, AttributeFilter filter, String operator, String prefix,
+            String suffix) {
 
-    private String createExpression(AttributeFilter filter, String operator, String prefix, String suffix) {
         LOG.ok("filter {0} ({1}) = {2}", filter.getName(), filter.getAttribute().getName(), filter.getAttribute().
                 getValue());
-        StringBuilder sb = new StringBuilder();
 
         String zimbraName = ZimbraConnector.toZimbraAttributeName(objectClass, filter.getName());
         Object zimbraValue = ZimbraConnector.toZimbraAttributeValue(objectClass, filter.getAttribute());
-
         if (zimbraValue instanceof Object[]) {
-            sb.append('(');
-            sb.append('&');
+            sb.append('(').append('&');
             for (Object value : (Object[]) zimbraValue) {
-                createCondition(sb, zimbraName, operator, prefix, suffix, value);
+                appendCondition(sb, zimbraName, operator, prefix, suffix, value);
             }
             sb.append(')');
         } else {
-            createCondition(sb, zimbraName, operator, prefix, suffix, zimbraValue);
+            appendCondition(sb, zimbraName, operator, prefix, suffix, zimbraValue);
         }
-        return sb.toString();
     }
 
-    private static void createCondition(StringBuilder sb, String name, String operator, String prefix, String suffix,
-            Object value) {
-        sb.append('(');
-        sb.append(name);
-        sb.append(operator);
-        sb.append(prefix);
+    private static void appendCondition(StringBuilder sb, String name, String operator, String prefix,
+            String suffix, Object value) {
+
+        sb.append('(').append(name).append(operator).append(prefix);
         if (value instanceof byte[]) {
             escapeByteArray(sb, (byte[]) value);
         } else {
             escapeString(sb, value.toString());
         }
-        sb.append(suffix);
-        sb.append(')');
+        sb.append(suffix).append(')');
     }
 
-    private static void escapeByte(StringBuilder sb, byte b) {
-        sb.append('\\');
-        sb.append(String.format("%02x", 0xff & b));
+    private static void escapeByte(StringBuilder sb, int b) {
+        sb.append('\\').append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
     }
 
     private static void escapeByteArray(StringBuilder sb, byte[] bytes) {
@@ -213,17 +242,28 @@ public class ZimbraFilterTranslator extends AbstractFilterTranslator<String> {
         }
     }
 
+    /**
+     * Appends the UTF-8 encoding of a single character; surrogates cannot be encoded on their own and are replaced
+     * by <code>?</code>, as {@link String#getBytes(String)} does.
+     */
     private static void escapeChar(StringBuilder sb, char c) {
-        try {
-            byte[] utf8bytes = String.valueOf(c).getBytes("UTF-8");
-            escapeByteArray(sb, utf8bytes);
-        } catch (UnsupportedEncodingException originalException) {
-            throw new ConnectionBrokenException(originalException);
+        if (c < 0x80) {
+            escapeByte(sb, c);
+        } else if (c < 0x800) {
+            escapeByte(sb, 0xc0 | (c >> 6));
+            escapeByte(sb, 0x80 | (c & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            escapeByte(sb, '?');
+        } else {
+            escapeByte(sb, 0xe0 | (c >> 12));
+            escapeByte(sb, 0x80 | ((c >> 6) & 0x3f));
+            escapeByte(sb, 0x80 | (c & 0x3f));
         }
     }
 
     private static void escapeString(StringBuilder sb, String s) {
-        for (char c : s.toCharArray()) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
             switch (c) {
                 case '\0':
                 case '(':
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of entry name to <code>zimbraId</code>, whose entries expire after a given time; entries known
+ * not to exist are cached as {@link #ABSENT}, with their own (usually shorter) time to live.
+ */
+public class ZimbraIdCache {
+
+    /**
+     * Value returned for names known not to exist.
+     */
+    public static final String ABSENT = "";
+
+    private static final class Cached {
+
+        private final String id;
+
+        private final long expiration;
+
+        private Cached(String id, long expiration) {
+            this.id = id;
+            this.expiration = expiration;
+        }
+    }
+
+    private final long ttl;
+
+    private final long absentTtl;
+
+    private final Map<String, Cached> entries;
+
+    /**
+     * @param maxSize maximum number of cached names; 0 disables caching
+     * @param ttl time to live of ids, in milliseconds
+     * @param absentTtl time to live of missing names, in milliseconds
+     */
+    public ZimbraIdCache(final int maxSize, long ttl, long absentTtl) {
+        this.ttl = ttl;
+        this.absentTtl = absentTtl;
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 2887046474545391436L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param name entry name
+     * @return cached id, {@link #ABSENT} if the entry is known not to exist, null if unknown
+     */
+    public synchronized String get(String name) {
+        String key = key(name);
+        Cached entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiration <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.id;
+    }
+
+    public synchronized void put(String name, String id) {
+        if (ttl > 0) {
+            entries.put(key(name), new Cached(id, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    public synchronized void putAbsent(String name) {
+        if (absentTtl > 0) {
+            entries.put(key(name), new Cached(ABSENT, System.currentTimeMillis() + absentTtl));
+        }
+    }
+
+    public synchronized void remove(String name) {
+        entries.remove(key(name));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.GuardedString;
+
+/**
+ * Small pool of connections to the Zimbra LDAP server, bound with the configured credentials; at most the given
+ * number of idle connections is kept for reuse. Connections time out as the admin service ones do.
+ */
+public class ZimbraLdapPool {
+
+    private static final Log LOG = Log.getLog(ZimbraLdapPool.class);
+
+    private final Hashtable<String, Object> environment = new Hashtable<String, Object>();
+
+    private final int size;
+
+    private final Deque<LdapContext> idle = new ArrayDeque<LdapContext>();
+
+    /**
+     * Domain entry DNs by lower case domain name.
+     */
+    private final Map<String, String> domainDns = new ConcurrentHashMap<String, String>();
+
+    private boolean closed;
+
+    /**
+     * @param url LDAP URL
+     * @param bindDn bind DN
+     * @param bindPassword bind password
+     * @param size maximum number of idle connections
+     * @param timeout connect and read timeout in milliseconds, 0 for none
+     */
+    public ZimbraLdapPool(String url, String bindDn, GuardedString bindPassword, int size, int timeout) {
+        this.size = size;
+        environment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        environment.put(Context.PROVIDER_URL, url);
+        environment.put(Context.SECURITY_AUTHENTICATION, bindDn == null ? "none" : "simple");
+        if (bindDn != null) {
+            environment.put(Context.SECURITY_PRINCIPAL, bindDn);
+            String password = GuardedStringAccessor.toString(bindPassword);
+            if (password != null) {
+                environment.put(Context.SECURITY_CREDENTIALS, password);
+            }
+        }
+        // referrals to other servers are not followed, as the SOAP searches do not
+        environment.put(Context.REFERRAL, "ignore");
+        if (timeout > 0) {
+            environment.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(timeout));
+            environment.put("com.sun.jndi.ldap.read.timeout", String.valueOf(timeout));
+        }
+    }
+
+    /**
+     * @return an idle connection, or a new one if none is idle
+     * @throws NamingException if a new connection cannot be opened
+     */
+    public LdapContext acquire() throws NamingException {
+        synchronized (idle) {
+            LdapContext ctx = idle.pollFirst();
+            if (ctx != null) {
+                return ctx;
+            }
+        }
+        LOG.ok("Connecting to {0}", environment.get(Context.PROVIDER_URL));
+        return new InitialLdapContext(environment, null);
+    }
+
+    /**
+     * @param domain domain name
+     * @return DN of the entry of the given domain, searched by <code>zimbraDomainName</code> under all naming
+     * contexts of the server
+     * @throws NamingException if the search fails or no entry is found
+     */
+    public String getDomainDn(String domain) throws NamingException {
+        String key = domain.toLowerCase(Locale.ROOT);
+        String dn = domainDns.get(key);
+        if (dn == null) {
+            LdapContext ctx = acquire();
+            boolean completed = false;
+            try {
+                dn = findDomainDn(ctx, domain);
+                completed = true;
+            } finally {
+                if (completed) {
+                    release(ctx);
+                } else {
+                    invalidate(ctx);
+                }
+            }
+            if (dn == null) {
+                throw new NameNotFoundException("No zimbraDomain entry with zimbraDomainName " + domain);
+            }
+            domainDns.put(key, dn);
+        }
+        return dn;
+    }
+
+    private static String findDomainDn(LdapContext ctx, String domain) throws NamingException {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[0]);
+        controls.setCountLimit(1);
+        Attribute namingContexts = ctx.getAttributes("", new String[] { "namingContexts" }).get("namingContexts");
+        for (int i = 0; namingContexts != null && i < namingContexts.size(); i++) {
+            NamingEnumeration<SearchResult> results = ctx.search(namingContexts.get(i).toString(),
+                    "(&(objectClass=zimbraDomain)(zimbraDomainName={0}))", new Object[] { domain }, controls);
+            try {
+                if (results.hasMore()) {
+                    return results.next().getNameInNamespace();
+                }
+            } finally {
+                results.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the given connection to the pool, or closes it if the pool is full or closed.
+     *
+     * @param ctx connection acquired from this pool
+     */
+    public void release(LdapContext ctx) {
+        synchronized (idle) {
+            if (!closed && idle.size() < size) {
+                try {
+                    ctx.setRequestControls(null);
+                    idle.addFirst(ctx);
+                    return;
+                } catch (NamingException ex) {
+                    LOG.ok(ex, "Could not reset connection, closing");
+                }
+            }
+        }
+        close(ctx);
+    }
+
+    /**
+     * Closes the given connection, not to be reused.
+     *
+     * @param ctx connection acquired from this pool
+     */
+    public void invalidate(LdapContext ctx) {
+        close(ctx);
+    }
+
+    /**
+     * Closes all idle connections; connections released afterwards are closed.
+     */
+    public void close() {
+        synchronized (idle) {
+            closed = true;
+            while (!idle.isEmpty()) {
+                close(idle.pollFirst());
+            }
+        }
+    }
+
+    private static void close(LdapContext ctx) {
+        try {
+            ctx.close();
+        } catch (NamingException ex) {
+            LOG.ok(ex, "Could not close connection");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.cs.account.Provisioning;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Directory search reading entries straight from the Zimbra LDAP server, in pages requested with the paged results
+ * control; entries are passed to the handler in the same form as {@link ZimbraSearch} does, but in no given order.
+ * <p>
+ * Values are the raw ones stored on each entry: unlike the admin service, values inherited from the class of service,
+ * the domain or the global configuration are not filled in, so attributes never set on an entry are missing.
+ * <p>
+ * Entries are searched under <code>ou=people</code> of the domain entry, as laid out by Zimbra, the domain entry
+ * being found by its <code>zimbraDomainName</code>.
+ */
+public class ZimbraLdapSearch {
+
+    private static final Log LOG = Log.getLog(ZimbraLdapSearch.class);
+
+    private static final String ACCOUNTS_FILTER =
+            "(&(objectClass=zimbraAccount)(!(objectClass=zimbraCalendarResource))%s)";
+
+    private static final String DISTRIBUTION_LISTS_FILTER = "(&(objectClass=zimbraDistributionList)%s)";
+
+    private final ZimbraLdapPool pool;
+
+    private final String domain;
+
+    private final String filter;
+
+    private final String[] returnAttrs;
+
+    /**
+     * @param pool LDAP connections
+     * @param domain name of the domain searched
+     * @param objClass object class searched
+     * @param query LDAP filter, as translated by {@link ZimbraFilterTranslator}
+     * @param returnAttrs attributes to return, all when null
+     */
+    public ZimbraLdapSearch(ZimbraLdapPool pool, String domain, ObjectClass objClass, String query,
+            String[] returnAttrs) {
+        this.pool = pool;
+        this.domain = domain;
+        this.filter = toFilter(objClass, query);
+        this.returnAttrs = returnAttrs;
+    }
+
+    /**
+     * @param domainDn DN of the domain entry
+     * @return DN of the container of the domain accounts and distribution lists
+     */
+    protected static String toBase(String domainDn) {
+        return "ou=people," + domainDn;
+    }
+
+    protected static String toFilter(ObjectClass objClass, String query) {
+        String condition = StringUtil.isBlank(query) ? "" : query;
+        if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+            return String.format(ACCOUNTS_FILTER, condition);
+        } else if (objClass.is(ObjectClass.GROUP_NAME)) {
+            return String.format(DISTRIBUTION_LISTS_FILTER, condition);
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Passes all matching entries to the given handler, fetching them in pages of the given size; entries come in
+     * server order, with their own values only.
+     *
+     * @param handler entry handler
+     * @param pageSize maximum number of entries per page
+     * @return number of entries passed to the handler
+     * @throws NamingException if the search fails
+     */
+    public int stream(ZimbraSearch.EntryHandler handler, int pageSize) throws NamingException {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(returnAttrs);
+
+        String base = toBase(pool.getDomainDn(domain));
+        LdapContext ctx = pool.acquire();
+        boolean completed = false;
+        int handled = 0;
+        try {
+            byte[] cookie = null;
+            do {
+                ctx.setRequestControls(new Control[] { newPagedResultsControl(pageSize, cookie) });
+                NamingEnumeration<SearchResult> results = ctx.search(base, filter, controls);
+                try {
+                    while (results.hasMore()) {
+                        handled++;
+                        if (!handler.handle(toAttrs(results.next().getAttributes()))) {
+                            LOG.ok("search stopped by handler after {0} entries", handled);
+                            return handled;
+                        }
+                    }
+                } finally {
+                    results.close();
+                }
+                cookie = toCookie(ctx.getResponseControls());
+            } while (cookie != null && cookie.length > 0);
+            completed = true;
+        } finally {
+            // connections with an abandoned paged search are not reused
+            if (completed) {
+                pool.release(ctx);
+            } else {
+                pool.invalidate(ctx);
+            }
+        }
+        LOG.ok("{0} entries read from LDAP", handled);
+        return handled;
+    }
+
+    private static PagedResultsControl newPagedResultsControl(int pageSize, byte[] cookie) throws NamingException {
+        try {
+            return new PagedResultsControl(pageSize, cookie, Control.CRITICAL);
+        } catch (IOException ex) {
+            NamingException nex = new NamingException(ex.getMessage());
+            nex.setRootCause(ex);
+            throw nex;
+        }
+    }
+
+    private static byte[] toCookie(Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    return ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects the values of an LDAP entry in the same form as {@link ZimbraSearch#toAttrs}: single values as
+     * <code>String</code>, multiple values as <code>String[]</code>. Password hashes, never returned by the admin
+     * service, and binary values are left out.
+     *
+     * @param attributes LDAP entry attributes
+     * @return attribute values
+     * @throws NamingException if the attributes cannot be read
+     */
+    protected static Map<String, Object> toAttrs(Attributes attributes) throws NamingException {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        NamingEnumeration<? extends Attribute> all = attributes.getAll();
+        try {
+            while (all.hasMore()) {
+                Attribute attribute = all.next();
+                if (Provisioning.A_userPassword.equalsIgnoreCase(attribute.getID())) {
+                    continue;
+                }
+                List<String> values = new ArrayList<String>(attribute.size());
+                for (int i = 0; i < attribute.size(); i++) {
+                    Object value = attribute.get(i);
+                    if (value instanceof String) {
+                        values.add((String) value);
+                    }
+                }
+                if (values.size() == 1) {
+                    attrs.put(attribute.getID(), values.get(0));
+                } else if (!values.isEmpty()) {
+                    attrs.put(attribute.getID(), values.toArray(new String[values.size()]));
+                }
+            }
+        } finally {
+            all.close();
+        }
+        return attrs;
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.account.Key;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.common.soap.Element;
+import com.zimbra.cs.account.Domain;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.soap.SoapProvisioning;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Answers queries made only of equalities on <code>uid</code> or <code>zimbraId</code>, possibly combined with
+ * <code>|</code>, with <code>GetAccountRequest</code> or <code>GetDistributionListRequest</code> sent together in a
+ * single <code>BatchRequest</code> instead of a <code>SearchDirectoryRequest</code>.
+ * <p>
+ * Entries are passed to the handler as a search would: only entries of the configured domain, each once, sorted by
+ * name.
+ */
+public class ZimbraLookup {
+
+    private static final Log LOG = Log.getLog(ZimbraLookup.class);
+
+    /**
+     * Maximum number of keys looked up; larger queries are searched.
+     */
+    public static final int MAX_KEYS = 100;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Comparator<Element> BY_NAME = new Comparator<Element>() {
+
+        @Override
+        public int compare(Element o1, Element o2) {
+            return name(o1).compareTo(name(o2));
+        }
+    };
+
+    private final SoapProvisioning sp;
+
+    private final ObjectClass objClass;
+
+    private final String domain;
+
+    private final List<String[]> keys;
+
+    private final String[] returnAttrs;
+
+    protected ZimbraLookup(SoapProvisioning sp, Domain domain, ObjectClass objClass, List<String[]> keys,
+            String[] returnAttrs) {
+        this.sp = sp;
+        this.objClass = objClass;
+        this.domain = domain.getName();
+        this.keys = keys;
+        this.returnAttrs = returnAttrs == null ? new String[0] : returnAttrs;
+    }
+
+    /**
+     * @param sp provisioning
+     * @param domain domain searched
+     * @param objClass object class searched
+     * @param query LDAP filter
+     * @param returnAttrs attributes to return, all when null
+     * @return lookup answering the query, null if the query needs to be searched
+     */
+    public static ZimbraLookup forQuery(SoapProvisioning sp, Domain domain, ObjectClass objClass, String query,
+            String[] returnAttrs) {
+
+        if (domain == null
+                || !(objClass.is(ObjectClass.ACCOUNT_NAME) || objClass.is(ObjectClass.GROUP_NAME))) {
+            return null;
+        }
+        List<String[]> keys = parse(query);
+        return keys == null || keys.size() > MAX_KEYS
+                ? null
+                : new ZimbraLookup(sp, domain, objClass, keys, returnAttrs);
+    }
+
+    /**
+     * Reads the keys looked up by the given query, either a single equality or an <code>|</code>, possibly nested,
+     * of equalities on <code>uid</code> or <code>zimbraId</code>.
+     *
+     * @param query LDAP filter
+     * @return pairs of attribute name and unescaped value, null if the query is not a lookup
+     */
+    protected static List<String[]> parse(String query) {
+        if (query == null || query.isEmpty()) {
+            return null;
+        }
+        List<String[]> keys = new ArrayList<String[]>();
+        int depth = 0;
+        int top = 0;
+        int i = 0;
+        while (i < query.length()) {
+            if (depth == 0 && ++top > 1) {
+                return null;
+            }
+            if (query.startsWith("(|", i)) {
+                depth++;
+                i += 2;
+            } else if (query.charAt(i) == ')' && depth > 0) {
+                depth--;
+                i++;
+            } else if (query.charAt(i) == '(') {
+                int end = query.indexOf(')', i);
+                int eq = query.indexOf('=', i);
+                if (end < 0 || eq < 0 || eq > end) {
+                    return null;
+                }
+                String name = query.substring(i + 1, eq);
+                String value = query.substring(eq + 1, end);
+                if (!Provisioning.A_uid.equalsIgnoreCase(name) && !Provisioning.A_zimbraId.equalsIgnoreCase(name)
+                        || value.isEmpty() || value.indexOf('*') >= 0 || value.indexOf('(') >= 0) {
+                    return null;
+                }
+                String unescaped = unescape(value);
+                if (unescaped == null) {
+                    return null;
+                }
+                keys.add(new String[] { name, unescaped });
+                i = end + 1;
+            } else {
+                return null;
+            }
+        }
+        return depth == 0 && !keys.isEmpty() ? keys : null;
+    }
+
+    /**
+     * @return value with <code>\xx</code> escapes decoded as UTF-8, null if not properly escaped
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                if (i + 2 >= value.length()) {
+                    return null;
+                }
+                int high = Character.digit(value.charAt(i + 1), 16);
+                int low = Character.digit(value.charAt(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                bytes.write((high << 4) | low);
+                i += 2;
+            } else if (c < 0x80) {
+                bytes.write(c);
+            } else {
+                byte[] encoded = String.valueOf(c).getBytes(UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    protected Element createRequest(String[] key) {
+        boolean byId = Provisioning.A_zimbraId.equalsIgnoreCase(key[0]);
+        if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+            return byId
+                    ? ZimbraRequests.getAccount(Key.AccountBy.id, key[1], returnAttrs)
+                    : ZimbraRequests.getAccount(Key.AccountBy.name, key[1] + "@" + domain, returnAttrs);
+        }
+        // members are not needed, being also returned as zimbraMailForwardingAddress
+        return byId
+                ? ZimbraRequests.getDistributionList(Key.DistributionListBy.id, key[1], 1, 0, returnAttrs)
+                : ZimbraRequests.getDistributionList(
+                        Key.DistributionListBy.name, key[1] + "@" + domain, 1, 0, returnAttrs);
+    }
+
+    /**
+     * Passes the entries found to the given handler.
+     *
+     * @param handler entry handler
+     * @return number of entries passed to the handler
+     * @throws ServiceException if any request fails for reasons other than a missing entry
+     */
+    public int stream(ZimbraSearch.EntryHandler handler) throws ServiceException {
+        ZimbraBatch batch = new ZimbraBatch();
+        for (String[] key : keys) {
+            batch.add(createRequest(key));
+        }
+        Map<Integer, ServiceException> failures = new HashMap<Integer, ServiceException>();
+        List<Element> responses = batch.executeEach(sp, failures);
+        for (ServiceException failure : failures.values()) {
+            if (!ZimbraRequests.isNoSuchEntry(failure)) {
+                throw failure;
+            }
+        }
+
+        // the same entry may be looked up by more keys
+        Map<String, Element> entries = new LinkedHashMap<String, Element>();
+        for (int i = 0; i < responses.size(); i++) {
+            Element entry = responses.get(i) == null ? null : toEntry(responses.get(i));
+            if (entry != null && matches(entry, keys.get(i))) {
+                entries.put(entry.getAttribute(AdminConstants.A_ID, name(entry)), entry);
+            }
+        }
+        List<Element> sorted = new ArrayList<Element>(entries.values());
+        Collections.sort(sorted, BY_NAME);
+        LOG.ok("{0} entries found by {1} lookups", sorted.size(), keys.size());
+
+        int handled = 0;
+        for (Element entry : sorted) {
+            handled++;
+            if (!handler.handle(ZimbraSearch.toAttrs(entry))) {
+                break;
+            }
+        }
+        return handled;
+    }
+
+    private static Element toEntry(Element response) {
+        for (Element element : response.listElements()) {
+            if (ZimbraSearch.isEntry(element)) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Entries found through an alias, or outside the domain, would not be found by searching.
+     */
+    private boolean matches(Element entry, String[] key) {
+        if (!name(entry).endsWith("@" + domain.toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        if (Provisioning.A_zimbraId.equalsIgnoreCase(key[0])) {
+            return true;
+        }
+        Object uid = ZimbraSearch.toAttrs(entry).get(Provisioning.A_uid);
+        if (uid instanceof Object[]) {
+            uid = ((Object[]) uid)[0];
+        }
+        return uid != null && key[1].equalsIgnoreCase(uid.toString());
+    }
+
+    private static String name(Element entry) {
+        return entry.getAttribute(AdminConstants.A_NAME, "").toLowerCase(Locale.ROOT);
+    }
+}
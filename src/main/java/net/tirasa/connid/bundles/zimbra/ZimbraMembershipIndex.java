@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index of distribution list membership, from member address to the names of the distribution lists
+ * including it, built from a single pass over the distribution lists of a domain so that the memberships of any
+ * number of accounts can be read without a <code>GetAccountMembershipRequest</code> per account.
+ * <p>
+ * The index is not modified once built, and can then be shared by concurrent searches.
+ */
+public class ZimbraMembershipIndex {
+
+    private final Map<String, List<String>> memberships = new HashMap<String, List<String>>();
+
+    private final Map<String, List<String>> aliases = new HashMap<String, List<String>>();
+
+    private final long created = System.currentTimeMillis();
+
+    private static String key(String address) {
+        return address.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param dlName distribution list name
+     * @param members member addresses, either <code>String</code> or <code>String[]</code>, as read from
+     * <code>zimbraMailForwardingAddress</code>
+     */
+    public void add(String dlName, Object members) {
+        put(memberships, dlName, members);
+    }
+
+    /**
+     * Lists may include other distribution lists through any of their aliases, which are therefore followed too
+     * when reading nested memberships.
+     *
+     * @param dlName distribution list name
+     * @param dlAliases distribution list aliases, either <code>String</code> or <code>String[]</code>, as read from
+     * <code>zimbraMailAlias</code>
+     */
+    public void addAliases(String dlName, Object dlAliases) {
+        if (dlAliases instanceof Object[]) {
+            for (Object alias : (Object[]) dlAliases) {
+                addAliases(dlName, alias);
+            }
+        } else if (dlAliases != null) {
+            put(aliases, dlAliases.toString(), dlName);
+        }
+    }
+
+    private static void put(Map<String, List<String>> index, String value, Object keys) {
+        if (keys instanceof Object[]) {
+            for (Object key : (Object[]) keys) {
+                put(index, value, key);
+            }
+        } else if (keys != null) {
+            String key = key(keys.toString());
+            List<String> values = index.get(key);
+            if (values == null) {
+                values = new ArrayList<String>(1);
+                index.put(key, values);
+            }
+            values.add(value);
+        }
+    }
+
+    /**
+     * Distribution lists including any of the given addresses, directly or through other distribution lists, as
+     * reported by <code>GetAccountMembershipRequest</code>.
+     *
+     * @param addresses entry name and aliases
+     * @return distribution list names, sorted
+     */
+    public List<String> get(Collection<String> addresses) {
+        Set<String> found = new LinkedHashSet<String>();
+        Set<String> visited = new HashSet<String>();
+        List<String> pending = new ArrayList<String>(addresses);
+        while (!pending.isEmpty()) {
+            String key = key(pending.remove(pending.size() - 1));
+            if (visited.add(key)) {
+                List<String> dlAliases = aliases.get(key);
+                if (dlAliases != null) {
+                    pending.addAll(dlAliases);
+                }
+                List<String> dlNames = memberships.get(key);
+                if (dlNames != null) {
+                    for (String dlName : dlNames) {
+                        found.add(dlName);
+                        pending.add(dlName);
+                    }
+                }
+            }
+        }
+        List<String> result = new ArrayList<String>(found);
+        Collections.sort(result, String.CASE_INSENSITIVE_ORDER);
+        return result;
+    }
+
+    /**
+     * @return number of member addresses indexed
+     */
+    public int size() {
+        return memberships.size();
+    }
+
+    /**
+     * @param ttl time to live, in milliseconds
+     * @return whether this index is older than the given time to live
+     */
+    public boolean isExpired(long ttl) {
+        return created + ttl <= System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Provisioning;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Directory search split into disjoint partitions, each searched by its own worker thread and provisioning.
+ * <p>
+ * Each partition filter is combined with the query, so that every entry is found by exactly one partition. Entries
+ * are either passed to the handler as soon as any partition returns them, or sorted by <code>uid</code> in each
+ * partition and merged so that the handler receives them in ascending <code>uid</code> order. At most one page of
+ * entries per partition is buffered while the handler is busy.
+ * <p>
+ * The merge compares <code>uid</code> values with the collation Zimbra sorts search results with, that of its
+ * default locale; should a partition return entries in a different order, a warning is logged and entries keep being
+ * returned, each exactly once, though no longer strictly in order.
+ */
+public class ZimbraParallelSearch {
+
+    private static final Log LOG = Log.getLog(ZimbraParallelSearch.class);
+
+    /**
+     * Marks the end of the entries of a partition.
+     */
+    private static final Map<String, Object> END = new HashMap<String, Object>(0);
+
+    /**
+     * Milliseconds waited for queue space before checking whether the search was stopped.
+     */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /**
+     * Locale of the collation used by Zimbra, unless configured otherwise, to sort search results.
+     */
+    private static final Locale SORT_LOCALE = Locale.US;
+
+    private final class Head implements Comparable<Head> {
+
+        private final Map<String, Object> zimbraAttrs;
+
+        private final String key;
+
+        private final int partition;
+
+        private Head(Map<String, Object> zimbraAttrs, int partition) {
+            this.zimbraAttrs = zimbraAttrs;
+            Object uid = zimbraAttrs.get(Provisioning.A_uid);
+            this.key = uid == null ? "" : uid.toString();
+            this.partition = partition;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int result = collator.compare(key, other.key);
+            return result == 0 ? partition - other.partition : result;
+        }
+    }
+
+    private final ZimbraConnection connection;
+
+    private final ObjectClass objClass;
+
+    private final List<String> queries = new ArrayList<String>();
+
+    private final String[] returnAttrs;
+
+    private final boolean ordered;
+
+    private final Collator collator = Collator.getInstance(SORT_LOCALE);
+
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    /**
+     * Set when partitions should stop fetching entries.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Set when no more entries are taken from the queues.
+     */
+    private volatile boolean done;
+
+    /**
+     * @param connection connection providing the workers and their provisioning
+     * @param objClass {@link ObjectClass#ACCOUNT} or {@link ObjectClass#GROUP}
+     * @param query LDAP filter, null to search all entries
+     * @param partitions disjoint LDAP filters covering all entries together
+     * @param returnAttrs attributes to return, all when null; <code>uid</code> is added when ordered
+     * @param ordered whether entries are passed to the handler in ascending <code>uid</code> order
+     */
+    public ZimbraParallelSearch(ZimbraConnection connection, ObjectClass objClass, String query,
+            List<String> partitions, String[] returnAttrs, boolean ordered) {
+
+        this.connection = connection;
+        this.objClass = objClass;
+        for (String partition : partitions) {
+            queries.add(query == null || query.isEmpty() ? partition : "(&" + query + partition + ")");
+        }
+        if (ordered && returnAttrs != null && !Arrays.asList(returnAttrs).contains(Provisioning.A_uid)) {
+            this.returnAttrs = Arrays.copyOf(returnAttrs, returnAttrs.length + 1);
+            this.returnAttrs[returnAttrs.length] = Provisioning.A_uid;
+        } else {
+            this.returnAttrs = returnAttrs;
+        }
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return executor running the partitions
+     */
+    protected ExecutorService workers() {
+        return connection.workers();
+    }
+
+    /**
+     * @param query partition query
+     * @return search of the given partition, sorted by <code>uid</code> when ordered
+     */
+    protected ZimbraSearch newSearch(String query) {
+        ZimbraSearch search = new ZimbraSearch(
+                connection.provisioning(), connection.getDomain(), objClass, query, returnAttrs);
+        if (ordered) {
+            search.setSortBy(Provisioning.A_uid);
+        }
+        return search;
+    }
+
+    /**
+     * Passes all matching entries to the given handler, each partition fetching them in pages of the given size.
+     *
+     * @param handler entry handler, only called by the calling thread
+     * @param pageSize maximum number of entries per request
+     * @return number of entries passed to the handler
+     * @throws ServiceException if any request fails
+     */
+    public int stream(ZimbraSearch.EntryHandler handler, int pageSize) throws ServiceException {
+        List<BlockingQueue<Map<String, Object>>> queues = new ArrayList<BlockingQueue<Map<String, Object>>>();
+        if (!ordered) {
+            queues.add(new ArrayBlockingQueue<Map<String, Object>>(pageSize + 1));
+        }
+        ExecutorService executor = workers();
+        for (String query : queries) {
+            if (ordered) {
+                queues.add(new ArrayBlockingQueue<Map<String, Object>>(pageSize + 1));
+            }
+            executor.execute(partition(query, queues.get(queues.size() - 1), pageSize));
+        }
+
+        try {
+            return ordered ? merge(queues, handler) : drain(queues.get(0), handler);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw ServiceException.FAILURE("Interrupted while searching", ex);
+        } finally {
+            stopped = true;
+            done = true;
+        }
+    }
+
+    private Runnable partition(
+            final String query, final BlockingQueue<Map<String, Object>> queue, final int pageSize) {
+
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    int found = newSearch(query).stream(new ZimbraSearch.EntryHandler() {
+
+                        @Override
+                        public boolean handle(Map<String, Object> zimbraAttrs) {
+                            return offer(queue, zimbraAttrs);
+                        }
+                    }, pageSize);
+                    LOG.ok("partition {0} found {1} entries", query, found);
+                } catch (Exception ex) {
+                    LOG.error(ex, "partition {0} failed", query);
+                    failure.compareAndSet(null, ex);
+                    stopped = true;
+                } finally {
+                    try {
+                        while (!done && !queue.offer(END, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                            // wait for the handler to take entries, or to stop
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
+    private boolean offer(BlockingQueue<Map<String, Object>> queue, Map<String, Object> zimbraAttrs) {
+        try {
+            while (!stopped) {
+                if (queue.offer(zimbraAttrs, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private int drain(BlockingQueue<Map<String, Object>> queue, ZimbraSearch.EntryHandler handler)
+            throws InterruptedException, ServiceException {
+
+        int handled = 0;
+        int ended = 0;
+        while (ended < queries.size()) {
+            Map<String, Object> zimbraAttrs = queue.take();
+            if (zimbraAttrs == END) {
+                checkFailure();
+                ended++;
+            } else {
+                handled++;
+                if (!handler.handle(zimbraAttrs)) {
+                    LOG.ok("search stopped by handler after {0} entries", handled);
+                    break;
+                }
+            }
+        }
+        return handled;
+    }
+
+    private int merge(List<BlockingQueue<Map<String, Object>>> queues, ZimbraSearch.EntryHandler handler)
+            throws InterruptedException, ServiceException {
+
+        PriorityQueue<Head> heads = new PriorityQueue<Head>(queues.size());
+        for (int i = 0; i < queues.size(); i++) {
+            Map<String, Object> zimbraAttrs = queues.get(i).take();
+            if (zimbraAttrs == END) {
+                checkFailure();
+            } else {
+                heads.add(new Head(zimbraAttrs, i));
+            }
+        }
+
+        int handled = 0;
+        String lastKey = null;
+        boolean warned = false;
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            if (!warned && lastKey != null && collator.compare(head.key, lastKey) < 0) {
+                LOG.warn("Partition {0} not sorted as expected, entries are not returned in order",
+                        queries.get(head.partition));
+                warned = true;
+            }
+            lastKey = head.key;
+            handled++;
+            if (!handler.handle(head.zimbraAttrs)) {
+                LOG.ok("search stopped by handler after {0} entries", handled);
+                break;
+            }
+            Map<String, Object> zimbraAttrs = queues.get(head.partition).take();
+            if (zimbraAttrs == END) {
+                checkFailure();
+            } else {
+                heads.add(new Head(zimbraAttrs, head.partition));
+            }
+        }
+        return handled;
+    }
+
+    private void checkFailure() throws ServiceException {
+        Exception ex = failure.get();
+        if (ex instanceof ServiceException) {
+            throw (ServiceException) ex;
+        } else if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        } else if (ex != null) {
+            throw ServiceException.FAILURE(ex.getMessage(), ex);
+        }
+    }
+}
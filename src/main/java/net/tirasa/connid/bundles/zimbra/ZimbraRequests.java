@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.account.Key;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.common.soap.Element;
+import com.zimbra.cs.account.AccountServiceException;
+import java.util.Map;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Builders of the Admin SOAP requests sent by the connector, addressing entries by <code>zimbraId</code> so that no
+ * entry needs to be fetched before being modified.
+ */
+public final class ZimbraRequests {
+
+    private ZimbraRequests() {
+        // private constructor for static utility class
+    }
+
+    /**
+     * @param ex exception thrown by a request
+     * @return whether the exception reports that the addressed account or distribution list does not exist
+     */
+    public static boolean isNoSuchEntry(ServiceException ex) {
+        return AccountServiceException.NO_SUCH_ACCOUNT.equals(ex.getCode())
+                || AccountServiceException.NO_SUCH_DISTRIBUTION_LIST.equals(ex.getCode());
+    }
+
+    /**
+     * @param ex exception thrown by a create request
+     * @return whether the exception reports that an entry with the same name already exists
+     */
+    public static boolean isEntryExists(ServiceException ex) {
+        return AccountServiceException.ACCOUNT_EXISTS.equals(ex.getCode())
+                || AccountServiceException.DISTRIBUTION_LIST_EXISTS.equals(ex.getCode());
+    }
+
+    public static Element getAccount(Key.AccountBy by, String key, String... attrs) {
+        Element request = new Element.XMLElement(AdminConstants.GET_ACCOUNT_REQUEST);
+        if (attrs != null && attrs.length > 0) {
+            request.addAttribute(AdminConstants.A_ATTRS, StringUtil.join(attrs, ','));
+        }
+        request.addElement(AdminConstants.E_ACCOUNT).addAttribute(AdminConstants.A_BY, by.name()).setText(key);
+        return request;
+    }
+
+    /**
+     * Members are returned in pages: <code>limit</code> members starting from <code>offset</code>.
+     *
+     * @param by key type
+     * @param key key value
+     * @param limit maximum number of members returned
+     * @param offset offset of the first member returned
+     * @param attrs attributes to return, all when empty
+     * @return request
+     */
+    public static Element getDistributionList(
+            Key.DistributionListBy by, String key, int limit, int offset, String... attrs) {
+
+        Element request = new Element.XMLElement(AdminConstants.GET_DISTRIBUTION_LIST_REQUEST);
+        request.addAttribute(AdminConstants.A_LIMIT, limit);
+        request.addAttribute(AdminConstants.A_OFFSET, offset);
+        if (attrs != null && attrs.length > 0) {
+            request.addAttribute(AdminConstants.A_ATTRS, StringUtil.join(attrs, ','));
+        }
+        request.addElement(AdminConstants.E_DL).addAttribute(AdminConstants.A_BY, by.name()).setText(key);
+        return request;
+    }
+
+    public static Element addDistributionListMembers(String id, String... members) {
+        Element request = new Element.XMLElement(AdminConstants.ADD_DISTRIBUTION_LIST_MEMBER_REQUEST);
+        request.addAttribute(AdminConstants.A_ID, id);
+        for (String member : members) {
+            request.addNonUniqueElement(AdminConstants.E_DLM).setText(member);
+        }
+        return request;
+    }
+
+    public static Element removeDistributionListMembers(String id, String... members) {
+        Element request = new Element.XMLElement(AdminConstants.REMOVE_DISTRIBUTION_LIST_MEMBER_REQUEST);
+        request.addAttribute(AdminConstants.A_ID, id);
+        for (String member : members) {
+            request.addNonUniqueElement(AdminConstants.E_DLM).setText(member);
+        }
+        return request;
+    }
+
+    /**
+     * Modifies the given attributes of an account or distribution list; attribute names may be prefixed with
+     * <code>+</code> or <code>-</code> to add or remove single values instead of replacing all of them.
+     *
+     * @param objClass {@link ObjectClass#ACCOUNT} or {@link ObjectClass#GROUP}
+     * @param id entry id
+     * @param zimbraAttrs attribute values, either <code>String</code> or <code>Object[]</code>
+     * @return request
+     */
+    public static Element modify(ObjectClass objClass, String id, Map<String, Object> zimbraAttrs) {
+        Element request = new Element.XMLElement(objClass.is(ObjectClass.ACCOUNT_NAME)
+                ? AdminConstants.MODIFY_ACCOUNT_REQUEST
+                : AdminConstants.MODIFY_DISTRIBUTION_LIST_REQUEST);
+        request.addAttribute(AdminConstants.E_ID, id);
+        addAttrs(request, zimbraAttrs);
+        return request;
+    }
+
+    private static void addAttrs(Element request, Map<String, Object> zimbraAttrs) {
+        for (Map.Entry<String, Object> zimbraAttr : zimbraAttrs.entrySet()) {
+            Object value = zimbraAttr.getValue();
+            Object[] values = value instanceof Object[] ? (Object[]) value : new Object[] { value };
+            if (values.length == 0) {
+                // removes all values
+                values = new Object[] { null };
+            }
+            for (Object item : values) {
+                request.addNonUniqueElement(AdminConstants.E_A).addAttribute(AdminConstants.A_N, zimbraAttr.getKey()).
+                        setText(item == null ? "" : item.toString());
+            }
+        }
+    }
+
+    public static Element createAccount(String name, String password, Map<String, Object> zimbraAttrs) {
+        Element request = new Element.XMLElement(AdminConstants.CREATE_ACCOUNT_REQUEST);
+        request.addAttribute(AdminConstants.E_NAME, name);
+        if (password != null) {
+            request.addAttribute(AdminConstants.E_PASSWORD, password);
+        }
+        addAttrs(request, zimbraAttrs);
+        return request;
+    }
+
+    public static Element createDistributionList(String name, Map<String, Object> zimbraAttrs) {
+        Element request = new Element.XMLElement(AdminConstants.CREATE_DISTRIBUTION_LIST_REQUEST);
+        request.addAttribute(AdminConstants.E_NAME, name);
+        addAttrs(request, zimbraAttrs);
+        return request;
+    }
+
+    public static Element rename(ObjectClass objClass, String id, String newName) {
+        Element request = new Element.XMLElement(objClass.is(ObjectClass.ACCOUNT_NAME)
+                ? AdminConstants.RENAME_ACCOUNT_REQUEST
+                : AdminConstants.RENAME_DISTRIBUTION_LIST_REQUEST);
+        request.addAttribute(AdminConstants.E_ID, id);
+        request.addAttribute(AdminConstants.E_NEW_NAME, newName);
+        return request;
+    }
+
+    public static Element delete(ObjectClass objClass, String id) {
+        Element request = new Element.XMLElement(objClass.is(ObjectClass.ACCOUNT_NAME)
+                ? AdminConstants.DELETE_ACCOUNT_REQUEST
+                : AdminConstants.DELETE_DISTRIBUTION_LIST_REQUEST);
+        request.addAttribute(AdminConstants.E_ID, id);
+        return request;
+    }
+
+    public static Element setPassword(String id, String password) {
+        Element request = new Element.XMLElement(AdminConstants.SET_PASSWORD_REQUEST);
+        request.addAttribute(AdminConstants.E_ID, id);
+        request.addAttribute(AdminConstants.E_NEW_PASSWORD, password);
+        return request;
+    }
+
+    public static Element addAlias(ObjectClass objClass, String id, String alias) {
+        Element request = new Element.XMLElement(objClass.is(ObjectClass.ACCOUNT_NAME)
+                ? AdminConstants.ADD_ACCOUNT_ALIAS_REQUEST
+                : AdminConstants.ADD_DISTRIBUTION_LIST_ALIAS_REQUEST);
+        request.addAttribute(AdminConstants.E_ID, id);
+        request.addAttribute(AdminConstants.E_ALIAS, alias);
+        return request;
+    }
+
+    public static Element removeAlias(ObjectClass objClass, String id, String alias) {
+        Element request = new Element.XMLElement(objClass.is(ObjectClass.ACCOUNT_NAME)
+                ? AdminConstants.REMOVE_ACCOUNT_ALIAS_REQUEST
+                : AdminConstants.REMOVE_DISTRIBUTION_LIST_ALIAS_REQUEST);
+        request.addAttribute(AdminConstants.E_ID, id);
+        request.addAttribute(AdminConstants.E_ALIAS, alias);
+        return request;
+    }
+
+    /**
+     * @param response response to a get request
+     * @return zimbraId of the entry returned
+     * @throws ServiceException if the response contains no entry
+     */
+    public static String getId(Element response) throws ServiceException {
+        for (Element entry : response.listElements()) {
+            if (AdminConstants.E_ACCOUNT.equals(entry.getName()) || AdminConstants.E_DL.equals(entry.getName())) {
+                return entry.getAttribute(AdminConstants.A_ID);
+            }
+        }
+        throw ServiceException.FAILURE("No entry in " + response.getName(), null);
+    }
+}
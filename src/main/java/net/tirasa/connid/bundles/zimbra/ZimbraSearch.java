@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.common.soap.Element;
+import com.zimbra.cs.account.Domain;
+import com.zimbra.cs.account.SearchDirectoryOptions;
+import com.zimbra.cs.account.soap.SoapProvisioning;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Directory search issuing one <code>SearchDirectoryRequest</code> per page, so that only a single page of entries
+ * is held in memory and no further request is sent once the handler stops accepting entries.
+ */
+public class ZimbraSearch {
+
+    private static final Log LOG = Log.getLog(ZimbraSearch.class);
+
+    /**
+     * <code>maxResults</code> of all requests: no limit on the total number of matching entries, which are fetched a
+     * page at a time anyway; the server default would fail searches of large domains with
+     * <code>account.TOO_MANY_SEARCH_RESULTS</code>.
+     */
+    protected static final int UNLIMITED_RESULTS = 0;
+
+    /**
+     * Callback receiving the attributes of each entry found, as returned by
+     * {@link com.zimbra.cs.account.Entry#getAttrs()}.
+     */
+    public interface EntryHandler {
+
+        /**
+         * @param zimbraAttrs attribute values of the entry, either <code>String</code> or <code>String[]</code>
+         * @return <code>true</code> to continue searching, <code>false</code> to stop
+         */
+        boolean handle(Map<String, Object> zimbraAttrs);
+    }
+
+    private final SoapProvisioning sp;
+
+    protected final Domain domain;
+
+    protected final String types;
+
+    protected final String query;
+
+    protected final String[] returnAttrs;
+
+    protected String sortBy;
+
+    protected boolean sortAscending = true;
+
+    public ZimbraSearch(SoapProvisioning sp, Domain domain, ObjectClass objClass, String query,
+            String[] returnAttrs) {
+        this.sp = sp;
+        this.domain = domain;
+        this.types = toTypes(objClass);
+        this.query = query;
+        this.returnAttrs = returnAttrs;
+    }
+
+    /**
+     * @param sortBy attribute to sort entries by; entry name when not set
+     */
+    public void setSortBy(String sortBy) {
+        this.sortBy = sortBy;
+    }
+
+    /**
+     * @param sortAscending whether entries are sorted in ascending (default) or descending order
+     */
+    public void setSortAscending(boolean sortAscending) {
+        this.sortAscending = sortAscending;
+    }
+
+    protected static String toTypes(ObjectClass objClass) {
+        if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+            return SearchDirectoryOptions.ObjectType.accounts.name();
+        } else if (objClass.is(ObjectClass.GROUP_NAME)) {
+            return SearchDirectoryOptions.ObjectType.distributionlists.name();
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Outcome of a single page request.
+     */
+    public static class Page {
+
+        private final int offset;
+
+        private final int handled;
+
+        private final boolean more;
+
+        private final int total;
+
+        private final boolean stopped;
+
+        protected Page(int offset, int handled, boolean more, int total, boolean stopped) {
+            this.offset = offset;
+            this.handled = handled;
+            this.more = more;
+            this.total = total;
+            this.stopped = stopped;
+        }
+
+        /**
+         * @return offset of the first entry of this page
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return number of entries passed to the handler
+         */
+        public int getHandled() {
+            return handled;
+        }
+
+        /**
+         * @return whether further entries are available after the last handled one
+         */
+        public boolean isMore() {
+            return more;
+        }
+
+        /**
+         * @return total number of matching entries as reported by Zimbra, or -1 if unknown
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return whether the handler asked to stop searching
+         */
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * @return offset of the first entry not yet handled
+         */
+        public int getNextOffset() {
+            return offset + handled;
+        }
+    }
+
+    /**
+     * Passes all matching entries to the given handler, fetching them in pages of the given size.
+     *
+     * @param handler entry handler
+     * @param pageSize maximum number of entries per request
+     * @return number of entries passed to the handler
+     * @throws ServiceException if any request fails
+     */
+    public int stream(EntryHandler handler, int pageSize) throws ServiceException {
+        int offset = 0;
+        Page page;
+        do {
+            page = page(handler, offset, pageSize);
+            offset = page.getNextOffset();
+        } while (page.isMore() && !page.isStopped() && page.getHandled() > 0);
+        return offset;
+    }
+
+    /**
+     * Passes at most <code>limit</code> entries, starting from <code>offset</code>, to the given handler.
+     *
+     * @param handler entry handler
+     * @param offset zero-based offset of the first entry
+     * @param limit maximum number of entries
+     * @return page outcome
+     * @throws ServiceException if the request fails
+     */
+    public Page page(EntryHandler handler, int offset, int limit) throws ServiceException {
+        Element response = sp.invoke(createRequest(offset, limit));
+        int total = (int) response.getAttributeLong(AdminConstants.A_SEARCH_TOTAL, -1);
+        boolean more = response.getAttributeBool(AdminConstants.A_MORE, false);
+        int handled = 0;
+        Iterator<Element> entries = response.listElements().iterator();
+        while (entries.hasNext()) {
+            Element entry = entries.next();
+            if (!isEntry(entry)) {
+                continue;
+            }
+            handled++;
+            if (!handler.handle(toAttrs(entry))) {
+                LOG.ok("search stopped by handler after {0} entries", offset + handled);
+                return new Page(offset, handled, more || entries.hasNext(), total, true);
+            }
+        }
+        return new Page(offset, handled, more, total, false);
+    }
+
+    /**
+     * Counts the matching entries with a single <code>countOnly</code> request, returning no entry.
+     *
+     * @return number of matching entries
+     * @throws ServiceException if the request fails
+     */
+    public int count() throws ServiceException {
+        Element request = createRequest(0, 0);
+        request.addAttribute(AdminConstants.A_COUNT_ONLY, true);
+        Element response = sp.invoke(request);
+        return (int) response.getAttributeLong(AdminConstants.A_NUM,
+                response.getAttributeLong(AdminConstants.A_SEARCH_TOTAL, 0));
+    }
+
+    protected Element createRequest(int offset, int limit) {
+        Element request = new Element.XMLElement(AdminConstants.SEARCH_DIRECTORY_REQUEST);
+        request.addElement(AdminConstants.E_QUERY).setText(query == null ? "" : query);
+        if (domain != null) {
+            request.addAttribute(AdminConstants.A_DOMAIN, domain.getName());
+        }
+        request.addAttribute(AdminConstants.A_TYPES, types);
+        if (sortBy != null) {
+            request.addAttribute(AdminConstants.A_SORT_BY, sortBy);
+        }
+        request.addAttribute(AdminConstants.A_SORT_ASCENDING, sortAscending);
+        request.addAttribute(AdminConstants.A_OFFSET, offset);
+        request.addAttribute(AdminConstants.A_LIMIT, limit);
+        request.addAttribute(AdminConstants.A_MAX_RESULTS, UNLIMITED_RESULTS);
+        if (returnAttrs != null) {
+            request.addAttribute(AdminConstants.A_ATTRS, StringUtil.join(returnAttrs, ','));
+        }
+        return request;
+    }
+
+    protected static boolean isEntry(Element element) {
+        return AdminConstants.E_ACCOUNT.equals(element.getName()) || AdminConstants.E_DL.equals(element.getName());
+    }
+
+    /**
+     * Collects the <code>&lt;a n="..."&gt;</code> children of an entry element in the same form as
+     * {@link com.zimbra.cs.account.Entry#getAttrs()}: single values as <code>String</code>, multiple values as
+     * <code>String[]</code>.
+     *
+     * @param entry account or distribution list element
+     * @return attribute values
+     */
+    protected static Map<String, Object> toAttrs(Element entry) {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        for (Element attr : entry.listElements(AdminConstants.E_A)) {
+            String name = attr.getAttribute(AdminConstants.A_N, null);
+            if (name == null) {
+                continue;
+            }
+            String value = attr.getText();
+            Object previous = attrs.get(name);
+            if (previous == null) {
+                attrs.put(name, value);
+            } else if (previous instanceof String[]) {
+                String[] values = (String[]) previous;
+                String[] newValues = new String[values.length + 1];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                newValues[values.length] = value;
+                attrs.put(name, newValues);
+            } else {
+                attrs.put(name, new String[] { (String) previous, value });
+            }
+        }
+        return attrs;
+    }
+}
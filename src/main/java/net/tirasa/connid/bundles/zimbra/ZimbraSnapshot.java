@@ -0,0 +1,452 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * Fingerprints of all entries of an object class, as of the last synchronization: for each <code>zimbraId</code>, the
+ * entry <code>uid</code> and a 64 bit hash of its attributes, stored in ascending <code>zimbraId</code> order.
+ * <p>
+ * Entries are compared with the stored ones as they are streamed, in the same order, so that neither the directory
+ * nor the store are ever held in memory: a new store is written alongside the current one, and replaces it by
+ * {@link #commit()}. Once the handler asks to stop, the remaining differences are not reported and are kept in the
+ * new store as they were, to be reported by the next synchronization.
+ * <p>
+ * Each store is identified by its generation, the time it was started at, which is the value of the sync tokens
+ * of snapshot based synchronizations: <code>snapshot:generation</code>. The generation of the new store is recorded
+ * in a lock file before any difference is reported, and kept until a store is committed: synchronizations failing
+ * before the commit all report that same pending generation, which the next synchronization accepts as well,
+ * reporting again the differences not committed.
+ * <p>
+ * The lock file is locked while the store is being updated, so that concurrent synchronizations of the same store
+ * fail instead of overwriting each other's results.
+ */
+public class ZimbraSnapshot implements Closeable {
+
+    private static final Log LOG = Log.getLog(ZimbraSnapshot.class);
+
+    private static final int VERSION = 0x5a530002;
+
+    private static final String TOKEN_PREFIX = "snapshot:";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Callback receiving the differences found.
+     */
+    public interface DeltaHandler {
+
+        /**
+         * @param type {@link SyncDeltaType#CREATE}, {@link SyncDeltaType#UPDATE} or {@link SyncDeltaType#DELETE}
+         * @param zimbraId entry id
+         * @param zimbraName entry uid
+         * @param zimbraAttrs entry attributes, null for deleted entries
+         * @return <code>true</code> to continue, <code>false</code> to stop reporting differences
+         */
+        boolean handle(SyncDeltaType type, String zimbraId, String zimbraName, Map<String, Object> zimbraAttrs);
+    }
+
+    private final File file;
+
+    private final DeltaHandler handler;
+
+    private FileChannel lockChannel;
+
+    private FileLock lock;
+
+    private Long pendingGeneration;
+
+    private File temp;
+
+    private DataInputStream previous;
+
+    private DataOutputStream current;
+
+    private Long previousGeneration;
+
+    private long generation;
+
+    private String previousId;
+
+    private String previousName;
+
+    private long previousHash;
+
+    private String lastId;
+
+    private boolean stopped;
+
+    private int entries;
+
+    private int deltas;
+
+    /**
+     * @param file store file, created on the first commit
+     * @param handler handler of the differences found
+     */
+    public ZimbraSnapshot(File file, DeltaHandler handler) {
+        this.file = file;
+        this.handler = handler;
+    }
+
+    /**
+     * Hash of the given attributes, independent of the order of attributes and values.
+     *
+     * @param zimbraAttrs entry attributes
+     * @param excluded names of the attributes not to consider
+     * @return 64 bit hash
+     */
+    public static long hash(Map<String, Object> zimbraAttrs, Collection<String> excluded) {
+        Map<String, Object> sorted = new TreeMap<String, Object>();
+        for (Map.Entry<String, Object> zimbraAttr : zimbraAttrs.entrySet()) {
+            if (!excluded.contains(zimbraAttr.getKey())) {
+                sorted.put(zimbraAttr.getKey().toLowerCase(Locale.ROOT), zimbraAttr.getValue());
+            }
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        for (Map.Entry<String, Object> zimbraAttr : sorted.entrySet()) {
+            digest.update(zimbraAttr.getKey().getBytes(UTF_8));
+            Object[] values = zimbraAttr.getValue() instanceof Object[]
+                    ? ((Object[]) zimbraAttr.getValue()).clone()
+                    : new Object[] { zimbraAttr.getValue() };
+            String[] strings = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                strings[i] = String.valueOf(values[i]);
+            }
+            Arrays.sort(strings);
+            for (String value : strings) {
+                digest.update((byte) 0);
+                digest.update(value.getBytes(UTF_8));
+            }
+            digest.update((byte) 1);
+        }
+        long hash = 0;
+        byte[] bytes = digest.digest();
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (bytes[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * @param generation store generation
+     * @return sync token of the given generation
+     */
+    public static SyncToken toSyncToken(long generation) {
+        return new SyncToken(TOKEN_PREFIX + generation);
+    }
+
+    /**
+     * @param token sync token
+     * @return store generation of the given token, null if no token is given
+     * @throws InvalidAttributeValueException if the token was not issued by a snapshot based synchronization
+     */
+    public static Long fromSyncToken(SyncToken token) {
+        if (token == null || token.getValue() == null) {
+            return null;
+        }
+        String value = token.getValue().toString();
+        if (value.startsWith(TOKEN_PREFIX)) {
+            try {
+                return Long.valueOf(value.substring(TOKEN_PREFIX.length()));
+            } catch (NumberFormatException ex) {
+                // reported below
+            }
+        }
+        throw new InvalidAttributeValueException("Sync token " + value + " not issued by a snapshot based "
+                + "synchronization; get the latest sync token to start over");
+    }
+
+    private static DataInputStream openStore(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (input.readInt() != VERSION) {
+            input.close();
+            throw new IOException("Unsupported snapshot " + file);
+        }
+        return input;
+    }
+
+    /**
+     * @param file store file
+     * @return generation of the given store, null if there is none
+     * @throws IOException if the store cannot be read
+     */
+    public static Long readGeneration(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream input = openStore(file);
+        try {
+            return input.readLong();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Locks the store, opens the current one, if any, and starts writing the new one.
+     *
+     * @param compare whether to compare entries with the current store; when not, all entries are reported as
+     * created
+     * @throws IOException if the store is locked by another synchronization, cannot be read or the new one written
+     */
+    public void open(boolean compare) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        lock();
+        if (file.isFile()) {
+            previous = openStore(file);
+            previousGeneration = previous.readLong();
+            if (compare) {
+                readPrevious();
+            } else {
+                previous.close();
+                previous = null;
+            }
+        }
+
+        if (pendingGeneration != null
+                && (previousGeneration == null || pendingGeneration.compareTo(previousGeneration) > 0)) {
+            generation = pendingGeneration;
+        } else {
+            pendingGeneration = null;
+            generation = previousGeneration == null
+                    ? System.currentTimeMillis()
+                    : Math.max(System.currentTimeMillis(), previousGeneration + 1);
+            writePending(generation);
+        }
+        temp = File.createTempFile(file.getName(), ".tmp", directory);
+        current = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        current.writeInt(VERSION);
+        current.writeLong(generation);
+    }
+
+    private void lock() throws IOException {
+        File lockFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".lock");
+        lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException("Snapshot " + file + " is being updated by another synchronization");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining() && lockChannel.read(buffer, buffer.position()) > 0) {
+            // reads the pending generation, if any
+        }
+        if (!buffer.hasRemaining()) {
+            buffer.flip();
+            pendingGeneration = buffer.getLong();
+        }
+    }
+
+    private void writePending(long pending) throws IOException {
+        lockChannel.truncate(0);
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(pending).flip();
+        while (buffer.hasRemaining()) {
+            lockChannel.write(buffer, buffer.position());
+        }
+        lockChannel.force(false);
+    }
+
+    /**
+     * @return generation of the current store, null if there is none; available once opened
+     */
+    public Long getPreviousGeneration() {
+        return previousGeneration;
+    }
+
+    /**
+     * @return generation of the new store already reported by synchronizations not committed, null if there is
+     * none; available once opened
+     */
+    public Long getPendingGeneration() {
+        return pendingGeneration;
+    }
+
+    /**
+     * @return generation of the new store; available once opened
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    private void readPrevious() throws IOException {
+        try {
+            previousId = previous.readUTF();
+            previousName = previous.readUTF();
+            previousHash = previous.readLong();
+        } catch (EOFException ex) {
+            previousId = null;
+        }
+    }
+
+    private void write(String zimbraId, String zimbraName, long hash) throws IOException {
+        current.writeUTF(zimbraId);
+        current.writeUTF(zimbraName);
+        current.writeLong(hash);
+        entries++;
+    }
+
+    /**
+     * @return whether the delta was passed to the handler
+     */
+    private boolean report(SyncDeltaType type, String zimbraId, String zimbraName, Map<String, Object> zimbraAttrs) {
+        if (stopped) {
+            return false;
+        }
+        deltas++;
+        stopped = !handler.handle(type, zimbraId, zimbraName, zimbraAttrs);
+        return true;
+    }
+
+    /**
+     * Reports the stored entries preceding the given id, which are no longer in the directory.
+     */
+    private void removeUntil(String zimbraId) throws IOException {
+        while (previousId != null && (zimbraId == null || previousId.compareTo(zimbraId) < 0)) {
+            if (!report(SyncDeltaType.DELETE, previousId, previousName, null)) {
+                write(previousId, previousName, previousHash);
+            }
+            readPrevious();
+        }
+    }
+
+    /**
+     * Compares an entry of the directory with the stored one; entries must be passed in ascending
+     * <code>zimbraId</code> order.
+     *
+     * @param zimbraId entry id
+     * @param zimbraName entry uid
+     * @param hash entry hash
+     * @param zimbraAttrs entry attributes
+     * @throws IOException if the store cannot be read or written
+     */
+    public void add(String zimbraId, String zimbraName, long hash, Map<String, Object> zimbraAttrs)
+            throws IOException {
+
+        if (lastId != null && zimbraId.compareTo(lastId) <= 0) {
+            throw new IllegalStateException("Entries not sorted by zimbraId: " + zimbraId + " after " + lastId);
+        }
+        lastId = zimbraId;
+
+        removeUntil(zimbraId);
+        if (zimbraId.equals(previousId)) {
+            if (previousHash == hash) {
+                write(zimbraId, zimbraName, hash);
+            } else if (report(SyncDeltaType.UPDATE, zimbraId, zimbraName, zimbraAttrs)) {
+                write(zimbraId, zimbraName, hash);
+            } else {
+                write(previousId, previousName, previousHash);
+            }
+            readPrevious();
+        } else if (report(SyncDeltaType.CREATE, zimbraId, zimbraName, zimbraAttrs)) {
+            write(zimbraId, zimbraName, hash);
+        }
+    }
+
+    /**
+     * Reports the remaining stored entries as deleted and replaces the store with the new one.
+     *
+     * @return number of differences reported
+     * @throws IOException if the store cannot be read or written
+     */
+    public int commit() throws IOException {
+        removeUntil(null);
+        current.close();
+        current = null;
+        if (previous != null) {
+            previous.close();
+            previous = null;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        temp = null;
+        lockChannel.truncate(0);
+        lockChannel.force(false);
+        LOG.ok("Snapshot {0} updated: {1} entries, {2} differences reported", file, entries, deltas);
+        return deltas;
+    }
+
+    /**
+     * Closes the stores, discarding the new one if not committed, and releases the lock.
+     */
+    @Override
+    public void close() {
+        try {
+            if (current != null) {
+                current.close();
+            }
+            if (previous != null) {
+                previous.close();
+            }
+        } catch (IOException ex) {
+            LOG.ok(ex, "Could not close snapshot {0}", file);
+        }
+        if (temp != null && !temp.delete()) {
+            LOG.ok("Could not delete {0}", temp);
+        }
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        } catch (IOException ex) {
+            LOG.ok(ex, "Could not unlock snapshot {0}", file);
+        }
+    }
+}
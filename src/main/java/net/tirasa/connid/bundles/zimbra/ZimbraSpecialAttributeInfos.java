@@ -26,9 +26,15 @@ public final class ZimbraSpecialAttributeInfos {
             ZimbraSpecialAttributes.ALIASES_NAME, String.class, EnumSet.of(Flags.MULTIVALUED));
 
     public static final AttributeInfo GROUPS = AttributeInfoBuilder.build(
-            ZimbraSpecialAttributes.GROUPS_NAME, String.class, EnumSet.of(Flags.MULTIVALUED));
+            ZimbraSpecialAttributes.GROUPS_NAME, String.class,
+            EnumSet.of(Flags.MULTIVALUED, Flags.NOT_RETURNED_BY_DEFAULT));
+
+    public static final AttributeInfo DISTRIBUTION_LISTS = AttributeInfoBuilder.build(
+            ZimbraSpecialAttributes.DISTRIBUTION_LISTS_NAME, String.class,
+            EnumSet.of(Flags.MULTIVALUED, Flags.NOT_RETURNED_BY_DEFAULT));
 
     public static final AttributeInfo MEMBERS = AttributeInfoBuilder.build(
-            ZimbraSpecialAttributes.MEMBERS_NAME, String.class, EnumSet.of(Flags.MULTIVALUED));
+            ZimbraSpecialAttributes.MEMBERS_NAME, String.class,
+            EnumSet.of(Flags.MULTIVALUED, Flags.NOT_RETURNED_BY_DEFAULT));
 
 }
@@ -0,0 +1,332 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.net.SocketFactories;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.AdminConstants;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.HttpsURLConnection;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Directory search posting its own <code>SearchDirectoryRequest</code> and reading the response with a pull parser:
+ * each entry is passed to the handler as soon as it has been read, so that only one entry at a time is held in memory
+ * and entries are converted while the rest of the page is still being received.
+ * <p>
+ * Requests honour the admin service timeout and, over HTTPS, use the same socket factory as the SOAP transport, so
+ * that certificates are trusted the same way as by {@link com.zimbra.cs.account.soap.SoapProvisioning}.
+ */
+public class ZimbraStreamingSearch extends ZimbraSearch {
+
+    private static final Log LOG = Log.getLog(ZimbraStreamingSearch.class);
+
+    private static final String SOAP_NAMESPACE = "http://www.w3.org/2003/05/soap-envelope";
+
+    private static final String ZIMBRA_NAMESPACE = "urn:zimbra";
+
+    private static final String E_ENVELOPE = "Envelope";
+
+    private static final String E_HEADER = "Header";
+
+    private static final String E_BODY = "Body";
+
+    private static final String E_CONTEXT = "context";
+
+    private static final String E_NO_SESSION = "nosession";
+
+    private static final String E_FAULT = "Fault";
+
+    private static final String E_ERROR = "Error";
+
+    private static final String E_CODE = "Code";
+
+    private static final String E_TEXT = "Text";
+
+    private static final String E_FAULTSTRING = "faultstring";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final ZimbraConnection connection;
+
+    private final String location;
+
+    private final int timeout;
+
+    /**
+     * @param connection admin session
+     * @param location admin service URL
+     * @param timeout connect and read timeout in milliseconds, 0 for none
+     * @param objClass object class searched
+     * @param query LDAP filter
+     * @param returnAttrs attributes to return, all when null
+     */
+    public ZimbraStreamingSearch(ZimbraConnection connection, String location, int timeout, ObjectClass objClass,
+            String query, String[] returnAttrs) {
+        super(connection.provisioning(), connection.getDomain(), objClass, query, returnAttrs);
+        this.connection = connection;
+        this.location = location;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Page page(EntryHandler handler, int offset, int limit) throws ServiceException {
+        HttpURLConnection http = null;
+        boolean completed = false;
+        try {
+            http = (HttpURLConnection) new URL(location).openConnection();
+            if (http instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) http).setSSLSocketFactory(SocketFactories.defaultSSLSocketFactory());
+            }
+            http.setConnectTimeout(timeout);
+            http.setReadTimeout(timeout);
+            http.setDoOutput(true);
+            http.setRequestMethod("POST");
+            http.setRequestProperty("Content-Type", "application/soap+xml; charset=utf-8");
+            OutputStream out = http.getOutputStream();
+            try {
+                writeRequest(out, connection.getAuthToken(), offset, limit);
+            } finally {
+                out.close();
+            }
+
+            InputStream in = http.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? http.getErrorStream()
+                    : http.getInputStream();
+            if (in == null) {
+                throw ServiceException.FAILURE("HTTP " + http.getResponseCode() + " from " + location, null);
+            }
+            try {
+                Page page = readResponse(in, handler, offset);
+                completed = !page.isStopped();
+                return page;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            throw ServiceException.FAILURE(ex.getMessage(), ex);
+        } catch (XMLStreamException ex) {
+            throw ServiceException.FAILURE(ex.getMessage(), ex);
+        } finally {
+            // a partially read response cannot be followed by another on the same connection
+            if (http != null && !completed) {
+                http.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Writes the SOAP envelope of the <code>SearchDirectoryRequest</code> for the given page.
+     *
+     * @param out request body
+     * @param authToken admin session token
+     * @param offset zero-based offset of the first entry
+     * @param limit maximum number of entries
+     * @throws XMLStreamException if the request cannot be written
+     */
+    protected void writeRequest(OutputStream out, String authToken, int offset, int limit)
+            throws XMLStreamException {
+
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("soap", E_ENVELOPE, SOAP_NAMESPACE);
+        writer.writeNamespace("soap", SOAP_NAMESPACE);
+
+        writer.writeStartElement(SOAP_NAMESPACE, E_HEADER);
+        writer.writeStartElement(E_CONTEXT);
+        writer.writeDefaultNamespace(ZIMBRA_NAMESPACE);
+        writer.writeStartElement(AdminConstants.E_AUTH_TOKEN);
+        writer.writeCharacters(authToken);
+        writer.writeEndElement();
+        writer.writeEmptyElement(E_NO_SESSION);
+        writer.writeEndElement();
+        writer.writeEndElement();
+
+        writer.writeStartElement(SOAP_NAMESPACE, E_BODY);
+        writer.writeStartElement(AdminConstants.E_SEARCH_DIRECTORY_REQUEST);
+        writer.writeDefaultNamespace(AdminConstants.NAMESPACE_STR);
+        if (domain != null) {
+            writer.writeAttribute(AdminConstants.A_DOMAIN, domain.getName());
+        }
+        writer.writeAttribute(AdminConstants.A_TYPES, types);
+        if (sortBy != null) {
+            writer.writeAttribute(AdminConstants.A_SORT_BY, sortBy);
+        }
+        writer.writeAttribute(AdminConstants.A_SORT_ASCENDING, sortAscending ? "1" : "0");
+        writer.writeAttribute(AdminConstants.A_OFFSET, String.valueOf(offset));
+        writer.writeAttribute(AdminConstants.A_LIMIT, String.valueOf(limit));
+        writer.writeAttribute(AdminConstants.A_MAX_RESULTS, String.valueOf(UNLIMITED_RESULTS));
+        if (returnAttrs != null) {
+            writer.writeAttribute(AdminConstants.A_ATTRS, StringUtil.join(returnAttrs, ','));
+        }
+        writer.writeStartElement(AdminConstants.E_QUERY);
+        writer.writeCharacters(query == null ? "" : query);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    /**
+     * Reads a <code>SearchDirectoryResponse</code>, passing each entry to the handler as soon as it is complete.
+     *
+     * @param in response body
+     * @param handler entry handler
+     * @param offset offset of the first entry of the page
+     * @return page outcome
+     * @throws XMLStreamException if the response cannot be parsed
+     * @throws ServiceException if the response is a SOAP fault
+     */
+    protected static Page readResponse(InputStream in, EntryHandler handler, int offset)
+            throws XMLStreamException, ServiceException {
+
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            boolean more = false;
+            int total = -1;
+            int handled = 0;
+            Map<String, Object> attrs = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (AdminConstants.E_SEARCH_DIRECTORY_RESPONSE.equals(name)) {
+                        more = toBoolean(reader.getAttributeValue(null, AdminConstants.A_MORE));
+                        String searchTotal = reader.getAttributeValue(null, AdminConstants.A_SEARCH_TOTAL);
+                        total = searchTotal == null ? -1 : Integer.parseInt(searchTotal);
+                    } else if (E_FAULT.equals(name)) {
+                        throw readFault(reader);
+                    } else if (attrs == null && isEntry(name)) {
+                        attrs = new HashMap<String, Object>();
+                    } else if (attrs != null && AdminConstants.E_A.equals(name)) {
+                        String attrName = reader.getAttributeValue(null, AdminConstants.A_N);
+                        String value = reader.getElementText();
+                        if (attrName != null) {
+                            addValue(attrs, attrName, value);
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && attrs != null && isEntry(reader.getLocalName())) {
+                    handled++;
+                    if (!handler.handle(attrs)) {
+                        LOG.ok("search stopped by handler after {0} entries", offset + handled);
+                        return new Page(offset, handled, more || hasNextEntry(reader), total, true);
+                    }
+                    attrs = null;
+                }
+            }
+            return new Page(offset, handled, more, total, false);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean isEntry(String name) {
+        return AdminConstants.E_ACCOUNT.equals(name) || AdminConstants.E_DL.equals(name);
+    }
+
+    private static boolean toBoolean(String value) {
+        return "1".equals(value) || "true".equalsIgnoreCase(value);
+    }
+
+    private static void addValue(Map<String, Object> attrs, String name, String value) {
+        Object previous = attrs.get(name);
+        if (previous == null) {
+            attrs.put(name, value);
+        } else if (previous instanceof String[]) {
+            String[] values = (String[]) previous;
+            String[] newValues = new String[values.length + 1];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            newValues[values.length] = value;
+            attrs.put(name, newValues);
+        } else {
+            attrs.put(name, new String[] { (String) previous, value });
+        }
+    }
+
+    private static boolean hasNextEntry(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && isEntry(reader.getLocalName())) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT
+                    && AdminConstants.E_SEARCH_DIRECTORY_RESPONSE.equals(reader.getLocalName())) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads both SOAP 1.1 and SOAP 1.2 faults, as {@link ZimbraBatch#toFaultException} does.
+     */
+    private static ServiceException readFault(XMLStreamReader reader) throws XMLStreamException {
+        List<String> path = new ArrayList<String>();
+        String code = null;
+        String message = null;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                // the Zimbra code is in Detail/Error/Code, not to be confused with the SOAP 1.2 Code/Value
+                if (E_CODE.equals(name) && path.contains(E_ERROR)) {
+                    code = reader.getElementText();
+                } else if (E_TEXT.equals(name) || E_FAULTSTRING.equals(name)) {
+                    message = reader.getElementText();
+                } else {
+                    path.add(name);
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (!path.isEmpty()) {
+                    path.remove(path.size() - 1);
+                }
+                depth--;
+            }
+        }
+        return new ZimbraBatch.FaultException(
+                message == null ? "Search failed" : message,
+                code == null ? ServiceException.FAILURE : code,
+                0);
+    }
+}
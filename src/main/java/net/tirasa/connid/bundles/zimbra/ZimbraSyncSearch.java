@@ -0,0 +1,355 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Domain;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.soap.SoapProvisioning;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Streams the entries changed after a {@link ZimbraSyncToken}, in <code>(timestamp, zimbraId)</code> order, holding
+ * at most a page of entries per search in memory.
+ * <p>
+ * Entries ever modified are searched sorted by <code>zimbraModifyTimestamp</code>, entries never modified sorted by
+ * <code>zimbraCreateTimestamp</code>, and the two streams are merged. Pages are requested by key rather than by
+ * offset, so that changes made while searching do not shift entries out of the pages read: the rest of the second
+ * of the last change passed to the handler is searched with <code>(timestamp=second)(zimbraId&gt;=last)</code>
+ * sorted by <code>zimbraId</code>, then the following seconds with <code>(timestamp&gt;=second)</code> without that
+ * second, sorted by timestamp. Of such a page, entries of the last second read are only kept when the page is the
+ * last one, that second being read again by <code>zimbraId</code> otherwise.
+ */
+public class ZimbraSyncSearch {
+
+    private static final Log LOG = Log.getLog(ZimbraSyncSearch.class);
+
+    /**
+     * Orders entries by sync timestamp, then zimbraId.
+     */
+    private static final Comparator<Map<String, Object>> POSITION_ORDER = new Comparator<Map<String, Object>>() {
+
+        @Override
+        public int compare(Map<String, Object> o1, Map<String, Object> o2) {
+            int compare = ZimbraConnector.getSyncTimestamp(o1).compareTo(ZimbraConnector.getSyncTimestamp(o2));
+            return compare == 0
+                    ? ((String) o1.get(Provisioning.A_zimbraId)).compareTo((String) o2.get(Provisioning.A_zimbraId))
+                    : compare;
+        }
+    };
+
+    /**
+     * Callback receiving the changes found.
+     */
+    public interface ChangeHandler {
+
+        /**
+         * @param zimbraAttrs attributes of the changed entry
+         * @param token position of the synchronization after this change
+         * @return <code>true</code> to continue, <code>false</code> to stop
+         */
+        boolean handle(Map<String, Object> zimbraAttrs, ZimbraSyncToken token);
+    }
+
+    private final SoapProvisioning sp;
+
+    private final Domain domain;
+
+    private final ObjectClass objClass;
+
+    private final String[] returnAttrs;
+
+    private final int pageSize;
+
+    public ZimbraSyncSearch(SoapProvisioning sp, Domain domain, ObjectClass objClass, String[] returnAttrs,
+            int pageSize) {
+        this.sp = sp;
+        this.domain = domain;
+        this.objClass = objClass;
+        this.returnAttrs = returnAttrs;
+        this.pageSize = pageSize;
+    }
+
+    protected ZimbraSearch newSearch(String query) {
+        return new ZimbraSearch(sp, domain, objClass, query, returnAttrs);
+    }
+
+    /**
+     * Entries matching a condition, sorted by a timestamp attribute.
+     */
+    private final class Cursor {
+
+        private final String timestampAttr;
+
+        private final String condition;
+
+        private final Deque<Map<String, Object>> buffer = new ArrayDeque<Map<String, Object>>();
+
+        private boolean exhausted;
+
+        /**
+         * Newest second all entries of which have been read, null if none.
+         */
+        private String complete;
+
+        private Cursor(String timestampAttr, String condition) {
+            this.timestampAttr = timestampAttr;
+            this.condition = condition;
+        }
+
+        private String equal(String timestamp) {
+            return "(" + timestampAttr + "=" + timestamp + ")";
+        }
+
+        /**
+         * Reads the entries of the given second after the given id, sorted by zimbraId.
+         *
+         * @return whether all entries of that second have been read
+         */
+        private boolean readSecond(String timestamp, final String after) throws ServiceException {
+            ZimbraSearch search = newSearch("(&" + condition + equal(timestamp)
+                    + (after == null ? "" : "(" + Provisioning.A_zimbraId + ">=" + after + ")") + ")");
+            search.setSortBy(Provisioning.A_zimbraId);
+            final int[] found = new int[1];
+            ZimbraSearch.Page page = search.page(new ZimbraSearch.EntryHandler() {
+
+                @Override
+                public boolean handle(Map<String, Object> zimbraAttrs) {
+                    if (after == null || ((String) zimbraAttrs.get(Provisioning.A_zimbraId)).compareTo(after) > 0) {
+                        buffer.addLast(zimbraAttrs);
+                        found[0]++;
+                    }
+                    return true;
+                }
+            }, 0, after == null ? pageSize : pageSize + 1);
+            if (page.isMore() && found[0] == 0) {
+                throw ServiceException.FAILURE("No entries returned from " + timestampAttr + " " + timestamp + " "
+                        + Provisioning.A_zimbraId + " " + after, null);
+            }
+            if (!page.isMore()) {
+                complete = timestamp;
+            }
+            return !page.isMore();
+        }
+
+        /**
+         * Reads the entries of the seconds after the given one, sorted by timestamp.
+         */
+        private void readAfter(String timestamp) throws ServiceException {
+            ZimbraSearch search = newSearch(timestamp == null
+                    ? condition
+                    : "(&" + condition + "(" + timestampAttr + ">=" + timestamp + ")(!" + equal(timestamp) + "))");
+            search.setSortBy(timestampAttr);
+            final List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+            ZimbraSearch.Page page = search.page(new ZimbraSearch.EntryHandler() {
+
+                @Override
+                public boolean handle(Map<String, Object> zimbraAttrs) {
+                    entries.add(zimbraAttrs);
+                    return true;
+                }
+            }, 0, pageSize);
+            exhausted = !page.isMore();
+            if (entries.isEmpty()) {
+                return;
+            }
+            String last = ZimbraConnector.getSyncTimestamp(entries.get(entries.size() - 1));
+            List<Map<String, Object>> kept = new ArrayList<Map<String, Object>>();
+            for (Map<String, Object> entry : entries) {
+                // the last second may continue in the next page
+                if (exhausted || ZimbraConnector.getSyncTimestamp(entry).compareTo(last) < 0) {
+                    kept.add(entry);
+                }
+            }
+            Collections.sort(kept, POSITION_ORDER);
+            buffer.addAll(kept);
+            if (!kept.isEmpty()) {
+                complete = ZimbraConnector.getSyncTimestamp(kept.get(kept.size() - 1));
+            } else {
+                // a single second filling the page
+                readSecond(last, null);
+            }
+        }
+
+        /**
+         * @return oldest entry not yet processed, null when none is left
+         */
+        private Map<String, Object> peek(ZimbraSyncToken position) throws ServiceException {
+            if (buffer.isEmpty() && !exhausted) {
+                boolean secondRead = true;
+                if (position != null && (complete == null || position.getTimestamp().compareTo(complete) > 0)) {
+                    secondRead = readSecond(position.getTimestamp(), position.getId());
+                }
+                if (buffer.isEmpty() && secondRead) {
+                    readAfter(position == null ? null : position.getTimestamp());
+                }
+            }
+            return buffer.peekFirst();
+        }
+
+        /**
+         * @return position of the newest entry, null if there is none
+         */
+        private ZimbraSyncToken newest() throws ServiceException {
+            final String[] newest = new String[2];
+            ZimbraSearch.EntryHandler first = new ZimbraSearch.EntryHandler() {
+
+                @Override
+                public boolean handle(Map<String, Object> zimbraAttrs) {
+                    newest[0] = ZimbraConnector.getSyncTimestamp(zimbraAttrs);
+                    newest[1] = (String) zimbraAttrs.get(Provisioning.A_zimbraId);
+                    return false;
+                }
+            };
+            ZimbraSearch search = newSearch(condition);
+            search.setSortBy(timestampAttr);
+            search.setSortAscending(false);
+            search.page(first, 0, 1);
+            if (newest[0] == null) {
+                return null;
+            }
+            // the greatest id of that whole second
+            search = newSearch("(&" + condition + equal(newest[0]) + ")");
+            search.setSortBy(Provisioning.A_zimbraId);
+            search.setSortAscending(false);
+            search.page(first, 0, 1);
+            return new ZimbraSyncToken(newest[0], newest[1]);
+        }
+    }
+
+    private Cursor[] newCursors() {
+        return new Cursor[] {
+            new Cursor(Provisioning.A_zimbraModifyTimestamp, "(" + Provisioning.A_zimbraModifyTimestamp + "=*)"),
+            new Cursor(Provisioning.A_zimbraCreateTimestamp,
+            "(&(" + Provisioning.A_zimbraCreateTimestamp + "=*)(!(" + Provisioning.A_zimbraModifyTimestamp + "=*)))")
+        };
+    }
+
+    /**
+     * @return position after the newest change, including all entries changed within that same second; null if
+     * there is no entry
+     * @throws ServiceException if any search fails
+     */
+    public ZimbraSyncToken latest() throws ServiceException {
+        ZimbraSyncToken latest = null;
+        for (Cursor cursor : newCursors()) {
+            ZimbraSyncToken newest = cursor.newest();
+            if (newest != null && (latest == null || !latest.isProcessed(newest.getTimestamp(), newest.getId()))) {
+                latest = newest;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Passes the entries changed after the given position to the handler, oldest first.
+     *
+     * @param from position of the previous synchronization, null for all entries
+     * @param handler change handler
+     * @return position after the last change handled, or <code>from</code> if none
+     * @throws ServiceException if any search fails
+     */
+    public ZimbraSyncToken stream(ZimbraSyncToken from, ChangeHandler handler) throws ServiceException {
+        Cursor[] cursors = newCursors();
+        ZimbraSyncToken last = from;
+        int handled = 0;
+        while (true) {
+            Cursor source = null;
+            Map<String, Object> next = null;
+            for (Cursor cursor : cursors) {
+                Map<String, Object> head = cursor.peek(last);
+                if (head != null && (next == null || POSITION_ORDER.compare(head, next) < 0)) {
+                    next = head;
+                    source = cursor;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            source.buffer.removeFirst();
+
+            last = new ZimbraSyncToken(
+                    ZimbraConnector.getSyncTimestamp(next), (String) next.get(Provisioning.A_zimbraId));
+            handled++;
+            if (!handler.handle(next, last)) {
+                break;
+            }
+        }
+        LOG.ok("{0} changes handled after {1}", handled, from);
+        return last;
+    }
+
+    /**
+     * Passes all entries to the handler in ascending <code>zimbraId</code> order, as needed by
+     * {@link ZimbraSnapshot}. Pages are requested by key: each page is searched with
+     * <code>(zimbraId&gt;=last)</code>, <code>last</code> being the greatest id already passed, which is returned
+     * again and skipped, so that entries created or deleted while searching do not shift entries out of the pages
+     * read.
+     *
+     * @param handler entry handler
+     * @return number of entries passed to the handler
+     * @throws ServiceException if any search fails, or if a page returns no entry after the last one while more are
+     * reported, or no entry at all: not even the last one, as happens when <code>zimbraId</code> has no ordering
+     */
+    public int streamById(final ZimbraSearch.EntryHandler handler) throws ServiceException {
+        int handled = 0;
+        String last = null;
+        while (true) {
+            ZimbraSearch search = newSearch(last == null ? null : "(" + Provisioning.A_zimbraId + ">=" + last + ")");
+            search.setSortBy(Provisioning.A_zimbraId);
+            final String from = last;
+            final String[] greatest = new String[] { last };
+            final int[] found = new int[1];
+            final int[] returned = new int[1];
+            ZimbraSearch.Page page = search.page(new ZimbraSearch.EntryHandler() {
+
+                @Override
+                public boolean handle(Map<String, Object> zimbraAttrs) {
+                    returned[0]++;
+                    String id = (String) zimbraAttrs.get(Provisioning.A_zimbraId);
+                    if (from != null && id.compareTo(from) <= 0) {
+                        // already seen
+                        return true;
+                    }
+                    greatest[0] = id;
+                    found[0]++;
+                    return handler.handle(zimbraAttrs);
+                }
+            }, 0, from == null ? pageSize : pageSize + 1);
+            handled += found[0];
+
+            // an empty page would otherwise end the stream, and have all remaining entries reported as deleted
+            if ((from != null && returned[0] == 0) || (page.isMore() && !page.isStopped() && found[0] == 0)) {
+                throw ServiceException.FAILURE(
+                        "No entries returned from " + Provisioning.A_zimbraId + " " + from, null);
+            }
+            if (page.isStopped() || !page.isMore()) {
+                break;
+            }
+            last = greatest[0];
+        }
+        LOG.ok("{0} entries handled by {1}", handled, Provisioning.A_zimbraId);
+        return handled;
+    }
+}
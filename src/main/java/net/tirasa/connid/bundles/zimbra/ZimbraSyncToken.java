@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import java.util.regex.Pattern;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * Position of a timestamp based synchronization, in <code>(timestamp, zimbraId)</code> order: the newest
+ * <code>zimbraModifyTimestamp</code> / <code>zimbraCreateTimestamp</code> already processed, together with the
+ * greatest <code>zimbraId</code> processed within that same second, since Zimbra timestamps have a one second
+ * resolution. Tokens stay the same size however many entries share a second.
+ * <p>
+ * The token value is <code>timestamp|id</code>; tokens listing several ids, as issued by earlier versions, are read
+ * as positioned before that second, whose entries are then reported again.
+ */
+public class ZimbraSyncToken {
+
+    private static final char TIMESTAMP_SEPARATOR = '|';
+
+    private static final char ID_SEPARATOR = ',';
+
+    private static final Pattern GENERALIZED_TIME = Pattern.compile("\\d{14}(\\.\\d+)?Z");
+
+    private final String timestamp;
+
+    private final String id;
+
+    /**
+     * @param timestamp generalized time of the newest change processed
+     * @param id greatest zimbraId processed with that timestamp, null if none was
+     */
+    public ZimbraSyncToken(String timestamp, String id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /**
+     * @return generalized time of the newest change processed
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return greatest id of the entries processed having the same timestamp, null if none was
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @param entryTimestamp generalized time of an entry
+     * @param entryId zimbraId of the entry
+     * @return whether the entry was already processed up to this token
+     */
+    public boolean isProcessed(String entryTimestamp, String entryId) {
+        int compare = entryTimestamp.compareTo(timestamp);
+        return compare < 0 || (compare == 0 && id != null && entryId.compareTo(id) <= 0);
+    }
+
+    public SyncToken toSyncToken() {
+        StringBuilder sb = new StringBuilder(timestamp);
+        sb.append(TIMESTAMP_SEPARATOR);
+        if (id != null) {
+            sb.append(id);
+        }
+        return new SyncToken(sb.toString());
+    }
+
+    /**
+     * @param token sync token
+     * @return position of the given token, null if no token is given
+     * @throws InvalidAttributeValueException if the token was not issued by a timestamp based synchronization
+     */
+    public static ZimbraSyncToken fromSyncToken(SyncToken token) {
+        if (token == null || token.getValue() == null) {
+            return null;
+        }
+        String value = token.getValue().toString();
+        int index = value.indexOf(TIMESTAMP_SEPARATOR);
+        if (!GENERALIZED_TIME.matcher(index == -1 ? value : value.substring(0, index)).matches()) {
+            throw new InvalidAttributeValueException("Sync token " + value + " not issued by a timestamp based "
+                    + "synchronization; get the latest sync token to start over");
+        }
+        if (index == -1) {
+            return new ZimbraSyncToken(value, null);
+        }
+        String tokenId = value.substring(index + 1);
+        return new ZimbraSyncToken(value.substring(0, index),
+                tokenId.isEmpty() || tokenId.indexOf(ID_SEPARATOR) != -1 ? null : tokenId);
+    }
+
+    @Override
+    public String toString() {
+        return toSyncToken().getValue().toString();
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.Test;
+
+/**
+ * Compares the read path of the attribute mapping with the former per-attribute comparison chain; not run with the
+ * unit tests, but only with the <code>benchmark</code> profile.
+ */
+public class ZimbraAttributeMappingBenchmark {
+
+    private static final Log LOG = Log.getLog(ZimbraAttributeMappingBenchmark.class);
+
+    private static final int ITERATIONS = 20000;
+
+    @Test
+    public void toAttributes() {
+        Map<String, Object> zimbraAttrs = ZimbraAttributeMappingTests.entry();
+        ZimbraAttributeMapping mapping = ZimbraAttributeMapping.forClass(ObjectClass.ACCOUNT);
+        int sink = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += ZimbraAttributeMappingTests.legacyAttributes(zimbraAttrs).size()
+                    + mapping.toAttributes(zimbraAttrs).size();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += ZimbraAttributeMappingTests.legacyAttributes(zimbraAttrs).size();
+        }
+        long legacy = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += mapping.toAttributes(zimbraAttrs).size();
+        }
+        long table = System.nanoTime() - start;
+
+        LOG.info("{0} entries of {1} attributes: legacy {2} ms, mapping table {3} ms",
+                ITERATIONS, ZimbraAttributeMappingTests.ENTRY_ATTRIBUTES, legacy / 1000000, table / 1000000);
+        assertEquals(ZimbraAttributeMappingTests.ENTRY_ATTRIBUTES * ITERATIONS * 4, sink);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.zimbra.cs.account.Provisioning;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.junit.Test;
+
+/**
+ * Checks the attribute mapping without a Zimbra server, and that its read path matches the former per-attribute
+ * comparison chain.
+ */
+public class ZimbraAttributeMappingTests {
+
+    static final int ENTRY_ATTRIBUTES = 150;
+
+    static Map<String, Object> entry() {
+        Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
+        zimbraAttrs.put(Provisioning.A_uid, "guest");
+        zimbraAttrs.put(Provisioning.A_zimbraAccountStatus, Provisioning.ACCOUNT_STATUS_ACTIVE);
+        zimbraAttrs.put(Provisioning.A_zimbraMailAlias, new String[] { "ospite@example.com", "gast@example.com" });
+        for (int i = zimbraAttrs.size(); i < ENTRY_ATTRIBUTES; i++) {
+            zimbraAttrs.put("zimbraPref" + i, i % 3 == 0 ? new String[] { "a" + i, "b" + i } : "value" + i);
+        }
+        return zimbraAttrs;
+    }
+
+    /**
+     * Read path before the mapping table, kept as benchmark baseline.
+     */
+    static Set<Attribute> legacyAttributes(Map<String, Object> zimbraAttrs) {
+        Set<Attribute> attrs = new HashSet<Attribute>();
+        for (String zimbraName : zimbraAttrs.keySet()) {
+            Object zimbraValue = zimbraAttrs.get(zimbraName);
+            List<Object> value = new ArrayList<Object>();
+            if (zimbraValue instanceof Object[]) {
+                for (Object o : (Object[]) zimbraValue) {
+                    value.add(o);
+                }
+            } else {
+                value.add(zimbraValue);
+            }
+            if (Provisioning.A_zimbraAccountStatus.equalsIgnoreCase(zimbraName)) {
+                attrs.add(AttributeBuilder.buildEnabled(Provisioning.ACCOUNT_STATUS_ACTIVE.equalsIgnoreCase(
+                        (String) zimbraValue)));
+            } else if (Provisioning.A_zimbraMailStatus.equalsIgnoreCase(zimbraName)) {
+                attrs.add(AttributeBuilder.buildEnabled(Provisioning.MAIL_STATUS_ENABLED.equalsIgnoreCase(
+                        (String) zimbraValue)));
+            } else if (Provisioning.A_userPassword.equalsIgnoreCase(zimbraName)) {
+                attrs.add(AttributeBuilder.buildPassword(((String) zimbraValue).toCharArray()));
+            } else if (Provisioning.A_zimbraPasswordMustChange.equalsIgnoreCase(zimbraName)) {
+                attrs.add(AttributeBuilder.buildPasswordExpired("TRUE".equalsIgnoreCase((String) zimbraValue)));
+            } else if (Provisioning.A_zimbraMailAlias.equalsIgnoreCase(zimbraName)) {
+                attrs.add(AttributeBuilder.build(ZimbraSpecialAttributes.ALIASES_NAME, value));
+            } else {
+                attrs.add(AttributeBuilder.build(zimbraName, value));
+            }
+        }
+        return attrs;
+    }
+
+    @Test
+    public void names() {
+        ZimbraAttributeMapping account = ZimbraAttributeMapping.forClass(ObjectClass.ACCOUNT);
+        assertEquals(Provisioning.A_uid, account.toZimbraName(Name.NAME));
+        assertEquals(Provisioning.A_uid, account.toZimbraName("__name__"));
+        assertEquals(Provisioning.A_zimbraAccountStatus, account.toZimbraName(OperationalAttributes.ENABLE_NAME));
+        assertEquals(Provisioning.A_userPassword, account.toZimbraName(OperationalAttributes.PASSWORD_NAME));
+        assertEquals(Provisioning.A_zimbraMailAlias, account.toZimbraName(ZimbraSpecialAttributes.ALIASES_NAME));
+        assertEquals(Provisioning.A_givenName, account.toZimbraName(Provisioning.A_givenName));
+
+        ZimbraAttributeMapping group = ZimbraAttributeMapping.forClass(ObjectClass.GROUP);
+        assertEquals(Provisioning.A_zimbraMailStatus, group.toZimbraName(OperationalAttributes.ENABLE_NAME));
+        assertEquals(OperationalAttributes.PASSWORD_NAME, group.toZimbraName(OperationalAttributes.PASSWORD_NAME));
+    }
+
+    @Test
+    public void values() {
+        ZimbraAttributeMapping account = ZimbraAttributeMapping.forClass(ObjectClass.ACCOUNT);
+        assertEquals("guest", account.toZimbraValue(new Uid("guest@example.com")));
+        assertEquals(Provisioning.ACCOUNT_STATUS_PENDING, account.toZimbraValue(AttributeBuilder.buildEnabled(false)));
+        assertEquals("TRUE", account.toZimbraValue(AttributeBuilder.buildPasswordExpired(true)));
+        assertArrayEquals(new Object[] { "a", "b" }, (Object[]) account.toZimbraValue(
+                AttributeBuilder.build(Provisioning.A_cn, "a", "b")));
+        assertNull(account.toZimbraValue(AttributeBuilder.build(Provisioning.A_cn)));
+
+        Set<Attribute> attrs = new HashSet<Attribute>();
+        attrs.add(new Name("guest"));
+        attrs.add(AttributeBuilder.buildPassword(new GuardedString("secret".toCharArray())));
+        attrs.add(AttributeBuilder.build(ZimbraSpecialAttributes.ALIASES_NAME, "ospite"));
+        attrs.add(AttributeBuilder.buildEnabled(true));
+        attrs.add(AttributeBuilder.build(Provisioning.A_sn, "User"));
+        Map<String, Object> zimbraAttrs = account.toZimbraAttributes(attrs);
+        assertEquals(2, zimbraAttrs.size());
+        assertEquals(Provisioning.ACCOUNT_STATUS_ACTIVE, zimbraAttrs.get(Provisioning.A_zimbraAccountStatus));
+        assertEquals("User", zimbraAttrs.get(Provisioning.A_sn));
+    }
+
+    @Test
+    public void attributes() {
+        Map<String, Object> zimbraAttrs = entry();
+        zimbraAttrs.put(Provisioning.A_zimbraMailStatus, Provisioning.MAIL_STATUS_DISABLED);
+        List<Attribute> attrs = ZimbraAttributeMapping.forClass(ObjectClass.ACCOUNT).toAttributes(zimbraAttrs);
+        assertEquals(ENTRY_ATTRIBUTES, attrs.size());
+        assertEquals(Boolean.TRUE, AttributeUtil.find(OperationalAttributes.ENABLE_NAME, new HashSet<Attribute>(attrs)).
+                getValue().get(0));
+        assertEquals(2, AttributeUtil.find(ZimbraSpecialAttributes.ALIASES_NAME, new HashSet<Attribute>(attrs)).
+                getValue().size());
+        assertFalse(new HashSet<Attribute>(attrs).contains(AttributeBuilder.buildEnabled(false)));
+        zimbraAttrs.remove(Provisioning.A_zimbraMailStatus);
+        assertEquals(legacyAttributes(zimbraAttrs), new HashSet<Attribute>(
+                ZimbraAttributeMapping.forClass(ObjectClass.ACCOUNT).toAttributes(zimbraAttrs)));
+    }
+}
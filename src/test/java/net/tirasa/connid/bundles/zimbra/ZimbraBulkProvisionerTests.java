@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.junit.Test;
+
+/**
+ * Checks how script arguments are read into bulk requests.
+ */
+public class ZimbraBulkProvisionerTests {
+
+    private static Map<String, Object> item(String operation, String objClass, String uid) {
+        Map<String, Object> item = new HashMap<String, Object>();
+        item.put(ZimbraBulkProvisioner.ARG_OPERATION, operation);
+        item.put(ZimbraBulkProvisioner.ARG_OBJECT_CLASS, objClass);
+        item.put(ZimbraBulkProvisioner.ARG_UID, uid);
+        return item;
+    }
+
+    private static void assertInvalid(Object item) {
+        try {
+            ZimbraBulkProvisioner.toRequest(3, item);
+            fail();
+        } catch (InvalidAttributeValueException ex) {
+            assertTrue(ex.getMessage().startsWith("Bulk request 3"));
+        }
+    }
+
+    @Test
+    public void toRequest() {
+        Map<String, Object> create = item("create", ObjectClass.ACCOUNT_NAME, "user");
+        create.put(ZimbraBulkProvisioner.ARG_ATTRIBUTES, Collections.singletonMap("givenName", "User"));
+        ZimbraBulkProvisioner.Request request = ZimbraBulkProvisioner.toRequest(0, create);
+        assertEquals(ZimbraBulkProvisioner.Operation.CREATE, request.getOperation());
+        assertEquals(ObjectClass.ACCOUNT, request.getObjectClass());
+        assertEquals(new Uid("user"), request.getUid());
+        assertEquals("user", AttributeUtil.getNameFromAttributes(request.getAttributes()).getNameValue());
+
+        request = ZimbraBulkProvisioner.toRequest(1, item("Delete", ObjectClass.GROUP_NAME, "group"));
+        assertEquals(ZimbraBulkProvisioner.Operation.DELETE, request.getOperation());
+        assertEquals(new Uid("group"), request.getUid());
+    }
+
+    @Test
+    public void invalid() {
+        assertInvalid("CREATE");
+        assertInvalid(item(null, ObjectClass.ACCOUNT_NAME, "user"));
+        assertInvalid(item("rename", ObjectClass.ACCOUNT_NAME, "user"));
+        assertInvalid(item("update", null, "user"));
+        assertInvalid(item("update", ObjectClass.ACCOUNT_NAME, null));
+        assertInvalid(item("delete", ObjectClass.ACCOUNT_NAME, " "));
+        assertInvalid(item("create", ObjectClass.ACCOUNT_NAME, null));
+
+        Map<String, Object> update = item("update", ObjectClass.ACCOUNT_NAME, "user");
+        update.put(ZimbraBulkProvisioner.ARG_ATTRIBUTES, "givenName");
+        assertInvalid(update);
+    }
+
+    @Test
+    public void run() {
+        Map<String, Object> arguments = new HashMap<String, Object>();
+        arguments.put(ZimbraBulkProvisioner.ARG_REQUESTS, Collections.singletonList(
+                item("update", ObjectClass.ACCOUNT_NAME, null)));
+        try {
+            // rejected before the connector is used
+            ZimbraBulkProvisioner.run(null, arguments);
+            fail();
+        } catch (InvalidAttributeValueException ex) {
+            assertTrue(ex.getMessage().contains(ZimbraBulkProvisioner.ARG_UID));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.junit.Test;
+
+/**
+ * Checks which configurations share a connection, and that released ones stay released, without a Zimbra server.
+ */
+public class ZimbraConnectionTests {
+
+    private static ZimbraConfiguration configuration(String password) {
+        ZimbraConfiguration configuration = new ZimbraConfiguration();
+        configuration.setAdminServiceLocation("https://zimbra.example.com:7071/service/admin/soap/");
+        configuration.setAdminUsername("admin");
+        configuration.setAdminPassword(new GuardedString(password.toCharArray()));
+        configuration.setEmailDomainName("example.com");
+        return configuration;
+    }
+
+    @Test
+    public void shared() {
+        ZimbraConnection first = ZimbraConnection.acquire(configuration("secret"));
+        ZimbraConnection second = ZimbraConnection.acquire(configuration("secret"));
+        ZimbraConnection rotated = ZimbraConnection.acquire(configuration("rotated"));
+        ZimbraConfiguration ldap = configuration("secret");
+        ldap.setLdapUrl("ldap://zimbra.example.com:389");
+        ZimbraConnection direct = ZimbraConnection.acquire(ldap);
+        try {
+            assertSame(first, second);
+            assertNotSame(first, rotated);
+            assertNotSame(first, direct);
+        } finally {
+            first.release();
+            second.release();
+            rotated.release();
+            direct.release();
+        }
+    }
+
+    @Test
+    public void key() {
+        ZimbraConfiguration configuration = configuration("secret");
+        String key = ZimbraConnection.toKey(configuration);
+        assertFalse(key.contains("secret"));
+        configuration.setIdCacheTtl(configuration.getIdCacheTtl() + 1);
+        assertFalse(key.equals(ZimbraConnection.toKey(configuration)));
+    }
+
+    @Test
+    public void disposed() {
+        ZimbraConfiguration configuration = configuration("secret");
+        configuration.setLdapUrl("ldap://zimbra.example.com:389");
+        ZimbraConnection connection = ZimbraConnection.acquire(configuration);
+        connection.release();
+
+        // no new login, worker or LDAP pool
+        try {
+            connection.provisioning();
+            fail();
+        } catch (IllegalStateException ex) {
+            // disposed
+        }
+        try {
+            connection.workers();
+            fail();
+        } catch (IllegalStateException ex) {
+            // disposed
+        }
+        try {
+            connection.ldapPool();
+            fail();
+        } catch (IllegalStateException ex) {
+            // disposed
+        }
+    }
+}
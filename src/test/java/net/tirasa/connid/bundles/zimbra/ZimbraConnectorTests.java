@@ -15,14 +15,19 @@
  */
 package net.tirasa.connid.bundles.zimbra;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import com.zimbra.common.soap.AdminConstants;
 import com.zimbra.cs.account.Provisioning;
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.identityconnectors.common.IOUtil;
@@ -44,6 +49,12 @@ import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.ScriptContext;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -267,4 +278,113 @@ public class ZimbraConnectorTests {
                 resolveUsername(ObjectClass.GROUP, GROUP_NAME, null);
         zimbraConnectorFacade.delete(ObjectClass.GROUP, groupId, null);
     }
+
+    @Test
+    public void test16() throws Exception {
+        Map<String, Object> operationOptions = new HashMap<String, Object>();
+        operationOptions.put(OperationOptions.OP_PAGE_SIZE, 2);
+        OperationOptions options = new OperationOptions(operationOptions);
+
+        final List<ConnectorObject> results = new ArrayList<ConnectorObject>();
+        ResultsHandler resultsHandler = new ResultsHandler() {
+
+            @Override
+            public boolean handle(ConnectorObject cobject) {
+                results.add(cobject);
+                return true;
+            }
+        };
+
+        SearchResult searchResult = zimbraConnectorFacade.search(ObjectClass.ACCOUNT, null, resultsHandler, options);
+        assertNotNull(searchResult);
+        assertTrue(results.size() <= 2);
+        if (searchResult.getPagedResultsCookie() != null) {
+            operationOptions.put(OperationOptions.OP_PAGED_RESULTS_COOKIE, searchResult.getPagedResultsCookie());
+            zimbraConnectorFacade.search(ObjectClass.ACCOUNT, null, resultsHandler, new OperationOptions(
+                    operationOptions));
+            assertTrue(results.size() <= 4);
+        }
+    }
+
+    @Test
+    public void test17() throws Exception {
+        SyncToken token = zimbraConnectorFacade.getLatestSyncToken(ObjectClass.ACCOUNT);
+        assertNotNull(token);
+
+        Set<Attribute> accountAttrs = new HashSet<Attribute>();
+        accountAttrs.add(new Name(ACCOUNT_NAME + "sync"));
+        accountAttrs.add(AttributeBuilder.buildPassword(ACCOUNT_PASSWORD));
+        Uid accountId = zimbraConnectorFacade.create(ObjectClass.ACCOUNT, accountAttrs, null);
+        try {
+            final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+            zimbraConnectorFacade.sync(ObjectClass.ACCOUNT, token, new SyncResultsHandler() {
+
+                @Override
+                public boolean handle(SyncDelta delta) {
+                    deltas.add(delta);
+                    return true;
+                }
+            }, null);
+            boolean found = false;
+            for (SyncDelta delta : deltas) {
+                assertEquals(SyncDeltaType.CREATE_OR_UPDATE, delta.getDeltaType());
+                found |= accountId.equals(delta.getUid());
+            }
+            assertTrue(found);
+
+            // nothing changed since the last delta
+            final List<SyncDelta> none = new ArrayList<SyncDelta>();
+            SyncToken last = deltas.get(deltas.size() - 1).getToken();
+            zimbraConnectorFacade.sync(ObjectClass.ACCOUNT, last, new SyncResultsHandler() {
+
+                @Override
+                public boolean handle(SyncDelta delta) {
+                    none.add(delta);
+                    return true;
+                }
+            }, null);
+            assertTrue(none.isEmpty());
+        } finally {
+            zimbraConnectorFacade.delete(ObjectClass.ACCOUNT, accountId, null);
+        }
+    }
+
+    @Test
+    public void test18() throws Exception {
+        Set<Attribute> groupAttrs = new HashSet<Attribute>();
+        groupAttrs.add(new Name(GROUP_NAME));
+        Uid groupId = zimbraConnectorFacade.create(ObjectClass.GROUP, groupAttrs, null);
+        try {
+            Set<Attribute> aliasAttrs = new HashSet<Attribute>();
+            aliasAttrs.add(AttributeBuilder.build(ZimbraSpecialAttributes.ALIASES_NAME, GROUP_ALIAS));
+            groupId = zimbraConnectorFacade.addAttributeValues(ObjectClass.GROUP, groupId, aliasAttrs, null);
+            assertNotNull(groupId);
+            groupId = zimbraConnectorFacade.removeAttributeValues(ObjectClass.GROUP, groupId, aliasAttrs, null);
+            assertNotNull(groupId);
+        } finally {
+            zimbraConnectorFacade.delete(ObjectClass.GROUP, groupId, null);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test19() throws Exception {
+        Map<String, Object> create = new HashMap<String, Object>();
+        create.put(ZimbraBulkProvisioner.ARG_OPERATION, "CREATE");
+        create.put(ZimbraBulkProvisioner.ARG_OBJECT_CLASS, ObjectClass.GROUP_NAME);
+        create.put(ZimbraBulkProvisioner.ARG_UID, GROUP_NAME);
+        Map<String, Object> delete = new HashMap<String, Object>();
+        delete.put(ZimbraBulkProvisioner.ARG_OPERATION, "DELETE");
+        delete.put(ZimbraBulkProvisioner.ARG_OBJECT_CLASS, ObjectClass.GROUP_NAME);
+        delete.put(ZimbraBulkProvisioner.ARG_UID, GROUP_NAME);
+        Map<String, Object> arguments = new HashMap<String, Object>();
+        arguments.put(ZimbraBulkProvisioner.ARG_REQUESTS, Arrays.asList(create, delete));
+
+        List<Map<String, Object>> results = (List<Map<String, Object>>) zimbraConnectorFacade.runScriptOnConnector(
+                new ScriptContext(null, ZimbraBulkProvisioner.ACTION, arguments), null);
+        assertEquals(2, results.size());
+        for (Map<String, Object> result : results) {
+            assertEquals(Boolean.TRUE, result.get(ZimbraBulkProvisioner.ARG_SUCCESS));
+        }
+    }
 }
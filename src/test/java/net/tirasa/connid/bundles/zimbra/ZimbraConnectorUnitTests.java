@@ -0,0 +1,349 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.zimbra.cs.account.Provisioning;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.junit.Test;
+
+/**
+ * Checks the connector logic not requiring a Zimbra server.
+ */
+public class ZimbraConnectorUnitTests {
+
+    /**
+     * First characters of the uids checked against partitions.
+     */
+    private static final String UID_CHARACTERS = "0123456789abcdefghijklmnopqrstuvwxyzABCZ-_.\u00e9";
+
+    /**
+     * Evaluates the LDAP filters built for partitions: <code>&amp;</code>, <code>|</code>, <code>!</code> and
+     * prefix matches, case-insensitive as <code>uid</code> and <code>zimbraId</code> are.
+     *
+     * @param filter LDAP filter
+     * @param attr attribute name
+     * @param value attribute value
+     * @return whether the value matches
+     */
+    private static boolean matches(String filter, String attr, String value) {
+        String body = filter.substring(1, filter.length() - 1);
+        char operator = body.charAt(0);
+        if (operator == '&' || operator == '|' || operator == '!') {
+            List<String> operands = new ArrayList<String>();
+            int depth = 0;
+            int start = 1;
+            for (int i = 1; i < body.length(); i++) {
+                if (body.charAt(i) == '(') {
+                    depth++;
+                } else if (body.charAt(i) == ')' && --depth == 0) {
+                    operands.add(body.substring(start, i + 1));
+                    start = i + 1;
+                }
+            }
+            if (operator == '!') {
+                return !matches(operands.get(0), attr, value);
+            }
+            for (String operand : operands) {
+                if (matches(operand, attr, value) == (operator == '|')) {
+                    return operator == '|';
+                }
+            }
+            return operator == '&';
+        }
+
+        int equals = body.indexOf('=');
+        assertEquals(attr, body.substring(0, equals));
+        assertTrue(body.endsWith("*"));
+        return value.toLowerCase(Locale.ROOT).startsWith(
+                body.substring(equals + 1, body.length() - 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Checks that each value matches exactly one of the given filters.
+     */
+    private static void assertPartitioned(List<String> filters, String attr, List<String> values) {
+        for (String value : values) {
+            int matching = 0;
+            for (String filter : filters) {
+                if (matches(filter, attr, value)) {
+                    matching++;
+                }
+            }
+            assertEquals(filters + " for " + value, 1, matching);
+        }
+    }
+
+    private static List<String> uids() {
+        List<String> uids = new ArrayList<String>();
+        for (char c : UID_CHARACTERS.toCharArray()) {
+            uids.add(c + "user");
+        }
+        return uids;
+    }
+
+    @Test
+    public void toSearchPartitions() {
+        ZimbraConfiguration configuration = new ZimbraConfiguration();
+        ZimbraConnector connector = new ZimbraConnector();
+        connector.init(configuration);
+        assertTrue(connector.toSearchPartitions(ObjectClass.ACCOUNT).isEmpty());
+
+        for (int parallelism = 2; parallelism <= 40; parallelism++) {
+            configuration.setSearchParallelism(parallelism);
+            List<String> partitions = connector.toSearchPartitions(ObjectClass.ACCOUNT);
+            // one partition per group of characters, plus the one of the remaining uids
+            assertEquals(Math.min(parallelism, 36) + 1, partitions.size());
+            assertPartitioned(partitions, "uid", uids());
+        }
+
+        // overlapping and unordered groups
+        configuration.setSearchPartitions(new String[] { "a-c", "B-e", "0-9", "c", " " });
+        List<String> partitions = connector.toSearchPartitions(ObjectClass.ACCOUNT);
+        assertEquals(4, partitions.size());
+        assertPartitioned(partitions, "uid", uids());
+        assertTrue(matches(partitions.get(3), "uid", "zoe"));
+        assertTrue(matches(partitions.get(3), "uid", "-user"));
+        assertTrue(matches(partitions.get(3), "uid", "\u00e9lise"));
+    }
+
+    private static OperationOptions partition(Object index, Object count, String attr) {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put(ZimbraConnector.OP_PARTITION_INDEX, index);
+        options.put(ZimbraConnector.OP_PARTITION_COUNT, count);
+        if (attr != null) {
+            options.put(ZimbraConnector.OP_PARTITION_ATTRIBUTE, attr);
+        }
+        return new OperationOptions(options);
+    }
+
+    private static List<String> toPartitionFilters(ZimbraConnector connector, int count, String attr) {
+        List<String> filters = new ArrayList<String>();
+        for (int index = 0; index < count; index++) {
+            filters.add(connector.toPartitionFilter(ObjectClass.ACCOUNT, partition(index, count, attr)));
+        }
+        return filters;
+    }
+
+    private static void assertInvalidPartition(ZimbraConnector connector, Object index, Object count, String attr) {
+        try {
+            connector.toPartitionFilter(ObjectClass.ACCOUNT, partition(index, count, attr));
+            fail();
+        } catch (InvalidAttributeValueException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void toPartitionFilter() {
+        ZimbraConnector connector = new ZimbraConnector();
+        connector.init(new ZimbraConfiguration());
+        assertNull(connector.toPartitionFilter(ObjectClass.ACCOUNT, null));
+        assertNull(connector.toPartitionFilter(ObjectClass.ACCOUNT, new OperationOptions(
+                Collections.<String, Object>emptyMap())));
+        assertNull(connector.toPartitionFilter(ObjectClass.ACCOUNT, partition(0, 1, null)));
+
+        // 36 characters plus the remaining ones
+        for (int count : new int[] { 2, 3, 7, 36, 37 }) {
+            assertPartitioned(toPartitionFilters(connector, count, null), "uid", uids());
+        }
+        assertTrue(matches(toPartitionFilters(connector, 2, null).get(0), "uid", "alice"));
+        assertTrue(matches(toPartitionFilters(connector, 2, null).get(1), "uid", "-user"));
+
+        List<String> ids = new ArrayList<String>();
+        for (char c : "0123456789abcdefABCDEF".toCharArray()) {
+            for (char d : "09af".toCharArray()) {
+                ids.add(String.valueOf(c) + d + "3e4567-e89b-12d3-a456-426614174000");
+            }
+        }
+        // one hex character per bucket up to 16 partitions, two above
+        for (int count : new int[] { 2, 5, 16, 17, 100, 256 }) {
+            assertPartitioned(toPartitionFilters(connector, count, "zimbraId"), "zimbraId", ids);
+        }
+        assertTrue(matches(toPartitionFilters(connector, 16, "zimbraId").get(10), "zimbraId", ids.get(40)));
+
+        assertInvalidPartition(connector, 2, 2, null);
+        assertInvalidPartition(connector, -1, 2, null);
+        assertInvalidPartition(connector, null, 2, null);
+        assertInvalidPartition(connector, 0, 0, null);
+        assertInvalidPartition(connector, 0, 38, null);
+        assertInvalidPartition(connector, 0, 257, "zimbraId");
+        assertInvalidPartition(connector, "first", 2, null);
+        assertInvalidPartition(connector, 0, "two", null);
+        assertInvalidPartition(connector, 0, 2, "mail");
+    }
+
+    @Test
+    public void diffMembers() {
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        ZimbraConnector.diffMembers(
+                new String[] { "Kept@example.com", "old@example.com", "Gone@example.com" },
+                new String[] { "kept@EXAMPLE.com", "new@example.com", "NEW@example.com", "other@example.com" },
+                added, removed);
+
+        assertEquals(Arrays.asList("new@example.com", "other@example.com"), added);
+        assertEquals(Arrays.asList("old@example.com", "Gone@example.com"), removed);
+    }
+
+    @Test
+    public void diffMembersWithoutCurrent() {
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        ZimbraConnector.diffMembers(null, new String[] { "a@example.com", "A@example.com" }, added, removed);
+
+        assertEquals(Collections.singletonList("a@example.com"), added);
+        assertTrue(removed.isEmpty());
+
+        added.clear();
+        ZimbraConnector.diffMembers(new String[] { "a@example.com" }, new String[0], added, removed);
+        assertTrue(added.isEmpty());
+        assertEquals(Collections.singletonList("a@example.com"), removed);
+    }
+
+    @Test
+    public void toChunks() {
+        List<String> values = Arrays.asList("a", "b", "c", "d", "e", "f");
+
+        assertTrue(ZimbraConnector.toChunks(Collections.<String>emptyList(), 3).isEmpty());
+        assertEquals(
+                Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("d", "e", "f")),
+                ZimbraConnector.toChunks(values, 3));
+        assertEquals(
+                Arrays.asList(Arrays.asList("a", "b", "c", "d"), Arrays.asList("e", "f")),
+                ZimbraConnector.toChunks(values, 4));
+        assertEquals(Collections.singletonList(values), ZimbraConnector.toChunks(values, 6));
+        assertEquals(6, ZimbraConnector.toChunks(values, 1).size());
+    }
+
+    @Test
+    public void toChangedAttributes() {
+        // as set on the entry, without class of service defaults
+        Map<String, Object> current = new HashMap<String, Object>();
+        current.put(Provisioning.A_sn, "Rossi");
+        current.put(Provisioning.A_zimbraMailForwardingAddress, new String[] { "a@example.com", "b@example.com" });
+        current.put(Provisioning.A_description, "guest");
+
+        Map<String, Object> requested = new HashMap<String, Object>();
+        requested.put(Provisioning.A_sn, "Rossi");
+        requested.put(Provisioning.A_zimbraMailForwardingAddress, new String[] { "b@example.com", "a@example.com" });
+        // equal to the default, not set on the entry
+        requested.put(Provisioning.A_zimbraMailQuota, "0");
+        requested.put(Provisioning.A_description, "");
+        requested.put(Provisioning.A_displayName, null);
+
+        Map<String, Object> changed = ZimbraConnector.toChangedAttributes(current, requested);
+        assertEquals(new HashSet<String>(Arrays.asList(Provisioning.A_zimbraMailQuota, Provisioning.A_description)),
+                changed.keySet());
+        assertEquals("0", changed.get(Provisioning.A_zimbraMailQuota));
+        assertEquals("", changed.get(Provisioning.A_description));
+
+        requested.put(Provisioning.A_zimbraMailForwardingAddress, new String[] { "a@example.com" });
+        assertTrue(ZimbraConnector.toChangedAttributes(current, requested).
+                containsKey(Provisioning.A_zimbraMailForwardingAddress));
+        assertTrue(ZimbraConnector.toChangedAttributes(current, Collections.<String, Object>emptyMap()).isEmpty());
+    }
+
+    @Test
+    public void defaultProjection() {
+        ZimbraConfiguration configuration = new ZimbraConfiguration();
+        ZimbraConnector connector = new ZimbraConnector();
+        connector.init(configuration);
+        assertNull(connector.toSearchAttributesToGet(ObjectClass.ACCOUNT, null));
+        assertFalse(Arrays.asList(connector.toSearchAttributesToGet(ObjectClass.GROUP, null)).
+                contains(Provisioning.A_zimbraMailForwardingAddress));
+
+        configuration.setDefaultProjection(ZimbraConfiguration.PROJECTION_SCHEMA);
+        List<String> attrsToGet = Arrays.asList(connector.toSearchAttributesToGet(ObjectClass.GROUP, null));
+        assertTrue(attrsToGet.contains(Provisioning.A_uid));
+        assertTrue(attrsToGet.contains(Provisioning.A_zimbraMailStatus));
+        assertTrue(attrsToGet.contains(Provisioning.A_zimbraMailAlias));
+        assertFalse(attrsToGet.contains(Provisioning.A_zimbraMailForwardingAddress));
+        OperationOptionsBuilder options = new OperationOptionsBuilder();
+        options.setAttributesToGet(ZimbraSpecialAttributes.MEMBERS_NAME);
+        assertTrue(Arrays.asList(connector.toSearchAttributesToGet(ObjectClass.GROUP, options.build())).
+                contains(Provisioning.A_zimbraMailForwardingAddress));
+
+        configuration.setDefaultProjection(ZimbraConfiguration.PROJECTION_LIST);
+        configuration.setDefaultAttributesToGet(new String[] { Provisioning.A_sn, OperationalAttributes.ENABLE_NAME });
+        assertEquals(new HashSet<String>(Arrays.asList(
+                Provisioning.A_uid, Provisioning.A_sn, Provisioning.A_zimbraAccountStatus)),
+                new HashSet<String>(Arrays.asList(connector.toSearchAttributesToGet(ObjectClass.ACCOUNT, null))));
+    }
+
+    @Test
+    public void identityOnly() {
+        assertFalse(ZimbraConnector.isIdentityOnly(null));
+        OperationOptionsBuilder options = new OperationOptionsBuilder();
+        options.setAttributesToGet(Uid.NAME, Name.NAME);
+        assertTrue(ZimbraConnector.isIdentityOnly(options.build()));
+        options.setAttributesToGet(Uid.NAME, Provisioning.A_sn);
+        assertFalse(ZimbraConnector.isIdentityOnly(options.build()));
+        options.setOption(ZimbraConnector.OP_IDENTITY_ONLY, Boolean.TRUE);
+        assertTrue(ZimbraConnector.isIdentityOnly(options.build()));
+
+        ZimbraConnector connector = new ZimbraConnector();
+        connector.init(new ZimbraConfiguration());
+        Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
+        // names with the domain do not need a connection
+        zimbraAttrs.put(Provisioning.A_uid, "guest@example.com");
+        zimbraAttrs.put(Provisioning.A_zimbraId, "0d2c7bf4-6f2c-4a4b-9b0e-5b1e4d3a2c11");
+        zimbraAttrs.put(Provisioning.A_zimbraModifyTimestamp, "20170101000000Z");
+        ConnectorObject object = connector.toIdentityObject(ObjectClass.ACCOUNT, zimbraAttrs);
+        assertEquals("guest", object.getUid().getUidValue());
+        assertEquals(4, object.getAttributes().size());
+        assertEquals("20170101000000Z",
+                AttributeUtil.getStringValue(object.getAttributeByName(Provisioning.A_zimbraModifyTimestamp)));
+    }
+
+    @Test
+    public void countOnly() {
+        OperationOptionsBuilder options = new OperationOptionsBuilder();
+        assertFalse(ZimbraConnector.isCountOnly(options.build()));
+        options.setOption(ZimbraConnector.OP_COUNT_ONLY, "true");
+        assertTrue(ZimbraConnector.isCountOnly(options.build()));
+
+        ZimbraConnector connector = new ZimbraConnector();
+        connector.init(new ZimbraConfiguration());
+        try {
+            connector.runCount(Collections.<String, Object>emptyMap());
+            fail();
+        } catch (InvalidAttributeValueException e) {
+            assertTrue(e.getMessage().contains(ZimbraConnector.ARG_OBJECT_CLASS));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.junit.Test;
+
+/**
+ * Checks the LDAP filters produced by {@link ZimbraFilterTranslator} against the output of the former translator,
+ * based on <code>AbstractFilterTranslator</code>, and the simplifications applied by {@link ZimbraFilterOptimizer}.
+ */
+public class ZimbraFilterTranslatorTests {
+
+    private static String translate(Filter filter) {
+        List<String> queries = new ZimbraFilterTranslator(ObjectClass.ACCOUNT).translate(filter);
+        assertEquals(1, queries.size());
+        return queries.get(0);
+    }
+
+    private static String optimize(Filter filter) {
+        List<String> queries = new ZimbraFilterTranslator(ObjectClass.ACCOUNT, true).translate(filter);
+        assertEquals(1, queries.size());
+        return queries.get(0);
+    }
+
+    private static Filter equalTo(String name, String value) {
+        return FilterBuilder.equalTo(AttributeBuilder.build(name, value));
+    }
+
+    @Test
+    public void leaves() {
+        assertEquals("(uid=guest)", translate(FilterBuilder.equalTo(new Name("guest"))));
+        assertEquals("(zimbraAccountStatus=active)", translate(FilterBuilder.equalTo(
+                AttributeBuilder.buildEnabled(true))));
+        assertEquals("(&(zimbraMailAlias=x)(zimbraMailAlias=y))", translate(FilterBuilder.containsAllValues(
+                AttributeBuilder.build("zimbraMailAlias", "x", "y"))));
+        assertEquals("(jpegPhoto=\\00\\41\\ff)", translate(FilterBuilder.equalTo(
+                AttributeBuilder.build("jpegPhoto", (Object) new byte[] { 0, 0x41, (byte) 0xff }))));
+        assertEquals("(|(!(cn>=m))(|(cn<=n)(cn>=o)))", translate(FilterBuilder.or(
+                FilterBuilder.lessThan(AttributeBuilder.build("cn", "m")),
+                FilterBuilder.or(
+                        FilterBuilder.lessThanOrEqualTo(AttributeBuilder.build("cn", "n")),
+                        FilterBuilder.greaterThanOrEqualTo(AttributeBuilder.build("cn", "o"))))));
+    }
+
+    @Test
+    public void escaping() {
+        assertEquals("(&(sn=Rossi)(givenName=Nicol\\c3\\b2*))", translate(FilterBuilder.and(
+                FilterBuilder.equalTo(AttributeBuilder.build("sn", "Rossi")),
+                FilterBuilder.startsWith(AttributeBuilder.build("givenName", "Nicolò")))));
+        assertEquals("(|(cn=*a\\2ab\\28c\\29\\5cd\\00*)(mail=*@example.com))", translate(FilterBuilder.or(
+                FilterBuilder.contains(AttributeBuilder.build("cn", "a*b(c)\\d\u0000")),
+                FilterBuilder.endsWith(AttributeBuilder.build("mail", "@example.com")))));
+        assertEquals("(sn=\\e2\\82\\ac uro)", translate(FilterBuilder.equalsIgnoreCase(
+                AttributeBuilder.build("sn", "€ uro"))));
+        assertEquals("(!(displayName=smile \\3f\\3f \\3f))", translate(FilterBuilder.not(FilterBuilder.equalTo(
+                AttributeBuilder.build("displayName", "smile 😀 \ude00")))));
+    }
+
+    @Test
+    public void negations() {
+        assertEquals("(|(!(uid=a))(zimbraCreateTimestamp<=2020))", translate(FilterBuilder.not(FilterBuilder.and(
+                FilterBuilder.equalTo(AttributeBuilder.build("uid", "a")),
+                FilterBuilder.greaterThan(AttributeBuilder.build("zimbraCreateTimestamp", "2020"))))));
+        assertEquals("(uid=z)", translate(FilterBuilder.not(FilterBuilder.not(
+                FilterBuilder.equalTo(AttributeBuilder.build("uid", "z"))))));
+        assertEquals("(&(!(uid=p))(uid=q*))", translate(FilterBuilder.not(FilterBuilder.or(
+                FilterBuilder.equalTo(AttributeBuilder.build("uid", "p")),
+                FilterBuilder.not(FilterBuilder.startsWith(new Uid("q@example.com")))))));
+        assertEquals("(|(uid=a)(&(uid=b)(uid=c)))", translate(FilterBuilder.or(Arrays.<Filter>asList(
+                FilterBuilder.equalTo(AttributeBuilder.build("uid", "a")),
+                FilterBuilder.equalTo(AttributeBuilder.build("uid", "b")),
+                FilterBuilder.equalTo(AttributeBuilder.build("uid", "c"))))));
+        assertEquals(Collections.<String>emptyList(), new ZimbraFilterTranslator(ObjectClass.ACCOUNT).translate(null));
+    }
+
+    @Test
+    public void largeOr() {
+        Filter filter = null;
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            Filter uid = FilterBuilder.equalTo(AttributeBuilder.build("uid", "utenteà" + i));
+            filter = filter == null ? uid : FilterBuilder.or(filter, uid);
+            expected.add("(uid=utente\\c3\\a0" + i + ")");
+        }
+        String query = translate(filter);
+        assertTrue(query.startsWith("(|(|(|"));
+        assertTrue(query.endsWith(expected.get(4998) + ")" + expected.get(4999) + ")"));
+    }
+
+    @Test
+    public void optimized() {
+        // flattened, deduplicated and reordered: indexed equalities, other conditions, negations
+        assertEquals("(&(mail=a@example.com)(uid=b)(sn=R*)(!(cn=x)))", optimize(FilterBuilder.and(
+                FilterBuilder.and(
+                        FilterBuilder.startsWith(AttributeBuilder.build("sn", "R")),
+                        FilterBuilder.not(equalTo("cn", "x"))),
+                FilterBuilder.and(
+                        equalTo("mail", "a@example.com"),
+                        FilterBuilder.and(FilterBuilder.equalTo(new Name("b")),
+                                FilterBuilder.startsWith(AttributeBuilder.build("sn", "R")))))));
+        // n-ary or kept as or
+        assertEquals("(|(uid=a)(uid=b)(uid=c))", optimize(FilterBuilder.or(Arrays.<Filter>asList(
+                equalTo("uid", "a"), equalTo("uid", "b"), equalTo("uid", "c")))));
+        // negated or of a negation
+        assertEquals("(&(uid=q*)(!(uid=p)))", optimize(FilterBuilder.not(FilterBuilder.or(
+                equalTo("uid", "p"),
+                FilterBuilder.not(FilterBuilder.startsWith(new Uid("q@example.com")))))));
+        // greater than is a negation, negated back
+        assertEquals("(cn<=m)", optimize(FilterBuilder.not(FilterBuilder.greaterThan(
+                AttributeBuilder.build("cn", "m")))));
+        assertEquals("(uid=z)", optimize(FilterBuilder.and(equalTo("uid", "z"), equalTo("uid", "z"))));
+    }
+
+    @Test
+    public void complementary() {
+        assertEquals("(!(objectClass=*))", optimize(FilterBuilder.and(
+                equalTo("cn", "x"), FilterBuilder.not(equalTo("cn", "x")))));
+        assertEquals("(objectClass=*)", optimize(FilterBuilder.or(
+                FilterBuilder.not(equalTo("cn", "x")), equalTo("cn", "x"))));
+        // always false operand dropped from or, always true from and
+        assertEquals("(sn=y)", optimize(FilterBuilder.or(
+                FilterBuilder.and(equalTo("cn", "x"), FilterBuilder.not(equalTo("cn", "x"))),
+                equalTo("sn", "y"))));
+        assertEquals("(sn=y)", optimize(FilterBuilder.and(
+                FilterBuilder.or(equalTo("cn", "x"), FilterBuilder.not(equalTo("cn", "x"))),
+                equalTo("sn", "y"))));
+        assertEquals("(!(objectClass=*))", optimize(FilterBuilder.not(FilterBuilder.or(
+                equalTo("cn", "x"), FilterBuilder.not(equalTo("cn", "x"))))));
+    }
+
+    @Test
+    public void largeOptimizedOr() {
+        Filter filter = null;
+        StringBuilder expected = new StringBuilder("(|");
+        for (int i = 0; i < 5000; i++) {
+            Filter uid = equalTo("uid", "utente" + i);
+            filter = filter == null ? uid : FilterBuilder.or(filter, FilterBuilder.or(uid, uid));
+            expected.append("(uid=utente").append(i).append(')');
+        }
+        assertEquals(expected.append(')').toString(), optimize(filter));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Checks expiration, eviction and invalidation of cached ids.
+ */
+public class ZimbraIdCacheTests {
+
+    private static final long TTL = 60000L;
+
+    @Test
+    public void get() {
+        ZimbraIdCache cache = new ZimbraIdCache(10, TTL, TTL);
+        assertNull(cache.get("user@example.com"));
+
+        cache.put("User@Example.com", "id1");
+        assertEquals("id1", cache.get("user@example.com"));
+        assertEquals("id1", cache.get("USER@EXAMPLE.COM"));
+    }
+
+    @Test
+    public void expiration() throws InterruptedException {
+        ZimbraIdCache cache = new ZimbraIdCache(10, 50L, TTL);
+        cache.put("user@example.com", "id1");
+        cache.putAbsent("missing@example.com");
+        assertEquals("id1", cache.get("user@example.com"));
+
+        Thread.sleep(100L);
+        assertNull(cache.get("user@example.com"));
+        assertEquals(ZimbraIdCache.ABSENT, cache.get("missing@example.com"));
+    }
+
+    @Test
+    public void absent() throws InterruptedException {
+        ZimbraIdCache cache = new ZimbraIdCache(10, TTL, 50L);
+        cache.putAbsent("missing@example.com");
+        assertEquals(ZimbraIdCache.ABSENT, cache.get("missing@example.com"));
+
+        Thread.sleep(100L);
+        assertNull(cache.get("missing@example.com"));
+
+        // absent names not cached at all
+        cache = new ZimbraIdCache(10, TTL, 0L);
+        cache.putAbsent("missing@example.com");
+        assertNull(cache.get("missing@example.com"));
+    }
+
+    @Test
+    public void disabled() {
+        ZimbraIdCache cache = new ZimbraIdCache(10, 0L, TTL);
+        cache.put("user@example.com", "id1");
+        assertNull(cache.get("user@example.com"));
+
+        cache = new ZimbraIdCache(0, TTL, TTL);
+        cache.put("user@example.com", "id1");
+        assertNull(cache.get("user@example.com"));
+    }
+
+    @Test
+    public void eviction() {
+        ZimbraIdCache cache = new ZimbraIdCache(2, TTL, TTL);
+        cache.put("first@example.com", "id1");
+        cache.put("second@example.com", "id2");
+        // makes second the least recently used
+        assertEquals("id1", cache.get("first@example.com"));
+        cache.put("third@example.com", "id3");
+
+        assertEquals("id1", cache.get("first@example.com"));
+        assertNull(cache.get("second@example.com"));
+        assertEquals("id3", cache.get("third@example.com"));
+    }
+
+    @Test
+    public void invalidation() {
+        ZimbraIdCache cache = new ZimbraIdCache(10, TTL, TTL);
+
+        // create after a failed lookup
+        cache.putAbsent("user@example.com");
+        cache.put("user@example.com", "id1");
+        assertEquals("id1", cache.get("user@example.com"));
+
+        // rename
+        cache.remove("user@example.com");
+        cache.put("renamed@example.com", "id1");
+        assertNull(cache.get("user@example.com"));
+        assertEquals("id1", cache.get("renamed@example.com"));
+
+        // delete
+        cache.putAbsent("renamed@example.com");
+        assertEquals(ZimbraIdCache.ABSENT, cache.get("renamed@example.com"));
+
+        cache.put("other@example.com", "id2");
+        cache.clear();
+        assertNull(cache.get("other@example.com"));
+        assertNull(cache.get("renamed@example.com"));
+    }
+}
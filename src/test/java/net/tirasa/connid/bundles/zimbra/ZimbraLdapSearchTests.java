@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldif.LDIFException;
+import com.zimbra.cs.account.Provisioning;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how LDAP searches and entries are mapped, and how entries are paged from an in-memory LDAP server.
+ */
+public class ZimbraLdapSearchTests {
+
+    private static final String BASE = "ou=people,dc=example,dc=com";
+
+    private static final int ACCOUNTS = 7;
+
+    private final AtomicInteger searches = new AtomicInteger();
+
+    /**
+     * Delay of the server before answering entry searches, in milliseconds.
+     */
+    private volatile long stall;
+
+    private InMemoryDirectoryServer server;
+
+    private ZimbraLdapPool pool;
+
+    @Before
+    public void start() throws LDAPException, LDIFException {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig("dc=example,dc=com");
+        // no Zimbra schema
+        config.setSchema(null);
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+
+            @Override
+            public void processSearchRequest(InMemoryInterceptedSearchRequest request) {
+                // entry searches only, not those of the domain entry
+                if (request.getRequest().getBaseDN().startsWith("ou=people,")) {
+                    searches.incrementAndGet();
+                    try {
+                        Thread.sleep(stall);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: dc=example,dc=com", "objectClass: domain", "objectClass: zimbraDomain", "dc: example",
+                "zimbraDomainName: example.com");
+        server.add("dn: " + BASE, "objectClass: organizationalUnit", "ou: people");
+        for (int i = 0; i < ACCOUNTS; i++) {
+            server.add("dn: uid=user" + i + "," + BASE, "objectClass: zimbraAccount", "uid: user" + i,
+                    "zimbraMailAlias: alias" + i + "@example.com", "userPassword: secret");
+        }
+        server.add("dn: uid=room," + BASE, "objectClass: zimbraAccount", "objectClass: zimbraCalendarResource",
+                "uid: room");
+        server.add("dn: uid=staff," + BASE, "objectClass: zimbraDistributionList", "uid: staff");
+        // domain entry not named after the domain
+        server.add("dn: o=tenant,dc=example,dc=com", "objectClass: organization", "objectClass: zimbraDomain",
+                "o: tenant", "zimbraDomainName: tenant.test");
+        server.add("dn: ou=people,o=tenant,dc=example,dc=com", "objectClass: organizationalUnit", "ou: people");
+        server.add("dn: uid=guest,ou=people,o=tenant,dc=example,dc=com", "objectClass: zimbraAccount",
+                "uid: guest");
+        server.startListening();
+
+        pool = new ZimbraLdapPool("ldap://localhost:" + server.getListenPort(), null, null, 1, 5000);
+    }
+
+    @After
+    public void stop() {
+        pool.close();
+        server.shutDown(true);
+    }
+
+    private List<String> stream(ObjectClass objClass, String query, final int max) throws NamingException {
+        return stream("example.com", objClass, query, max);
+    }
+
+    private List<String> stream(String domain, ObjectClass objClass, String query, final int max)
+            throws NamingException {
+
+        final List<String> uids = new ArrayList<String>();
+        int handled = new ZimbraLdapSearch(pool, domain, objClass, query,
+                new String[] { Provisioning.A_uid, Provisioning.A_zimbraMailAlias, Provisioning.A_userPassword }).
+                stream(new ZimbraSearch.EntryHandler() {
+
+                    @Override
+                    public boolean handle(Map<String, Object> zimbraAttrs) {
+                        assertFalse(zimbraAttrs.containsKey(Provisioning.A_userPassword));
+                        uids.add((String) zimbraAttrs.get(Provisioning.A_uid));
+                        return uids.size() < max;
+                    }
+                }, 3);
+        assertEquals(uids.size(), handled);
+        return uids;
+    }
+
+    private static List<String> accounts(int count) {
+        List<String> uids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            uids.add("user" + i);
+        }
+        return uids;
+    }
+
+    @Test
+    public void base() {
+        assertEquals("ou=people,dc=mail,dc=example,dc=com", ZimbraLdapSearch.toBase("dc=mail,dc=example,dc=com"));
+    }
+
+    @Test
+    public void filter() {
+        assertEquals("(&(objectClass=zimbraAccount)(!(objectClass=zimbraCalendarResource))(uid=guest))",
+                ZimbraLdapSearch.toFilter(ObjectClass.ACCOUNT, "(uid=guest)"));
+        assertEquals("(&(objectClass=zimbraDistributionList))", ZimbraLdapSearch.toFilter(ObjectClass.GROUP, null));
+    }
+
+    @Test
+    public void attrs() throws NamingException {
+        BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(Provisioning.A_uid, "guest");
+        BasicAttribute aliases = new BasicAttribute(Provisioning.A_zimbraMailAlias);
+        aliases.add("ospite@example.com");
+        aliases.add("gast@example.com");
+        attributes.put(aliases);
+        attributes.put(Provisioning.A_userPassword, "{SSHA}secret");
+        attributes.put("jpegPhoto", new byte[] { 1, 2, 3 });
+
+        Map<String, Object> zimbraAttrs = ZimbraLdapSearch.toAttrs(attributes);
+        assertEquals(2, zimbraAttrs.size());
+        assertEquals("guest", zimbraAttrs.get(Provisioning.A_uid));
+        assertArrayEquals(new String[] { "ospite@example.com", "gast@example.com" },
+                (Object[]) zimbraAttrs.get(Provisioning.A_zimbraMailAlias));
+        assertFalse(zimbraAttrs.containsKey(Provisioning.A_userPassword));
+    }
+
+    @Test
+    public void pages() throws NamingException {
+        List<String> uids = stream(ObjectClass.ACCOUNT, null, Integer.MAX_VALUE);
+        // no given order
+        Collections.sort(uids);
+        assertEquals(accounts(ACCOUNTS), uids);
+        // 3 + 3 + 1
+        assertEquals(3, searches.get());
+
+        searches.set(0);
+        assertEquals(Collections.singletonList("staff"), stream(ObjectClass.GROUP, null, Integer.MAX_VALUE));
+        assertEquals(Collections.singletonList("user4"), stream(ObjectClass.ACCOUNT, "(uid=user4)", Integer.MAX_VALUE));
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    public void handlerStop() throws NamingException {
+        assertEquals(4, stream(ObjectClass.ACCOUNT, null, 4).size());
+        assertEquals(2, searches.get());
+
+        // abandoned paged search: a new connection pages from the start
+        List<String> uids = stream(ObjectClass.ACCOUNT, null, Integer.MAX_VALUE);
+        Collections.sort(uids);
+        assertEquals(accounts(ACCOUNTS), uids);
+    }
+
+    @Test
+    public void domain() throws NamingException {
+        assertEquals(Collections.singletonList("guest"),
+                stream("tenant.test", ObjectClass.ACCOUNT, null, Integer.MAX_VALUE));
+        assertEquals("o=tenant,dc=example,dc=com", pool.getDomainDn("Tenant.Test"));
+        try {
+            stream("missing.test", ObjectClass.ACCOUNT, null, Integer.MAX_VALUE);
+            fail();
+        } catch (NameNotFoundException ex) {
+            // no domain entry
+        }
+    }
+
+    @Test
+    public void timeout() throws NamingException {
+        ZimbraLdapPool stalled = new ZimbraLdapPool("ldap://localhost:" + server.getListenPort(), null, null, 1, 200);
+        ZimbraSearch.EntryHandler handler = new ZimbraSearch.EntryHandler() {
+
+            @Override
+            public boolean handle(Map<String, Object> zimbraAttrs) {
+                return true;
+            }
+        };
+        stall = 2000L;
+        long start = System.currentTimeMillis();
+        try {
+            new ZimbraLdapSearch(stalled, "example.com", ObjectClass.ACCOUNT, null, null).stream(handler, 3);
+            fail();
+        } catch (NamingException ex) {
+            // read timed out
+            assertTrue(System.currentTimeMillis() - start < 2000L);
+        } finally {
+            stall = 0L;
+            stalled.close();
+        }
+    }
+}
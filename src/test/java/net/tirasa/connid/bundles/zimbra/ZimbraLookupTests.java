@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.junit.Test;
+
+/**
+ * Checks which translated queries are answered by {@link ZimbraLookup} instead of a directory search.
+ */
+public class ZimbraLookupTests {
+
+    private static String keys(String query) {
+        List<String[]> keys = ZimbraLookup.parse(query);
+        if (keys == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String[] key : keys) {
+            sb.append(key[0]).append(':').append(key[1]).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void lookups() {
+        ZimbraFilterTranslator translator = new ZimbraFilterTranslator(ObjectClass.ACCOUNT, true);
+        assertEquals("uid:guest", keys(translator.translate(FilterBuilder.equalTo(new Uid("guest@example.com"))).
+                get(0)));
+        assertEquals("uid:nicolò", keys(translator.translate(FilterBuilder.equalTo(new Name("nicolò"))).get(0)));
+        assertEquals("uid:a uid:b zimbraId:c", keys(translator.translate(FilterBuilder.or(
+                FilterBuilder.or(FilterBuilder.equalTo(new Name("a")), FilterBuilder.equalTo(new Name("b"))),
+                FilterBuilder.equalTo(AttributeBuilder.build("zimbraId", "c")))).get(0)));
+        assertEquals("uid:a uid:b zimbraId:c", keys("(|(|(uid=a)(uid=b))(zimbraId=c))"));
+        assertEquals("uid:a\\*", keys("(uid=a\\5c\\2a)"));
+    }
+
+    @Test
+    public void searches() {
+        assertNull(keys(null));
+        assertNull(keys(""));
+        assertNull(keys("(uid=a*)"));
+        assertNull(keys("(uid>=a)"));
+        assertNull(keys("(mail=a@example.com)"));
+        assertNull(keys("(!(uid=a))"));
+        assertNull(keys("(&(uid=a)(sn=b))"));
+        assertNull(keys("(|(uid=a)(sn=b))"));
+        assertNull(keys("(uid=a)(uid=b)"));
+        assertNull(keys("(|(uid=a))(uid=b)"));
+        assertNull(keys("(|(uid=a)"));
+        assertNull(keys("(uid=\\4)"));
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Checks direct and nested memberships read from {@link ZimbraMembershipIndex}.
+ */
+public class ZimbraMembershipIndexTests {
+
+    @Test
+    public void memberships() {
+        ZimbraMembershipIndex index = new ZimbraMembershipIndex();
+        index.add("staff@example.com", new String[] { "Guest@example.com", "ospite@example.com" });
+        index.add("all@example.com", new String[] { "staff@example.com", "admin@example.com" });
+        index.add("loop@example.com", "all@example.com");
+        index.add("all@example.com", "loop@example.com");
+        index.add("empty@example.com", null);
+
+        assertEquals(6, index.size());
+        assertEquals(Arrays.asList("all@example.com", "loop@example.com", "staff@example.com"),
+                index.get(Collections.singletonList("guest@EXAMPLE.com")));
+        assertEquals(Arrays.asList("all@example.com", "loop@example.com", "staff@example.com"),
+                index.get(Arrays.asList("nobody@example.com", "ospite@example.com")));
+        assertEquals(Arrays.asList("all@example.com", "loop@example.com"),
+                index.get(Collections.singletonList("admin@example.com")));
+        assertTrue(index.get(Collections.singletonList("nobody@example.com")).isEmpty());
+
+        assertFalse(index.isExpired(60000));
+        assertTrue(index.isExpired(0));
+    }
+
+    @Test
+    public void aliases() {
+        ZimbraMembershipIndex index = new ZimbraMembershipIndex();
+        index.add("staff@example.com", "guest@example.com");
+        index.addAliases("staff@example.com", new String[] { "personale@example.com", "team@example.com" });
+        index.add("all@example.com", "Personale@example.com");
+        index.add("everyone@example.com", "all@example.com");
+        index.addAliases("unused@example.com", null);
+
+        assertEquals(Arrays.asList("all@example.com", "everyone@example.com", "staff@example.com"),
+                index.get(Collections.singletonList("guest@example.com")));
+        assertEquals(Arrays.asList("all@example.com", "everyone@example.com"),
+                index.get(Collections.singletonList("staff@example.com")));
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Provisioning;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks how {@link ZimbraParallelSearch} merges and drains partitions, with in-memory partitions.
+ */
+public class ZimbraParallelSearchTests {
+
+    /**
+     * Query of a partition failing after returning its entries.
+     */
+    private static final String FAILING = "failing";
+
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+
+    /**
+     * Entries by partition query.
+     */
+    private final Map<String, List<String>> partitions = new HashMap<String, List<String>>();
+
+    @After
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        // partitions end even when not drained
+        assertTrue(workers.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private ZimbraParallelSearch newParallelSearch(boolean ordered) {
+        return new ZimbraParallelSearch(null, ObjectClass.ACCOUNT, null,
+                new ArrayList<String>(partitions.keySet()), null, ordered) {
+
+            @Override
+            protected ExecutorService workers() {
+                return workers;
+            }
+
+            @Override
+            protected ZimbraSearch newSearch(final String query) {
+                return new ZimbraSearch(null, null, ObjectClass.ACCOUNT, query, null) {
+
+                    @Override
+                    public int stream(EntryHandler handler, int pageSize) throws ServiceException {
+                        int found = 0;
+                        for (String uid : partitions.get(query)) {
+                            Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
+                            zimbraAttrs.put(Provisioning.A_uid, uid);
+                            found++;
+                            if (!handler.handle(zimbraAttrs)) {
+                                return found;
+                            }
+                        }
+                        if (query.startsWith(FAILING)) {
+                            throw ServiceException.FAILURE("partition failed", null);
+                        }
+                        return found;
+                    }
+                };
+            }
+        };
+    }
+
+    private List<String> search(boolean ordered, final int max) throws ServiceException {
+        final List<String> uids = new ArrayList<String>();
+        int handled = newParallelSearch(ordered).stream(new ZimbraSearch.EntryHandler() {
+
+            @Override
+            public boolean handle(Map<String, Object> zimbraAttrs) {
+                uids.add((String) zimbraAttrs.get(Provisioning.A_uid));
+                return uids.size() < max;
+            }
+        }, 2);
+        assertEquals(uids.size(), handled);
+        return uids;
+    }
+
+    private static List<String> range(String prefix, int count) {
+        List<String> uids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            uids.add(String.format("%s%03d", prefix, i));
+        }
+        return uids;
+    }
+
+    @Test
+    public void merge() throws ServiceException {
+        partitions.put("(uid=a*)", Arrays.asList("alice", "Anna", "arthur"));
+        partitions.put("(uid=b*)", Arrays.asList("Bob", "bruce"));
+        partitions.put("(!(|(uid=a*)(uid=b*)))", Arrays.asList("1st", "carol", "zoe"));
+        partitions.put("(uid=x*)", Collections.<String>emptyList());
+
+        assertEquals(
+                Arrays.asList("1st", "alice", "Anna", "arthur", "Bob", "bruce", "carol", "zoe"),
+                search(true, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void drain() throws ServiceException {
+        partitions.put("(uid=a*)", range("a", 50));
+        partitions.put("(uid=b*)", range("b", 50));
+        partitions.put("(uid=c*)", Collections.<String>emptyList());
+
+        List<String> uids = search(false, Integer.MAX_VALUE);
+        Collections.sort(uids);
+        List<String> expected = new ArrayList<String>(range("a", 50));
+        expected.addAll(range("b", 50));
+        assertEquals(expected, uids);
+    }
+
+    @Test
+    public void stop() throws ServiceException {
+        partitions.put("(uid=a*)", range("a", 100));
+        partitions.put("(uid=b*)", range("b", 100));
+
+        assertEquals(range("a", 5), search(true, 5));
+        assertEquals(5, search(false, 5).size());
+    }
+
+    @Test
+    public void failure() {
+        partitions.put("(uid=a*)", range("a", 10));
+        partitions.put(FAILING, range("b", 3));
+
+        for (boolean ordered : new boolean[] { true, false }) {
+            try {
+                search(ordered, Integer.MAX_VALUE);
+                fail();
+            } catch (ServiceException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.zimbra.cs.account.Provisioning;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the differences reported by {@link ZimbraSnapshot} between consecutive synchronizations.
+ */
+public class ZimbraSnapshotTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, Object> entry(String uid, String sn) {
+        Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
+        zimbraAttrs.put(Provisioning.A_uid, uid);
+        zimbraAttrs.put(Provisioning.A_sn, sn);
+        zimbraAttrs.put(Provisioning.A_zimbraModifyTimestamp, String.valueOf(System.nanoTime()));
+        return zimbraAttrs;
+    }
+
+    /**
+     * @return differences reported, as <code>TYPE uid</code>
+     */
+    private static List<String> sync(File file, Map<String, Map<String, Object>> directory, final int max)
+            throws IOException {
+
+        return sync(file, directory, max, true);
+    }
+
+    private static List<String> sync(
+            File file, Map<String, Map<String, Object>> directory, final int max, boolean compare)
+            throws IOException {
+
+        final List<String> deltas = new ArrayList<String>();
+        ZimbraSnapshot snapshot = new ZimbraSnapshot(file, new ZimbraSnapshot.DeltaHandler() {
+
+            @Override
+            public boolean handle(
+                    SyncDeltaType type, String zimbraId, String zimbraName, Map<String, Object> zimbraAttrs) {
+
+                deltas.add(type + " " + zimbraName);
+                return deltas.size() < max;
+            }
+        });
+        try {
+            snapshot.open(compare);
+            for (Map.Entry<String, Map<String, Object>> entry : new TreeMap<String, Map<String, Object>>(directory).
+                    entrySet()) {
+
+                snapshot.add(entry.getKey(), (String) entry.getValue().get(Provisioning.A_uid),
+                        ZimbraSnapshot.hash(entry.getValue(),
+                                Collections.singletonList(Provisioning.A_zimbraModifyTimestamp)),
+                        entry.getValue());
+            }
+            assertEquals(deltas.size(), snapshot.commit());
+        } finally {
+            snapshot.close();
+        }
+        return deltas;
+    }
+
+    @Test
+    public void deltas() throws IOException {
+        File file = new File(folder.getRoot(), "example.com-__ACCOUNT__.snapshot");
+        Map<String, Map<String, Object>> directory = new HashMap<String, Map<String, Object>>();
+        directory.put("id-1", entry("alice", "A"));
+        directory.put("id-2", entry("bob", "B"));
+        directory.put("id-3", entry("carol", "C"));
+        assertEquals(Arrays.asList("CREATE alice", "CREATE bob", "CREATE carol"),
+                sync(file, directory, Integer.MAX_VALUE));
+
+        // timestamps only: no changes
+        directory.put("id-2", entry("bob", "B"));
+        assertEquals(Collections.<String>emptyList(), sync(file, directory, Integer.MAX_VALUE));
+
+        directory.remove("id-1");
+        directory.put("id-2", entry("bob", "Bee"));
+        directory.put("id-4", entry("dave", "D"));
+        directory.put("id-0", entry("zoe", "Z"));
+        assertEquals(Arrays.asList("CREATE zoe", "DELETE alice", "UPDATE bob", "CREATE dave"),
+                sync(file, directory, Integer.MAX_VALUE));
+        assertEquals(Collections.<String>emptyList(), sync(file, directory, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void stopped() throws IOException {
+        File file = new File(folder.getRoot(), "example.com-__GROUP__.snapshot");
+        Map<String, Map<String, Object>> directory = new HashMap<String, Map<String, Object>>();
+        directory.put("id-1", entry("staff", "S"));
+        directory.put("id-2", entry("all", "A"));
+        sync(file, directory, Integer.MAX_VALUE);
+
+        directory.remove("id-1");
+        directory.put("id-2", entry("all", "All"));
+        directory.put("id-3", entry("admins", "Ad"));
+        // changes not reported are kept for the next synchronization
+        assertEquals(Collections.singletonList("DELETE staff"), sync(file, directory, 1));
+        assertEquals(Collections.singletonList("UPDATE all"), sync(file, directory, 1));
+        assertEquals(Collections.singletonList("CREATE admins"), sync(file, directory, 1));
+        assertEquals(Collections.<String>emptyList(), sync(file, directory, 1));
+    }
+
+    @Test
+    public void hash() {
+        Map<String, Object> zimbraAttrs = entry("alice", "A");
+        zimbraAttrs.put(Provisioning.A_zimbraMailAlias, new String[] { "a@example.com", "b@example.com" });
+        List<String> excluded = Collections.singletonList(Provisioning.A_zimbraModifyTimestamp);
+        long hash = ZimbraSnapshot.hash(zimbraAttrs, excluded);
+
+        zimbraAttrs.put(Provisioning.A_zimbraMailAlias, new String[] { "b@example.com", "a@example.com" });
+        zimbraAttrs.put(Provisioning.A_zimbraModifyTimestamp, "20200101000000Z");
+        assertEquals(hash, ZimbraSnapshot.hash(zimbraAttrs, excluded));
+
+        zimbraAttrs.put(Provisioning.A_zimbraMailAlias, "a@example.com");
+        assertNotEquals(hash, ZimbraSnapshot.hash(zimbraAttrs, excluded));
+    }
+
+    @Test
+    public void generation() throws IOException {
+        File file = new File(folder.getRoot(), "example.com-__ACCOUNT__.snapshot");
+        Map<String, Map<String, Object>> directory = new HashMap<String, Map<String, Object>>();
+        directory.put("id-1", entry("alice", "A"));
+        assertNull(ZimbraSnapshot.readGeneration(file));
+
+        sync(file, directory, Integer.MAX_VALUE);
+        Long first = ZimbraSnapshot.readGeneration(file);
+        sync(file, directory, Integer.MAX_VALUE);
+        Long second = ZimbraSnapshot.readGeneration(file);
+        assertTrue(second > first);
+
+        // without comparing, all entries are reported again
+        assertEquals(Collections.singletonList("CREATE alice"), sync(file, directory, Integer.MAX_VALUE, false));
+        assertTrue(ZimbraSnapshot.readGeneration(file) > second);
+    }
+
+    private static ZimbraSnapshot newSnapshot(File file) {
+        return new ZimbraSnapshot(file, new ZimbraSnapshot.DeltaHandler() {
+
+            @Override
+            public boolean handle(
+                    SyncDeltaType type, String zimbraId, String zimbraName, Map<String, Object> zimbraAttrs) {
+
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void pending() throws IOException {
+        File file = new File(folder.getRoot(), "example.com-__ACCOUNT__.snapshot");
+        Map<String, Map<String, Object>> directory = new HashMap<String, Map<String, Object>>();
+        directory.put("id-1", entry("alice", "A"));
+        sync(file, directory, Integer.MAX_VALUE);
+        Long committed = ZimbraSnapshot.readGeneration(file);
+
+        // failing before the commit
+        ZimbraSnapshot snapshot = newSnapshot(file);
+        snapshot.open(true);
+        assertNull(snapshot.getPendingGeneration());
+        long failed = snapshot.getGeneration();
+        snapshot.close();
+        assertEquals(committed, ZimbraSnapshot.readGeneration(file));
+
+        // all failed synchronizations report the same generation, until committed
+        for (int i = 0; i < 2; i++) {
+            snapshot = newSnapshot(file);
+            snapshot.open(true);
+            assertEquals(committed, snapshot.getPreviousGeneration());
+            assertEquals(Long.valueOf(failed), snapshot.getPendingGeneration());
+            assertEquals(failed, snapshot.getGeneration());
+            snapshot.close();
+        }
+
+        sync(file, directory, Integer.MAX_VALUE);
+        assertEquals(Long.valueOf(failed), ZimbraSnapshot.readGeneration(file));
+        snapshot = newSnapshot(file);
+        snapshot.open(true);
+        assertNull(snapshot.getPendingGeneration());
+        assertTrue(snapshot.getGeneration() > failed);
+        snapshot.close();
+    }
+
+    @Test
+    public void locked() throws IOException {
+        File file = new File(folder.getRoot(), "example.com-__ACCOUNT__.snapshot");
+        ZimbraSnapshot snapshot = newSnapshot(file);
+        snapshot.open(true);
+        try {
+            sync(file, Collections.<String, Map<String, Object>>emptyMap(), Integer.MAX_VALUE);
+            fail();
+        } catch (IOException ex) {
+            // concurrent synchronization
+        } finally {
+            snapshot.close();
+        }
+        assertNull(ZimbraSnapshot.readGeneration(file));
+        sync(file, Collections.<String, Map<String, Object>>emptyMap(), Integer.MAX_VALUE);
+        assertTrue(file.isFile());
+    }
+
+    @Test
+    public void token() {
+        assertNull(ZimbraSnapshot.fromSyncToken(null));
+        assertEquals(Long.valueOf(1500000000000L),
+                ZimbraSnapshot.fromSyncToken(ZimbraSnapshot.toSyncToken(1500000000000L)));
+
+        for (Object value : new Object[] { 1500000000000L, "20200101000000Z|id", "snapshot:latest" }) {
+            try {
+                ZimbraSnapshot.fromSyncToken(new SyncToken(value));
+                fail();
+            } catch (InvalidAttributeValueException ex) {
+                // not a snapshot token
+            }
+        }
+    }
+}
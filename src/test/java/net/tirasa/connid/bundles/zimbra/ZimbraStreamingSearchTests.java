@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Provisioning;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+/**
+ * Checks how search responses are read, without a Zimbra server.
+ */
+public class ZimbraStreamingSearchTests {
+
+    private static final String RESPONSE = "<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\">"
+            + "<soap:Header><context xmlns=\"urn:zimbra\"/></soap:Header><soap:Body>"
+            + "<SearchDirectoryResponse xmlns=\"urn:zimbraAdmin\" more=\"%s\" searchTotal=\"10\">"
+            + "<account name=\"guest@example.com\" id=\"1\"><a n=\"uid\">guest</a>"
+            + "<a n=\"zimbraMailAlias\">ospite@example.com</a><a n=\"zimbraMailAlias\">gast@example.com</a></account>"
+            + "<account name=\"admin@example.com\" id=\"2\"><a n=\"uid\">admin</a></account>"
+            + "</SearchDirectoryResponse></soap:Body></soap:Envelope>";
+
+    private static final String FAULT = "<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\">"
+            + "<soap:Body><soap:Fault><soap:Code><soap:Value>soap:Sender</soap:Value></soap:Code>"
+            + "<soap:Reason><soap:Text>invalid request: bad query</soap:Text></soap:Reason>"
+            + "<soap:Detail><Error xmlns=\"urn:zimbra\"><Code>service.INVALID_REQUEST</Code></Error></soap:Detail>"
+            + "</soap:Fault></soap:Body></soap:Envelope>";
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static ZimbraSearch.EntryHandler collect(final List<Map<String, Object>> entries, final int max) {
+        return new ZimbraSearch.EntryHandler() {
+
+            @Override
+            public boolean handle(Map<String, Object> zimbraAttrs) {
+                entries.add(zimbraAttrs);
+                return entries.size() < max;
+            }
+        };
+    }
+
+    @Test
+    public void entries() throws XMLStreamException, ServiceException {
+        List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+        ZimbraSearch.Page page = ZimbraStreamingSearch.readResponse(
+                stream(String.format(RESPONSE, "1")), collect(entries, Integer.MAX_VALUE), 5);
+        assertEquals(2, entries.size());
+        assertEquals("guest", entries.get(0).get(Provisioning.A_uid));
+        assertArrayEquals(new String[] { "ospite@example.com", "gast@example.com" },
+                (Object[]) entries.get(0).get(Provisioning.A_zimbraMailAlias));
+        assertEquals("admin", entries.get(1).get(Provisioning.A_uid));
+        assertTrue(page.isMore());
+        assertFalse(page.isStopped());
+        assertEquals(10, page.getTotal());
+        assertEquals(7, page.getNextOffset());
+    }
+
+    @Test
+    public void stopped() throws XMLStreamException, ServiceException {
+        List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+        ZimbraSearch.Page page = ZimbraStreamingSearch.readResponse(
+                stream(String.format(RESPONSE, "0")), collect(entries, 1), 0);
+        assertEquals(1, entries.size());
+        assertTrue(page.isStopped());
+        // the second entry of the page is still to be returned
+        assertTrue(page.isMore());
+
+        entries.clear();
+        page = ZimbraStreamingSearch.readResponse(stream(String.format(RESPONSE, "0")), collect(entries, 2), 0);
+        assertTrue(page.isStopped());
+        assertFalse(page.isMore());
+    }
+
+    @Test
+    public void fault() throws XMLStreamException {
+        try {
+            ZimbraStreamingSearch.readResponse(
+                    stream(FAULT), collect(new ArrayList<Map<String, Object>>(), Integer.MAX_VALUE), 0);
+            fail();
+        } catch (ServiceException e) {
+            assertTrue(e instanceof ZimbraBatch.FaultException);
+        }
+    }
+}
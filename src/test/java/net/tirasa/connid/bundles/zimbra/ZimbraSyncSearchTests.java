@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 2017 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.zimbra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Provisioning;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Test;
+
+/**
+ * Checks the changes streamed by {@link ZimbraSyncSearch} against an in-memory directory, paged as Zimbra does.
+ */
+public class ZimbraSyncSearchTests {
+
+    private static final Pattern ITEM = Pattern.compile("\\((\\w+)(>=|=)([^()]*)\\)");
+
+    /**
+     * Entries by zimbraId.
+     */
+    private final Map<String, Map<String, Object>> directory = new LinkedHashMap<String, Map<String, Object>>();
+
+    /**
+     * Whether the directory evaluates <code>&gt;=</code> on <code>zimbraId</code>.
+     */
+    private boolean idOrdering = true;
+
+    /**
+     * Evaluates the LDAP filters of sync searches: <code>&amp;</code>, <code>!</code>, presence, equality and
+     * <code>&gt;=</code>.
+     *
+     * @param filter LDAP filter
+     * @param index position in the filter, moved past the evaluated item
+     * @param entry entry attributes
+     * @return whether the entry matches
+     */
+    private static boolean matches(String filter, int[] index, Map<String, Object> entry) {
+        if (filter.startsWith("(&", index[0]) || filter.startsWith("(!", index[0])) {
+            boolean and = filter.charAt(index[0] + 1) == '&';
+            index[0] += 2;
+            boolean result = true;
+            while (filter.charAt(index[0]) == '(') {
+                result &= matches(filter, index, entry);
+            }
+            index[0]++;
+            return and ? result : !result;
+        }
+        Matcher item = ITEM.matcher(filter);
+        assertTrue(item.find(index[0]) && item.start() == index[0]);
+        index[0] = item.end();
+        String value = (String) entry.get(item.group(1));
+        if (value == null) {
+            return false;
+        }
+        if ("*".equals(item.group(3))) {
+            return true;
+        }
+        return "=".equals(item.group(2)) ? value.equals(item.group(3)) : value.compareTo(item.group(3)) >= 0;
+    }
+
+    private void put(String id, String created, String modified) {
+        Map<String, Object> zimbraAttrs = new HashMap<String, Object>();
+        zimbraAttrs.put(Provisioning.A_zimbraId, id);
+        zimbraAttrs.put(Provisioning.A_uid, "user" + id);
+        zimbraAttrs.put(Provisioning.A_zimbraCreateTimestamp, created);
+        if (modified != null) {
+            zimbraAttrs.put(Provisioning.A_zimbraModifyTimestamp, modified);
+        }
+        directory.put(id, zimbraAttrs);
+    }
+
+    private ZimbraSyncSearch newSyncSearch(int pageSize) {
+        return new ZimbraSyncSearch(null, null, ObjectClass.ACCOUNT, null, pageSize) {
+
+            @Override
+            protected ZimbraSearch newSearch(final String query) {
+                return new ZimbraSearch(null, null, ObjectClass.ACCOUNT, query, null) {
+
+                    @Override
+                    public Page page(EntryHandler handler, int offset, int limit) throws ServiceException {
+                        String filter = query == null ? "" : query;
+                        List<Map<String, Object>> matching = new ArrayList<Map<String, Object>>();
+                        for (Map<String, Object> entry : directory.values()) {
+                            if (!idOrdering && filter.contains(Provisioning.A_zimbraId + ">=")) {
+                                // undefined filter
+                                continue;
+                            }
+                            if (filter.isEmpty() || matches(filter, new int[1], entry)) {
+                                matching.add(entry);
+                            }
+                        }
+                        // entries with the same timestamp in no particular order
+                        Collections.sort(matching, new Comparator<Map<String, Object>>() {
+
+                            @Override
+                            public int compare(Map<String, Object> o1, Map<String, Object> o2) {
+                                int compare = ((String) o1.get(sortBy)).compareTo((String) o2.get(sortBy));
+                                if (!sortAscending) {
+                                    compare = -compare;
+                                }
+                                return compare == 0
+                                        ? ((String) o2.get(Provisioning.A_zimbraId)).compareTo(
+                                                (String) o1.get(Provisioning.A_zimbraId))
+                                        : compare;
+                            }
+                        });
+                        int end = Math.min(matching.size(), offset + limit);
+                        int handled = 0;
+                        for (Map<String, Object> entry : matching.subList(offset, end)) {
+                            handled++;
+                            if (!handler.handle(new HashMap<String, Object>(entry))) {
+                                return new Page(offset, handled, offset + handled < matching.size(),
+                                        matching.size(), true);
+                            }
+                        }
+                        return new Page(offset, handled, end < matching.size(), matching.size(), false);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return ids of the changes handled, then the final position
+     */
+    private List<String> sync(ZimbraSyncToken from, int pageSize, final int max, ZimbraSyncToken[] last)
+            throws ServiceException {
+
+        final List<String> ids = new ArrayList<String>();
+        last[0] = newSyncSearch(pageSize).stream(from, new ZimbraSyncSearch.ChangeHandler() {
+
+            @Override
+            public boolean handle(Map<String, Object> zimbraAttrs, ZimbraSyncToken token) {
+                ids.add((String) zimbraAttrs.get(Provisioning.A_zimbraId));
+                return ids.size() < max;
+            }
+        });
+        return ids;
+    }
+
+    @Test
+    public void merged() throws ServiceException {
+        put("a", "20200101000000Z", "20200105000000Z");
+        put("b", "20200102000000Z", null);
+        put("c", "20200103000000Z", "20200104000000Z");
+        put("d", "20200106000000Z", null);
+
+        ZimbraSyncToken[] last = new ZimbraSyncToken[1];
+        assertEquals(Arrays.asList("b", "c", "a", "d"), sync(null, 1, Integer.MAX_VALUE, last));
+        assertEquals("20200106000000Z", last[0].getTimestamp());
+        assertEquals(Collections.<String>emptyList(), sync(last[0], 1, Integer.MAX_VALUE, last));
+    }
+
+    @Test
+    public void changedWhileSyncing() throws ServiceException {
+        put("a", "20200101000000Z", null);
+        put("b", "20200102000000Z", null);
+        put("c", "20200103000000Z", null);
+        put("d", "20200104000000Z", null);
+
+        ZimbraSyncToken[] last = new ZimbraSyncToken[1];
+        assertEquals(Arrays.asList("a", "b"), sync(null, 1, 2, last));
+
+        // a modified and b deleted after the first changes were handled: no entry is skipped
+        put("a", "20200101000000Z", "20200110000000Z");
+        directory.remove("b");
+        put("e", "20200105000000Z", null);
+        assertEquals(Arrays.asList("c", "d", "e", "a"), sync(last[0], 1, Integer.MAX_VALUE, last));
+    }
+
+    @Test
+    public void sameSecond() throws ServiceException {
+        List<String> expected = new ArrayList<String>();
+        put("a", "20191231000000Z", null);
+        for (int i = 0; i < 7; i++) {
+            put("id" + i, "20200101000000Z", i % 2 == 0 ? null : "20200101000000Z");
+            expected.add("id" + i);
+        }
+        put("z", "20200102000000Z", null);
+        expected.add("z");
+
+        ZimbraSyncToken[] last = new ZimbraSyncToken[1];
+        assertEquals(Collections.singletonList("a"), sync(null, 2, 1, last));
+        List<String> ids = new ArrayList<String>();
+        while (true) {
+            List<String> page = sync(last[0], 2, 3, last);
+            if (page.isEmpty()) {
+                break;
+            }
+            ids.addAll(page);
+        }
+        // in zimbraId order within the second, whatever the order of the directory
+        assertEquals(expected, ids);
+        assertEquals("20200102000000Z|z", last[0].toSyncToken().getValue());
+
+        // the token does not grow with the entries of a second
+        assertEquals(Arrays.asList("id0", "id1", "id2"), sync(null, 2, 4, last).subList(1, 4));
+        assertEquals("20200101000000Z|id2", last[0].toSyncToken().getValue());
+    }
+
+    @Test
+    public void latest() throws ServiceException {
+        put("a", "20200101000000Z", null);
+        put("c", "20200101000000Z", "20200102000000Z");
+        put("d", "20200102000000Z", null);
+        put("b", "20200102000000Z", null);
+
+        ZimbraSyncToken latest = newSyncSearch(2).latest();
+        assertEquals("20200102000000Z", latest.getTimestamp());
+        assertEquals("d", latest.getId());
+
+        // all entries of the newest second are processed
+        ZimbraSyncToken[] last = new ZimbraSyncToken[1];
+        assertEquals(Collections.<String>emptyList(), sync(latest, 2, Integer.MAX_VALUE, last));
+        put("e", "20200102000000Z", null);
+        put("f", "20200103000000Z", null);
+        assertEquals(Arrays.asList("e", "f"), sync(latest, 2, Integer.MAX_VALUE, last));
+
+        directory.clear();
+        assertNull(newSyncSearch(2).latest());
+    }
+
+    private List<String> streamById(int pageSize, final int max) throws ServiceException {
+        final List<String> ids = new ArrayList<String>();
+        int handled = newSyncSearch(pageSize).streamById(new ZimbraSearch.EntryHandler() {
+
+            @Override
+            public boolean handle(Map<String, Object> zimbraAttrs) {
+                String id = (String) zimbraAttrs.get(Provisioning.A_zimbraId);
+                ids.add(id);
+                if ("c".equals(id)) {
+                    // entries seen, and not yet seen, deleted and created while streaming
+                    directory.remove("a");
+                    directory.remove("b");
+                    directory.remove("e");
+                    put("k", "20200101000000Z", null);
+                }
+                return ids.size() < max;
+            }
+        });
+        assertEquals(ids.size(), handled);
+        return ids;
+    }
+
+    @Test
+    public void byId() throws ServiceException {
+        for (String id : new String[] { "j", "d", "a", "h", "b", "f", "c", "g", "i", "e" }) {
+            put(id, "20200101000000Z", id.compareTo("e") < 0 ? null : "20200102000000Z");
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "d", "f", "g", "h", "i", "j", "k"), streamById(3, Integer.MAX_VALUE));
+
+        assertEquals(Arrays.asList("c", "d"), streamById(1, 2));
+    }
+
+    @Test
+    public void byIdUnordered() {
+        for (String id : new String[] { "a", "b", "c", "d" }) {
+            put(id, "20200101000000Z", null);
+        }
+        idOrdering = false;
+        try {
+            streamById(2, Integer.MAX_VALUE);
+            fail();
+        } catch (ServiceException ex) {
+            // rather than a stream ending after the first page
+        }
+    }
+
+    @Test
+    public void token() {
+        ZimbraSyncToken token = new ZimbraSyncToken("20200101000000Z", "b");
+        ZimbraSyncToken read = ZimbraSyncToken.fromSyncToken(token.toSyncToken());
+        assertEquals(token.getTimestamp(), read.getTimestamp());
+        assertEquals(token.getId(), read.getId());
+        assertEquals("20200101000000.5Z",
+                ZimbraSyncToken.fromSyncToken(new SyncToken("20200101000000.5Z")).getTimestamp());
+        assertTrue(read.isProcessed("20200101000000Z", "a"));
+        assertFalse(read.isProcessed("20200101000000Z", "c"));
+
+        // several ids, as listed by earlier versions: that second is read again
+        read = ZimbraSyncToken.fromSyncToken(new SyncToken("20200101000000Z|a,b"));
+        assertNull(read.getId());
+        assertFalse(read.isProcessed("20200101000000Z", "a"));
+        assertTrue(read.isProcessed("20191231000000Z", "z"));
+
+        for (Object value : new Object[] { 1500000000000L, ZimbraSnapshot.toSyncToken(1L).getValue(), "|a" }) {
+            try {
+                ZimbraSyncToken.fromSyncToken(new SyncToken(value));
+                fail();
+            } catch (InvalidAttributeValueException ex) {
+                // not a timestamp token
+            }
+        }
+    }
+}